@@ -0,0 +1,255 @@
+package ch.fhnw.cpib;
+
+import ch.fhnw.cpib.exceptions.ContextError;
+import ch.fhnw.cpib.exceptions.GrammarError;
+import ch.fhnw.cpib.exceptions.LexicalError;
+import ch.fhnw.cpib.exceptions.TypeError;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.VmcFile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles many IML programs in parallel and writes the code of each program as a .vmc listing,
+ * or with -b in the binary form of {@link VmcFile}, which the VM loads without compiling again.
+ * With -c the programs are looked up in a {@link CompileCache} first, shared by all runs that use the same directory.
+ *
+ * Usage: BatchCompiler [-b] [-c cacheDirectory] [-d outputDirectory] [-j threads] (file | directory | glob) ...
+ * A directory stands for all .iml files below it, a glob like {@code programs/Add17*.iml} is matched
+ * below its directory part. Without -d each listing is written next to its .iml file, with -d the paths of the programs
+ * are kept below the output directory, programs outside the working directory keep their absolute path without the root.
+ * An existing .vmc file is only replaced if the batch compiler wrote it, so the listings of the reference compiler
+ * next to the programs (e.g. iml-programs/Factorial.vmc) stay, use -d for those programs.
+ * Prints one diagnostic line per program in the order of the arguments, the exit code is 1 if any program failed.
+ */
+public class BatchCompiler {
+
+    public static class Result {
+        public final Path file;
+        public final Path output; // null if the compilation failed
+        public final int codeSize;
+        public final long nanos;
+        public final Exception error; // null if the compilation succeeded
+
+        Result(Path file, Path output, int codeSize, long nanos, Exception error) {
+            this.file = file;
+            this.output = output;
+            this.codeSize = codeSize;
+            this.nanos = nanos;
+            this.error = error;
+        }
+
+        public boolean succeeded() {
+            return error == null;
+        }
+
+        @Override
+        public String toString() {
+            if (succeeded()) {
+                return String.format("OK   %s -> %s (%d instructions, %.1f ms)", file, output, codeSize, nanos / 1e6);
+            }
+            return String.format("FAIL %s: %s: %s", file, error.getClass().getSimpleName(), error.getMessage());
+        }
+    }
+
+    private final Path outputDirectory; // null to write next to the sources
+    private final int threads;
+    private final boolean binary;
+    private final CompileCache cache; // null to always compile
+
+    public BatchCompiler(Path outputDirectory, int threads) {
+        this(outputDirectory, threads, false);
+    }
+
+    public BatchCompiler(Path outputDirectory, int threads, boolean binary) {
+        this(outputDirectory, threads, binary, null);
+    }
+
+    public BatchCompiler(Path outputDirectory, int threads, boolean binary, CompileCache cache) {
+        this.outputDirectory = outputDirectory;
+        this.threads = threads;
+        this.binary = binary;
+        this.cache = cache;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path outputDirectory = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean binary = false;
+        CompileCache cache = null;
+        List<String> locations = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-b")) {
+                binary = true;
+            } else if (args[i].equals("-c") && i + 1 < args.length) {
+                cache = new CompileCache(Path.of(args[++i]));
+            } else if (args[i].equals("-d") && i + 1 < args.length) {
+                outputDirectory = Path.of(args[++i]);
+            } else if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                locations.add(args[i]);
+            }
+        }
+        if (locations.isEmpty()) {
+            System.err.println("Usage: BatchCompiler [-b] [-c cacheDirectory] [-d outputDirectory] [-j threads] (file | directory | glob) ...");
+            System.exit(2);
+        }
+
+        long start = System.nanoTime();
+        List<Result> results = new BatchCompiler(outputDirectory, threads, binary, cache).compileAll(files(locations));
+        int failed = 0;
+        for (Result result : results) {
+            System.out.println(result);
+            if (!result.succeeded()) failed++;
+        }
+        System.out.printf("%d programs, %d failed, %.1f ms on %d threads%n",
+                results.size(), failed, (System.nanoTime() - start) / 1e6, threads);
+        if (cache != null) System.out.println("cache " + cache);
+        if (failed > 0) System.exit(1);
+    }
+
+    /**
+     * The .iml files of the arguments, in the order of the arguments and sorted per directory or glob.
+     */
+    public static List<Path> files(List<String> locations) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String location : locations) {
+            int wildcard = indexOfWildcard(location);
+            if (wildcard < 0) {
+                Path path = Path.of(location);
+                files.addAll(Files.isDirectory(path) ? walk(path, p -> p.getFileName().toString().endsWith(".iml")) : List.of(path));
+            } else {
+                // the directory part before the first wildcard is the root of the search
+                int separator = location.lastIndexOf('/', wildcard);
+                Path root = separator < 0 ? Path.of("") : Path.of(location.substring(0, separator + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + location);
+                files.addAll(walk(root, matcher));
+            }
+        }
+        return files;
+    }
+
+    private static int indexOfWildcard(String location) {
+        for (int i = 0; i < location.length(); i++) {
+            if ("*?[{".indexOf(location.charAt(i)) >= 0) return i;
+        }
+        return -1;
+    }
+
+    private static List<Path> walk(Path root, PathMatcher matcher) throws IOException {
+        try (Stream<Path> stream = Files.walk(root.toString().isEmpty() ? Path.of(".") : root)) {
+            return stream
+                    .map(p -> root.toString().isEmpty() ? Path.of(".").relativize(p) : p)
+                    .filter(p -> Files.isRegularFile(p) && matcher.matches(p))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Compiles the files on a work stealing pool, the results are in the order of the files.
+     * A file whose output is the output of an earlier, different file fails instead of replacing it.
+     */
+    public List<Result> compileAll(List<Path> files) throws InterruptedException {
+        ExecutorService pool = Executors.newWorkStealingPool(threads);
+        try {
+            Map<Path, Path> writers = new HashMap<>(); // of the outputs
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Path file : files) {
+                Path output = outputFor(file);
+                Path writer = writers.putIfAbsent(output.toAbsolutePath().normalize(), file.toAbsolutePath().normalize());
+                if (writer != null && !writer.equals(file.toAbsolutePath().normalize())) {
+                    futures.add(CompletableFuture.completedFuture(new Result(file, null, 0, 0,
+                            new FileAlreadyExistsException(output.toString(), null, "already the output of " + writer))));
+                } else {
+                    futures.add(pool.submit(() -> compile(file)));
+                }
+            }
+
+            List<Result> results = new ArrayList<>();
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause()); // compile reports all errors as results
+                }
+            }
+            return results;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Compiles one file and writes its code, every error is reported in the result.
+     */
+    public Result compile(Path file) {
+        long start = System.nanoTime();
+        try {
+            Path output = outputFor(file);
+            if (Files.exists(output) && !writtenByBatchCompiler(output)) {
+                throw new FileAlreadyExistsException(output.toString(), null, "not written by the batch compiler, use -d");
+            }
+            ICodeArray code = cache != null ? cache.compile(file) : Main.compile(file);
+            if (output.getParent() != null) Files.createDirectories(output.getParent());
+            if (binary) {
+                VmcFile.write(code, output);
+            } else {
+                Files.writeString(output, code.toString());
+            }
+            return new Result(file, output, code.getSize(), System.nanoTime() - start, null);
+        } catch (LexicalError | GrammarError | ContextError | TypeError | ICodeArray.CodeTooSmallError | IOException e) {
+            return new Result(file, null, 0, System.nanoTime() - start, e);
+        } catch (RuntimeException e) {
+            // e.g. constructs the code generator does not implement yet
+            return new Result(file, null, 0, System.nanoTime() - start, e);
+        } catch (StackOverflowError e) {
+            return new Result(file, null, 0, System.nanoTime() - start,
+                    new IllegalStateException("program nested too deeply for the stack of a compiler thread"));
+        }
+    }
+
+    private Path outputFor(Path file) {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".iml")) name = name.substring(0, name.length() - ".iml".length());
+        if (outputDirectory == null) return file.resolveSibling(name + ".vmc");
+        // keep the directories, so equally named programs of different directories don't collide,
+        // a path outside the working directory is made absolute, it must not lead out of the output directory
+        Path relative = file.normalize();
+        if (relative.isAbsolute() || relative.startsWith("..")) {
+            Path absolute = file.toAbsolutePath().normalize();
+            relative = absolute.getRoot().relativize(absolute);
+        }
+        return outputDirectory.resolve(relative).resolveSibling(name + ".vmc");
+    }
+
+    /**
+     * Whether the file is the binary form or a listing as written by the batch compiler ("0: AllocBlock(1)"),
+     * the listings of the reference compiler start with the name of the program.
+     */
+    private static boolean writtenByBatchCompiler(Path file) throws IOException {
+        if (VmcFile.isVmcFile(file)) return true;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String first = reader.readLine();
+            return first == null || first.matches("\\d+: .*");
+        }
+    }
+}
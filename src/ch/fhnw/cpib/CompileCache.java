@@ -0,0 +1,237 @@
+package ch.fhnw.cpib;
+
+import ch.fhnw.cpib.exceptions.ContextError;
+import ch.fhnw.cpib.exceptions.GrammarError;
+import ch.fhnw.cpib.exceptions.LexicalError;
+import ch.fhnw.cpib.exceptions.TypeError;
+import ch.fhnw.lederer.virtualmachineFS2015.Bytecode;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.VmcFile;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compiled programs, to skip the whole pipeline of {@link Main#compile(String)} for
+ * programs compiled before. An entry is the binary {@link VmcFile} of the code, named by the SHA-256
+ * of the compiler's class files, the optimization flag and the source text, so an edited program or a
+ * changed compiler never sees a stale entry.
+ *
+ * Several threads and processes may share the directory: an entry is written to a temporary file and
+ * moved into place atomically, so a reader sees either no entry or a complete one. A hit touches the
+ * modification time of the entry, when the entries exceed the size bound the least recently used ones
+ * are removed by whichever process holds the lock file of the directory.
+ */
+public class CompileCache {
+
+    /**
+     * Part of every key, the SHA-256 of the class files the compiler was loaded from, computed once per run.
+     */
+    public static final String COMPILER_ID = compilerId();
+
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    private static final String ENTRY_SUFFIX = ".vmc";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = "lock";
+    // temporary files of crashed processes are removed once they are that old
+    private static final long STALE_TEMPORARY_MILLIS = 3_600_000L;
+
+    private final Path directory;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public CompileCache(Path directory) throws IOException {
+        this(directory, DEFAULT_MAX_BYTES);
+    }
+
+    public CompileCache(Path directory, long maxBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        evict(); // the bound may be smaller than in earlier runs
+    }
+
+    public ICodeArray compile(Path file) throws IOException, LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(Files.readString(file), true);
+    }
+
+    public ICodeArray compile(String programCode) throws IOException, LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(programCode, true);
+    }
+
+    /**
+     * The code of the program from the cache, or compiled and then added to the cache.
+     * Programs with errors are not cached, their errors are thrown as by {@link Main#compile(String, boolean)}.
+     */
+    public ICodeArray compile(String programCode, boolean optimize) throws IOException, LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        Path entry = directory.resolve(key(programCode, optimize) + ENTRY_SUFFIX);
+        Bytecode cached = lookup(entry);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.decode();
+        }
+        misses.incrementAndGet();
+        ICodeArray code = Main.compile(programCode, optimize);
+        store(entry, code);
+        return code;
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d hits, %d misses, %d evictions", directory, hits(), misses(), evictions());
+    }
+
+    static String key(String programCode, boolean optimize) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((COMPILER_ID + '\n' + (optimize ? "optimized" : "plain") + '\n').getBytes(StandardCharsets.UTF_8));
+            digest.update(programCode.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform implements SHA-256
+        }
+    }
+
+    /**
+     * The digest of all class files below the directory of the compiler classes, or of the jar holding them.
+     * If they cannot be read, the id is unique to this run, so no entry of another compiler can be hit.
+     */
+    private static String compilerId() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            CodeSource source = CompileCache.class.getProtectionDomain().getCodeSource();
+            if (source == null) return UUID.randomUUID().toString();
+            Path location = Path.of(source.getLocation().toURI());
+            if (Files.isDirectory(location)) {
+                try (Stream<Path> files = Files.walk(location)) {
+                    Iterable<Path> classFiles = files.filter(file -> file.toString().endsWith(".class")).sorted()::iterator;
+                    for (Path file : classFiles) {
+                        digest.update((location.relativize(file) + "\n").getBytes(StandardCharsets.UTF_8));
+                        digest.update(Files.readAllBytes(file));
+                    }
+                }
+            } else {
+                digest.update(Files.readAllBytes(location));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every Java platform implements SHA-256
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return UUID.randomUUID().toString();
+        }
+    }
+
+    /**
+     * The cached code, or null if there is no entry. A damaged entry is removed.
+     */
+    private Bytecode lookup(Path entry) throws IOException {
+        try {
+            Bytecode bytecode = VmcFile.read(entry);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return bytecode;
+        } catch (NoSuchFileException e) {
+            return null; // never cached or just evicted
+        } catch (VmcFile.FormatError e) {
+            Files.deleteIfExists(entry);
+            return null;
+        }
+    }
+
+    private void store(Path entry, ICodeArray code) throws IOException {
+        Path temporary = Files.createTempFile(directory, entry.getFileName().toString(), TEMPORARY_SUFFIX);
+        try {
+            VmcFile.write(code, temporary);
+            // another process may have stored the same entry meanwhile, its content is the same
+            Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        evict();
+    }
+
+    /**
+     * Removes the least recently used entries until the entries fit into the size bound.
+     * Only one process evicts at a time, the others leave it to that one.
+     */
+    private void evict() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock lock = channel.tryLock()) {
+            if (lock == null) return;
+
+            List<Path> entries = new ArrayList<>();
+            Map<Path, FileTime> times = new HashMap<>();
+            long total = 0;
+            long now = System.currentTimeMillis();
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    try {
+                        FileTime time = Files.getLastModifiedTime(file);
+                        if (name.endsWith(ENTRY_SUFFIX)) {
+                            entries.add(file);
+                            times.put(file, time);
+                            total += Files.size(file);
+                        } else if (name.endsWith(TEMPORARY_SUFFIX) && now - time.toMillis() > STALE_TEMPORARY_MILLIS) {
+                            Files.deleteIfExists(file);
+                        }
+                    } catch (NoSuchFileException e) {
+                        // removed by another process meanwhile
+                    }
+                }
+            }
+            if (total <= maxBytes) return;
+
+            entries.sort(Comparator.comparing(times::get));
+            for (int i = 0; i < entries.size() && total > maxBytes; i++) {
+                Path file = entries.get(i);
+                try {
+                    long size = Files.size(file);
+                    if (Files.deleteIfExists(file)) {
+                        total -= size;
+                        evictions.incrementAndGet();
+                    }
+                } catch (NoSuchFileException e) {
+                    // removed by another process meanwhile
+                }
+            }
+        } catch (OverlappingFileLockException e) {
+            // another thread of this process is evicting
+        }
+    }
+}
@@ -1,31 +1,89 @@
 package ch.fhnw.cpib;
 
 import ch.fhnw.cpib.codeGen.Environment;
+import ch.fhnw.cpib.codeGen.SourceMap;
 import ch.fhnw.cpib.exceptions.ContextError;
 import ch.fhnw.cpib.exceptions.GrammarError;
 import ch.fhnw.cpib.exceptions.LexicalError;
 import ch.fhnw.cpib.exceptions.TypeError;
-import ch.fhnw.cpib.lexer.ITokenList;
+import ch.fhnw.cpib.lexer.IScanner;
 import ch.fhnw.cpib.lexer.Scanner;
 import ch.fhnw.cpib.parser.AbsSyn;
+import ch.fhnw.cpib.parser.CommonSubexpressionEliminator;
 import ch.fhnw.cpib.parser.ConcSyn;
+import ch.fhnw.cpib.parser.ConstantFolder;
+import ch.fhnw.cpib.parser.DeadCodeEliminator;
 import ch.fhnw.cpib.parser.Parser;
 import ch.fhnw.lederer.virtualmachineFS2015.CodeArray;
 import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.IntVirtualMachine;
+import ch.fhnw.lederer.virtualmachineFS2015.PeepholeOptimizer;
 import ch.fhnw.lederer.virtualmachineFS2015.VirtualMachine;
 
-import java.nio.file.Files;
+import java.io.IOException;
+import java.io.Reader;
 import java.nio.file.Path;
 
 public class Main {
 
-    private static ICodeArray compile(String programCode) throws LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+    public static ICodeArray compile(String programCode) throws LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(new Scanner(programCode), true, null);
+    }
+
+    /**
+     * Compiles and records the source position of every location of the code in the source map.
+     */
+    public static ICodeArray compile(String programCode, SourceMap sourceMap) throws LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(new Scanner(programCode), true, sourceMap);
+    }
+
+    /**
+     * Compiles with or without the optimizer, the {@link ConstantFolder}, the {@link DeadCodeEliminator},
+     * the {@link CommonSubexpressionEliminator} and the {@link PeepholeOptimizer}, e.g. to compare the code.
+     * The warnings of the optimizer, e.g. divisions by the literal 0, are printed to standard error.
+     */
+    public static ICodeArray compile(String programCode, boolean optimize) throws LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(new Scanner(programCode), optimize, null);
+    }
+
+    /**
+     * Compiles while reading, the program is never held in memory as a whole.
+     */
+    public static ICodeArray compile(Reader programCode) throws LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(new Scanner(programCode), true, null);
+    }
+
+    /**
+     * Compiles the memory mapped file.
+     */
+    public static ICodeArray compile(Path file) throws IOException, LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(Scanner.ofFile(file), true, null);
+    }
+
+    /**
+     * Compiles the memory mapped file and records the source position of every location of the code in the source map.
+     */
+    public static ICodeArray compile(Path file, SourceMap sourceMap) throws IOException, LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
+        return compile(Scanner.ofFile(file), true, sourceMap);
+    }
+
+    private static ICodeArray compile(IScanner scanner, boolean optimize, SourceMap sourceMap) throws LexicalError, GrammarError, ContextError, TypeError, ICodeArray.CodeTooSmallError {
         ICodeArray codeArray = new CodeArray(100_000); // just make it large enough
-        ITokenList tokens = new Scanner(programCode).scan();
-        ConcSyn.IProgram program = new Parser(tokens).parse();
+        // the parser pulls the tokens from the scanner as it needs them
+        ConcSyn.IProgram program = new Parser(scanner.stream()).parse();
         AbsSyn.IProgram abstractProgram = program.toAbsSyn();
         AbsSyn.IProgram validated = abstractProgram.check();
-        validated.code(codeArray, 0, new Environment(validated.getSymbolTable()));
+        if (optimize) {
+            for (String warning : ConstantFolder.fold(validated)) System.err.println("Warning: " + warning);
+            DeadCodeEliminator.eliminate(validated);
+            CommonSubexpressionEliminator.eliminate(validated);
+        }
+        int size = validated.code(codeArray, 0, new Environment(validated.getSymbolTable(), sourceMap));
+        if (optimize && sourceMap != null) {
+            sourceMap.replace(PeepholeOptimizer.optimize(codeArray, sourceMap.toArray(size)));
+        } else if (optimize) {
+            PeepholeOptimizer.optimize(codeArray);
+        }
         codeArray.resize();
         return codeArray;
     }
@@ -48,9 +106,12 @@ public class Main {
         // var file = Path.of("programs/WhileCmd.iml");
 
         try {
-            var codeArray = compile(Files.readString(file));
+            var codeArray = compile(file);
             System.out.println(codeArray.toString());
-            new VirtualMachine(codeArray, 100_000);
+            new IntVirtualMachine(codeArray, 100_000); // allocation free store
+            // new BytecodeVirtualMachine(codeArray, 100_000); // switch dispatch
+            // new TieredVirtualMachine(codeArray, 100_000); // compiles hot routines and loops to JVM classes
+            // new VirtualMachine(codeArray, 100_000); // reference implementation
 
         } catch (GrammarError | LexicalError | ContextError | TypeError | ICodeArray.CodeTooSmallError e) {
             System.out.printf("Error compiling '%s'%n", file.getFileName().toString());
@@ -0,0 +1,69 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.IVirtualMachine;
+import ch.fhnw.lederer.virtualmachineFS2015.InputUtility;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Helpers shared by the benchmarks: collecting the sample programs and running the VM without console interaction.
+ */
+public class BenchmarkSupport {
+
+    public static final List<Path> SAMPLE_DIRECTORIES = List.of(
+            Path.of("programs"),
+            Path.of("iml-programs"),
+            Path.of("programs-demo")
+    );
+
+    public interface IVmRunner {
+        void run(ICodeArray code) throws IVirtualMachine.ExecutionError;
+    }
+
+    /**
+     * All .iml files in the given directories (or the files themselves), sorted by path.
+     */
+    public static List<Path> imlFiles(List<Path> locations) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path location : locations) {
+            if (Files.isDirectory(location)) {
+                try (Stream<Path> stream = Files.list(location)) {
+                    files.addAll(stream
+                            .filter(p -> p.getFileName().toString().endsWith(".iml"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else {
+                files.add(location);
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Runs the program {@code runs} times, each time reading from a fresh copy of {@code input}
+     * and discarding the output.
+     */
+    public static void runQuietly(IVmRunner vm, ICodeArray code, byte[] input, int runs) throws IVirtualMachine.ExecutionError {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int i = 0; i < runs; i++) {
+                InputUtility.setInput(new ByteArrayInputStream(input));
+                vm.run(code);
+            }
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
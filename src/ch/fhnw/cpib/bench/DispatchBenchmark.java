@@ -0,0 +1,48 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.lederer.virtualmachineFS2015.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the per-instruction object dispatch of {@link VirtualMachine} / {@link IntVirtualMachine}
+ * with the switch dispatch of {@link BytecodeVirtualMachine} on the same programs.
+ */
+public class DispatchBenchmark {
+
+    private static final int STORE_SIZE = 100_000;
+    private static final int WARMUP_RUNS = 5_000;
+    private static final int MEASURED_RUNS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, BenchmarkSupport.IVmRunner> vms = new LinkedHashMap<>();
+        vms.put("VirtualMachine", code -> new VirtualMachine(code, STORE_SIZE));
+        vms.put("IntVirtualMachine", code -> new IntVirtualMachine(code, STORE_SIZE));
+        vms.put("BytecodeVirtualMachine", code -> new BytecodeVirtualMachine(code, STORE_SIZE));
+
+        benchmark(vms, Path.of("programs-demo/factorialRec.iml"), "12\n");
+        benchmark(vms, Path.of("programs-demo/EEA.iml"), "1134903170\n701408733\n");
+    }
+
+    private static void benchmark(Map<String, BenchmarkSupport.IVmRunner> vms, Path file, String input) throws Exception {
+        ICodeArray code = Main.compile(Files.readString(file));
+        byte[] inputBytes = input.getBytes(StandardCharsets.UTF_8);
+
+        System.out.printf("%s (%d instructions)%n", file, code.getSize());
+        double reference = 0;
+        for (Map.Entry<String, BenchmarkSupport.IVmRunner> vm : vms.entrySet()) {
+            BenchmarkSupport.runQuietly(vm.getValue(), code, inputBytes, WARMUP_RUNS);
+            long start = System.nanoTime();
+            BenchmarkSupport.runQuietly(vm.getValue(), code, inputBytes, MEASURED_RUNS);
+            double micros = (System.nanoTime() - start) / 1_000.0 / MEASURED_RUNS;
+
+            if (reference == 0) reference = micros;
+            System.out.printf("  %-24s %10.3f us/run  %6.2fx%n", vm.getKey(), micros, reference / micros);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package ch.fhnw.cpib.bench;
+
+import java.util.Random;
+
+/**
+ * Generates large, valid IML programs for scaling tests.
+ *
+ * A program consists of independent units. Every unit declares nested records, globals, functions
+ * (recursive, with record parameters and record results) and a procedure with all supported
+ * parameter modes and global imports, followed by commands in the main body that use them.
+ * Units after the first also call into their predecessor.
+ * Arithmetic expressions are nested up to the configured depth.
+ *
+ * Only constructs this compiler supports end to end are emitted (no INOUT / OUT COPY parameters,
+ * no divE / modE, no program parameters), every loop terminates and no division by zero can occur,
+ * so the generated programs can be executed as well.
+ *
+ * Usage: ImlGenerator lines [expressionDepth [seed]]
+ */
+public class ImlGenerator {
+
+    private final Random random;
+    private final int expressionDepth;
+
+    private final StringBuilder declarations = new StringBuilder();
+    private final StringBuilder commands = new StringBuilder();
+    private int lines;
+
+    public ImlGenerator(long seed, int expressionDepth) {
+        this.random = new Random(seed);
+        this.expressionDepth = expressionDepth;
+    }
+
+    public static void main(String[] args) {
+        int lines = Integer.parseInt(args[0]);
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        System.out.print(new ImlGenerator(seed, depth).generate(lines));
+    }
+
+    /**
+     * A program with (at least) the given number of lines.
+     */
+    public String generate(int targetLines) {
+        declarations.setLength(0);
+        commands.setLength(0);
+        lines = 4; // program, global, do, endprogram
+
+        int units = 0;
+        while (lines < targetLines || units == 0) {
+            unit(units++);
+        }
+        // no separator after the last declaration
+        declarations.setLength(declarations.length() - 2);
+        declarations.append('\n');
+
+        return "program Generated()\n" +
+                "global\n" +
+                declarations +
+                "do\n" +
+                commands +
+                "  debugout " + units + "\n" +
+                "endprogram\n";
+    }
+
+    private void unit(int k) {
+        String u = "u" + k;
+        String point = u + "Point", line = u + "Line", box = u + "Box";
+
+        decl("// unit " + k);
+        decl("record " + point + "(x:int32, y:int32);");
+        decl("record " + line + "(from:" + point + ", to:" + point + ", weight:int32);");
+        decl("record " + box + "(line:" + line + ", corner:" + point + ", visible:bool);");
+        decl("var " + u + "a:int32;");
+        decl("var " + u + "b:int32;");
+        decl("var " + u + "c:int32;");
+        decl("const " + u + "k:int32;");
+        decl("var " + u + "on:bool;");
+        decl("var " + u + "box:" + box + ";");
+
+        decl("fun " + u + "Mid(l:" + line + ") returns const m:" + point);
+        decl("do");
+        decl("  m init := " + point + "((l.from.x + l.to.x) divT 2, (l.from.y + l.to.y) divT 2)");
+        decl("endfun;");
+
+        decl("fun " + u + "Sum(n:int32) returns var s:int32");
+        decl("do");
+        decl("  if n > 0 then");
+        decl("    s := n + " + u + "Sum(n - 1)");
+        decl("  else");
+        decl("    s := 0");
+        decl("  endif");
+        decl("endfun;");
+
+        String[] evalAtoms = {"a", "b", u + "k", "t"};
+        decl("fun " + u + "Eval(a:int32, b:int32) returns var r:int32");
+        decl("global in const " + u + "k");
+        decl("local var t:int32; var i:int32");
+        decl("do");
+        decl("  t init := " + expression(expressionDepth, "a", "b", u + "k") + ";");
+        decl("  i init := 0;");
+        decl("  while i < 3 /\\? t > -1000000 do");
+        decl("    t := " + expression(expressionDepth / 2, evalAtoms) + ";");
+        decl("    i := i + 1");
+        decl("  endwhile;");
+        decl("  r := t + " + u + "Sum(3)" + (k > 0 ? " - u" + (k - 1) + "Sum(2)" : ""));
+        decl("endfun;");
+
+        decl("proc " + u + "Update(in copy a:int32, inout ref var b:int32, out ref var c:int32, in ref const d:int32, inout ref var box:" + box + ")");
+        decl("global in const " + u + "k, inout var " + u + "on");
+        decl("local var i:int32; var t:int32");
+        decl("do");
+        decl("  i init := 0;");
+        decl("  t init := a;");
+        decl("  while i < 4 do");
+        decl("    if (t modT 2 = 0) \\/? not " + u + "on then");
+        decl("      t := t divT 2 + d");
+        decl("    else");
+        decl("      t := 3 * t + 1");
+        decl("    endif;");
+        decl("    i := i + 1");
+        decl("  endwhile;");
+        decl("  b := b + t;");
+        decl("  c := " + u + "Eval(b, d);");
+        decl("  box.corner := " + u + "Mid(box.line);");
+        decl("  box.line.weight := box.line.weight + c modT 7;");
+        decl("  box.visible := box.corner.x < box.corner.y \\/? not box.visible;");
+        decl("  " + u + "on := not " + u + "on;");
+        decl("  skip");
+        decl("endproc;");
+
+        String[] mainAtoms = {u + "a", u + "b", u + "c", u + "k", u + "box.corner.x", u + "box.line.to.y"};
+        cmd(u + "a init := " + random.nextInt(1000) + ";");
+        cmd(u + "b init := " + expression(expressionDepth, u + "a") + ";");
+        cmd(u + "c init := 0;");
+        cmd(u + "k init := " + (1 + random.nextInt(9)) + ";");
+        cmd(u + "on init := " + random.nextBoolean() + ";");
+        cmd(u + "box init := " + box + "(" + line + "(" + point + "(1, 2), " + point + "(3, 4), 5), " + point + "(6, 7), false);");
+        cmd("debugin " + u + "a;");
+        cmd("call " + u + "Update(" + u + "a, " + u + "b, " + u + "c, " + u + "k, " + u + "box);");
+        if (k > 0) {
+            String p = "u" + (k - 1);
+            cmd("call " + p + "Update(" + p + "a, " + p + "b, " + p + "c, " + p + "k, " + p + "box) init " + p + "c;");
+        }
+        cmd("if " + u + "box.visible /\\? " + u + "c >= " + u + "b then");
+        cmd("  debugout " + u + "box");
+        cmd("else");
+        cmd("  debugout " + u + "Eval(" + u + "a, " + u + "b)");
+        cmd("endif;");
+        cmd("while " + u + "c > 100 \\/? " + u + "c < -100 do");
+        cmd("  " + u + "c := " + u + "c divT 3");
+        cmd("endwhile;");
+        cmd(u + "box.corner.x := " + expression(expressionDepth, mainAtoms) + ";");
+        cmd("debugout " + u + "on /\\? not (" + u + "a = " + u + "b);");
+        cmd("debugout " + u + "Mid(" + u + "box.line);");
+    }
+
+    /**
+     * An int expression nested {@code depth} levels deep over the given atoms and literals.
+     * Only one operand is nested on every level, so the size grows linearly with the depth.
+     * Divisors are always positive literals.
+     */
+    private String expression(int depth, String... atoms) {
+        if (depth == 0) {
+            return random.nextInt(4) == 0 ? Integer.toString(random.nextInt(1000)) : atoms[random.nextInt(atoms.length)];
+        }
+        String inner = expression(depth - 1, atoms);
+        String atom = expression(0, atoms);
+        switch (random.nextInt(7)) {
+            case 0: return "(" + inner + " + " + atom + ")";
+            case 1: return "(" + atom + " - " + inner + ")";
+            case 2: return "(" + inner + " * " + atom + ")";
+            case 3: return "(" + inner + " divT " + (1 + random.nextInt(9)) + ")";
+            case 4: return "(" + inner + " modT " + (2 + random.nextInt(98)) + ")";
+            case 5: return "-(" + inner + ")";
+            default: return "(" + atom + " * 3 + " + inner + " * 2)";
+        }
+    }
+
+    private void decl(String line) {
+        declarations.append("  ").append(line).append('\n');
+        lines++;
+    }
+
+    private void cmd(String line) {
+        commands.append("  ").append(line).append('\n');
+        lines++;
+    }
+}
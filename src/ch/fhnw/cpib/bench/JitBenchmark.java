@@ -0,0 +1,85 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.lederer.virtualmachineFS2015.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares the interpreters with {@link TieredVirtualMachine} on numeric kernels that run long enough
+ * for the JIT to pay off: a hot while loop, deep recursion and the extended euclidean algorithm.
+ * Every run creates a new VM, so the time includes counting and compiling the hot regions.
+ */
+public class JitBenchmark {
+
+    private static final int STORE_SIZE = 100_000;
+    private static final int WARMUP_RUNS = 5;
+    private static final int MEASURED_RUNS = 10;
+
+    private static final String LOOP =
+            "program Loop()\n" +
+            "global\n" +
+            "  const n:int64;\n" +
+            "  var i:int64;\n" +
+            "  var s:int64\n" +
+            "do\n" +
+            "  debugin n init;\n" +
+            "  i init := 0;\n" +
+            "  s init := 0;\n" +
+            "  while i < n do\n" +
+            "    s := s + i modT 7;\n" +
+            "    i := i + 1\n" +
+            "  endwhile;\n" +
+            "  debugout s\n" +
+            "endprogram\n";
+
+    private static final String FIB =
+            "program Fib()\n" +
+            "global\n" +
+            "  const n:int64;\n" +
+            "\n" +
+            "  fun fib (n: int64) returns const r:int64\n" +
+            "  do\n" +
+            "    if n < 2 then\n" +
+            "      r init := n\n" +
+            "    else\n" +
+            "      r init := fib(n - 1) + fib(n - 2)\n" +
+            "    endif\n" +
+            "  endfun\n" +
+            "do\n" +
+            "  debugin n init;\n" +
+            "  debugout fib(n)\n" +
+            "endprogram\n";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, BenchmarkSupport.IVmRunner> vms = new LinkedHashMap<>();
+        vms.put("IntVirtualMachine", code -> new IntVirtualMachine(code, STORE_SIZE));
+        vms.put("BytecodeVirtualMachine", code -> new BytecodeVirtualMachine(code, STORE_SIZE));
+        vms.put("TieredVirtualMachine", code -> new TieredVirtualMachine(code, STORE_SIZE));
+
+        benchmark(vms, "Loop", LOOP, "5000000\n");
+        benchmark(vms, "Fib", FIB, "25\n");
+        benchmark(vms, "EEA", Files.readString(Path.of("programs-demo/EEA.iml")), "1134903170\n701408733\n");
+    }
+
+    private static void benchmark(Map<String, BenchmarkSupport.IVmRunner> vms, String name, String program, String input) throws Exception {
+        ICodeArray code = Main.compile(program);
+        byte[] inputBytes = input.getBytes(StandardCharsets.UTF_8);
+
+        System.out.printf("%s (%d instructions)%n", name, code.getSize());
+        double reference = 0;
+        for (Map.Entry<String, BenchmarkSupport.IVmRunner> vm : vms.entrySet()) {
+            BenchmarkSupport.runQuietly(vm.getValue(), code, inputBytes, WARMUP_RUNS);
+            long start = System.nanoTime();
+            BenchmarkSupport.runQuietly(vm.getValue(), code, inputBytes, MEASURED_RUNS);
+            double millis = (System.nanoTime() - start) / 1_000_000.0 / MEASURED_RUNS;
+
+            if (reference == 0) reference = millis;
+            System.out.printf("  %-24s %10.3f ms/run  %6.2fx%n", vm.getKey(), millis, reference / millis);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.lexer.ITokenList;
+import ch.fhnw.cpib.lexer.Scanner;
+import ch.fhnw.cpib.lexer.TableScanner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the hand written {@link Scanner} with the table driven {@link TableScanner}.
+ * First checks that both produce the same tokens at the same positions, then measures scan() of both
+ * on the String and on the byte input.
+ *
+ * Usage: LexerBenchmark [file or directory ...]
+ * Without arguments all programs of the sample directories and programs of {@link ImlGenerator} are used.
+ */
+public class LexerBenchmark {
+
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    private interface IScan {
+        ITokenList scan(String text, ByteBuffer bytes) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> inputs = new LinkedHashMap<>();
+        List<Path> locations = new ArrayList<>();
+        for (String arg : args) locations.add(Path.of(arg));
+        if (locations.isEmpty()) locations.addAll(BenchmarkSupport.SAMPLE_DIRECTORIES);
+        for (Path file : BenchmarkSupport.imlFiles(locations)) {
+            inputs.put(file.toString(), Files.readString(file));
+        }
+        if (args.length == 0) {
+            for (int lines : new int[]{100_000, 1_000_000}) {
+                inputs.put("generated-" + lines, new ImlGenerator(lines, 12).generate(lines));
+            }
+        }
+
+        Map<String, IScan> scanners = new LinkedHashMap<>();
+        scanners.put("Scanner(String)", (text, bytes) -> new Scanner(text).scan());
+        scanners.put("TableScanner(String)", (text, bytes) -> new TableScanner(text).scan());
+        scanners.put("Scanner(bytes)", (text, bytes) -> new Scanner(bytes).scan());
+        scanners.put("TableScanner(bytes)", (text, bytes) -> new TableScanner(bytes).scan());
+
+        System.out.printf("%-34s %10s", "MB/s", "tokens");
+        for (String name : scanners.keySet()) System.out.printf(" %22s", name);
+        System.out.println();
+
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            String text = input.getValue();
+            ByteBuffer bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+
+            ITokenList expected = new Scanner(text).scan();
+            for (Map.Entry<String, IScan> scanner : scanners.entrySet()) {
+                String difference = compare(expected, scanner.getValue().scan(text, bytes));
+                if (difference != null) {
+                    throw new AssertionError(scanner.getKey() + " differs on " + input.getKey() + ": " + difference);
+                }
+            }
+
+            System.out.printf("%-34s %10d", input.getKey(), expected.size());
+            for (IScan scanner : scanners.values()) {
+                double nanos = measure(scanner, text, bytes);
+                System.out.printf(" %22.1f", text.length() / nanos * 1e9 / (1 << 20));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * The first difference between the token lists, or null if they are identical.
+     */
+    static String compare(ITokenList expected, ITokenList actual) {
+        for (int i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+            String e = expected.get(i).toString();
+            String a = actual.get(i).toString();
+            if (!e.equals(a) || expected.position(i) != actual.position(i)) {
+                return "token " + i + ": expected " + e + "@" + expected.position(i) + " but got " + a + "@" + actual.position(i);
+            }
+        }
+        if (expected.size() != actual.size()) {
+            return "expected " + expected.size() + " tokens but got " + actual.size();
+        }
+        return null;
+    }
+
+    /**
+     * Mean nanoseconds of a scan, after warming up.
+     */
+    private static double measure(IScan scanner, String text, ByteBuffer bytes) throws Exception {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) scanner.scan(text, bytes);
+
+        int runs = 0;
+        long start = System.nanoTime();
+        long now = start;
+        while (now - start < MEASURE_NANOS || runs < 3) {
+            scanner.scan(text, bytes);
+            runs++;
+            now = System.nanoTime();
+        }
+        return (double) (now - start) / runs;
+    }
+}
@@ -0,0 +1,95 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.cpib.codeGen.CBackend;
+import ch.fhnw.cpib.codeGen.JarBackend;
+import ch.fhnw.lederer.virtualmachineFS2015.BytecodeVirtualMachine;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares whole runs of a program, each in a process of its own as a batch job would start it:
+ * the native executable of {@link CBackend}, the jar of {@link JarBackend} and the {@link BytecodeVirtualMachine},
+ * which also compiles the program first. For reference, the last column is a run on the VM within a warm JVM.
+ *
+ * Usage: NativeBenchmark [runs], needs a C compiler (cc or the environment variable CC).
+ */
+public class NativeBenchmark {
+
+    private static final int STORE_SIZE = 100_000;
+    private static final int WARM_RUNS = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--vm")) {
+            // a VM run in a fresh JVM, started by the benchmark itself
+            new BytecodeVirtualMachine(Main.compile(Path.of(args[1])), STORE_SIZE);
+            return;
+        }
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+        System.out.printf("%-34s %14s %14s %14s %14s%n", "ms per run", "native", "jar", "VM process", "VM warm");
+        benchmark(Path.of("programs-demo/EEA.iml"), "1134903170\n701408733\n", runs);
+        benchmark(Path.of("programs-demo/factorialRec.iml"), "12\n", runs);
+    }
+
+    private static void benchmark(Path file, String input, int runs) throws Exception {
+        ICodeArray code = Main.compile(file);
+        Path directory = Files.createTempDirectory("native-benchmark");
+        Path executable = directory.resolve("program");
+        Path jar = directory.resolve("program.jar");
+        Path inputFile = directory.resolve("input.txt");
+        Files.writeString(inputFile, input);
+        CBackend.compileNative(code, file.toString(), STORE_SIZE, directory.resolve("program.c"), executable);
+        try (OutputStream out = Files.newOutputStream(jar)) {
+            JarBackend.writeJar(code, "Program", STORE_SIZE, out);
+        }
+
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        double nativeMillis = measure(List.of(executable.toString()), inputFile, runs);
+        double jarMillis = measure(List.of(java, "-jar", jar.toString()), inputFile, runs);
+        double vmMillis = measure(List.of(java, "-cp", System.getProperty("java.class.path"),
+                NativeBenchmark.class.getName(), "--vm", file.toString()), inputFile, runs);
+
+        byte[] inputBytes = input.getBytes(StandardCharsets.UTF_8);
+        BenchmarkSupport.IVmRunner vm = c -> new BytecodeVirtualMachine(c, STORE_SIZE);
+        BenchmarkSupport.runQuietly(vm, code, inputBytes, WARM_RUNS);
+        long start = System.nanoTime();
+        BenchmarkSupport.runQuietly(vm, code, inputBytes, WARM_RUNS);
+        double warmMillis = (System.nanoTime() - start) / 1e6 / WARM_RUNS;
+
+        System.out.printf("%-34s %14.3f %14.3f %14.3f %14.4f%n", file, nativeMillis, jarMillis, vmMillis, warmMillis);
+
+        for (Path generated : List.of(executable, directory.resolve("program.c"), jar, inputFile, directory)) {
+            Files.deleteIfExists(generated);
+        }
+    }
+
+    /**
+     * Mean wall clock milliseconds of running the command with the input, after one run to fill the caches.
+     */
+    private static double measure(List<String> command, Path input, int runs) throws Exception {
+        run(command, input);
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            run(command, input);
+        }
+        return (System.nanoTime() - start) / 1e6 / runs;
+    }
+
+    private static void run(List<String> command, Path input) throws Exception {
+        Process process = new ProcessBuilder(new ArrayList<>(command))
+                .redirectInput(input.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        if (process.waitFor() != 0) {
+            throw new IllegalStateException(String.join(" ", command) + " failed");
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.lederer.virtualmachineFS2015.*;
+import ch.fhnw.lederer.virtualmachineFS2015.IInstructions.IExecInstr;
+import ch.fhnw.lederer.virtualmachineFS2015.IInstructions.IInstr;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the code with and without {@link PeepholeOptimizer}: the number of instructions in the code,
+ * the number of executed instructions and the run time on every VM.
+ *
+ * Usage: PeepholeBenchmark [file or directory ...], by default the programs of programs-demo.
+ */
+public class PeepholeBenchmark {
+
+    private static final int STORE_SIZE = 100_000;
+    private static final long WARMUP_NANOS = 300_000_000L;
+    private static final long MEASURE_NANOS = 700_000_000L;
+
+    // inputs that keep the programs busy, every other program reads fives
+    private static final Map<String, String> INPUTS = Map.of(
+            "factorialRec.iml", "12\n",
+            "EEA.iml", "1134903170\n701408733\n"
+    );
+    private static final String DEFAULT_INPUT = "5\n".repeat(1024);
+
+    public static void main(String[] args) throws Exception {
+        List<Path> locations = new ArrayList<>();
+        for (String arg : args) locations.add(Path.of(arg));
+        if (locations.isEmpty()) locations.add(Path.of("programs-demo"));
+
+        Map<String, BenchmarkSupport.IVmRunner> vms = new LinkedHashMap<>();
+        vms.put("VirtualMachine", code -> new VirtualMachine(code, STORE_SIZE));
+        vms.put("IntVirtualMachine", code -> new IntVirtualMachine(code, STORE_SIZE));
+        vms.put("BytecodeVirtualMachine", code -> new BytecodeVirtualMachine(code, STORE_SIZE));
+
+        System.out.printf("%-34s %14s %18s", "plain -> optimized", "instructions", "executed");
+        for (String vm : vms.keySet()) System.out.printf(" %28s", vm + " us");
+        System.out.println();
+
+        for (Path file : BenchmarkSupport.imlFiles(locations)) {
+            String program = Files.readString(file);
+            byte[] input = INPUTS.getOrDefault(file.getFileName().toString(), DEFAULT_INPUT).getBytes(StandardCharsets.UTF_8);
+            ICodeArray plain;
+            ICodeArray optimized;
+            try {
+                plain = Main.compile(program, false);
+                optimized = Main.compile(program, true);
+            } catch (Exception e) {
+                System.out.printf("%-34s failed: %s%n", file, e);
+                continue;
+            }
+
+            System.out.printf("%-34s %6d -> %5d %8d -> %7d", file,
+                    plain.getSize(), optimized.getSize(), executed(plain, input), executed(optimized, input));
+            for (BenchmarkSupport.IVmRunner vm : vms.values()) {
+                System.out.printf(" %12.2f -> %11.2f", measure(vm, plain, input), measure(vm, optimized, input));
+            }
+            System.out.println();
+        }
+    }
+
+    /**
+     * Number of instructions executed by a run of the program on the {@link VirtualMachine}.
+     */
+    static long executed(ICodeArray code, byte[] input) throws IVirtualMachine.ExecutionError {
+        long[] count = new long[1];
+        ICodeArray counting = new CodeArray(code.getSize());
+        for (int i = 0; i < code.getSize(); i++) {
+            IInstr instr = code.get(i);
+            try {
+                counting.put(i, new IInstr() {
+                    @Override
+                    public IExecInstr toExecInstr(VirtualMachine vm) {
+                        IExecInstr exec = instr.toExecInstr(vm);
+                        return new IExecInstr() {
+                            @Override
+                            public void execute() throws IVirtualMachine.ExecutionError {
+                                count[0]++;
+                                exec.execute();
+                            }
+
+                            @Override
+                            public IExecInstr toExecInstr(VirtualMachine vm) {
+                                return this;
+                            }
+                        };
+                    }
+                });
+            } catch (ICodeArray.CodeTooSmallError e) {
+                throw new IllegalStateException(e); // same size as the code
+            }
+        }
+        BenchmarkSupport.runQuietly(c -> new VirtualMachine(c, STORE_SIZE), counting, input, 1);
+        return count[0];
+    }
+
+    /**
+     * Mean microseconds of a run, after warming up.
+     */
+    private static double measure(BenchmarkSupport.IVmRunner vm, ICodeArray code, byte[] input) throws IVirtualMachine.ExecutionError {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) BenchmarkSupport.runQuietly(vm, code, input, 10);
+
+        int runs = 0;
+        long start = System.nanoTime();
+        long now = start;
+        while (now - start < MEASURE_NANOS) {
+            BenchmarkSupport.runQuietly(vm, code, input, 10);
+            runs += 10;
+            now = System.nanoTime();
+        }
+        return (now - start) / 1_000.0 / runs;
+    }
+}
@@ -0,0 +1,179 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.codeGen.Environment;
+import ch.fhnw.cpib.lexer.ITokenList;
+import ch.fhnw.cpib.lexer.Scanner;
+import ch.fhnw.cpib.parser.AbsSyn;
+import ch.fhnw.cpib.parser.CommonSubexpressionEliminator;
+import ch.fhnw.cpib.parser.ConcSyn;
+import ch.fhnw.cpib.parser.ConstantFolder;
+import ch.fhnw.cpib.parser.DeadCodeEliminator;
+import ch.fhnw.cpib.parser.Parser;
+import ch.fhnw.lederer.virtualmachineFS2015.CodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.PeepholeOptimizer;
+import ch.fhnw.lederer.virtualmachineFS2015.VirtualMachine;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures every phase of the compiler pipeline separately, in the order of Main.compile:
+ * Scanner.scan, Parser.parse, ConcSyn.IProgram.toAbsSyn, AbsSyn.IProgram.check, ConstantFolder, DeadCodeEliminator,
+ * CommonSubexpressionEliminator, code(...), PeepholeOptimizer and the execution on the reference {@link VirtualMachine}.
+ *
+ * Usage: PhaseBenchmark [file or directory ...]
+ * Without arguments all programs of the sample directories and some programs of {@link ImlGenerator} are measured.
+ * Each input is warmed up first, then measured for at least {@link #MEASURE_NANOS}.
+ */
+public class PhaseBenchmark {
+
+    enum Phase {
+        SCAN, PARSE, TO_ABS_SYN, CHECK, FOLD, DCE, CSE, CODE, PEEPHOLE, EXECUTE
+    }
+
+    private static final long WARMUP_NANOS = 200_000_000L;
+    private static final long MEASURE_NANOS = 500_000_000L;
+    private static final int STORE_SIZE = 100_000;
+
+    // every debugin of the sample and generated programs reads an int
+    private static final byte[] INPUT = "5\n".repeat(1024).getBytes(StandardCharsets.UTF_8);
+
+    private static class Result {
+        final long[] nanos = new long[Phase.values().length];
+        Phase failedPhase = null;
+        String error = null;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> inputs = new LinkedHashMap<>();
+        List<Path> locations = new ArrayList<>();
+        for (String arg : args) locations.add(Path.of(arg));
+        if (locations.isEmpty()) locations.addAll(BenchmarkSupport.SAMPLE_DIRECTORIES);
+        for (Path file : BenchmarkSupport.imlFiles(locations)) {
+            inputs.put(file.toString(), Files.readString(file));
+        }
+        if (args.length == 0) {
+            for (int lines : new int[]{1_000, 10_000}) {
+                inputs.put("generated-" + lines, new ImlGenerator(lines, 8).generate(lines));
+            }
+        }
+
+        double[] totals = new double[Phase.values().length];
+        System.out.printf("%-34s", "mean us per phase");
+        for (Phase phase : Phase.values()) System.out.printf(" %12s", phase);
+        System.out.println();
+
+        for (Map.Entry<String, String> input : inputs.entrySet()) {
+            double[] means = measure(input.getValue());
+            System.out.printf("%-34s", input.getKey());
+            if (means == null) {
+                Result probe = runPipeline(input.getValue());
+                System.out.printf(" failed in %s: %s%n", probe.failedPhase, probe.error);
+                continue;
+            }
+            for (int i = 0; i < means.length; i++) {
+                System.out.printf(" %12.1f", means[i]);
+                totals[i] += means[i];
+            }
+            System.out.println();
+        }
+
+        double sum = 0;
+        for (double total : totals) sum += total;
+        System.out.printf("%-34s", "total");
+        for (double total : totals) System.out.printf(" %12.1f", total);
+        System.out.println();
+        System.out.printf("%-34s", "share");
+        for (double total : totals) System.out.printf(" %11.1f%%", 100 * total / sum);
+        System.out.println();
+    }
+
+    /**
+     * Mean microseconds per phase, or null if the program cannot be compiled and run.
+     */
+    private static double[] measure(String source) {
+        if (runPipeline(source).failedPhase != null) return null;
+
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < WARMUP_NANOS) {
+            runPipeline(source);
+        }
+
+        long[] sums = new long[Phase.values().length];
+        int iterations = 0;
+        start = System.nanoTime();
+        while (System.nanoTime() - start < MEASURE_NANOS) {
+            Result result = runPipeline(source);
+            for (int i = 0; i < sums.length; i++) sums[i] += result.nanos[i];
+            iterations++;
+        }
+
+        double[] means = new double[sums.length];
+        for (int i = 0; i < sums.length; i++) means[i] = sums[i] / 1_000.0 / iterations;
+        return means;
+    }
+
+    private static Result runPipeline(String source) {
+        Result result = new Result();
+        Phase phase = Phase.SCAN;
+        try {
+            long start = System.nanoTime();
+            ITokenList tokens = new Scanner(source).scan();
+            start = lap(result, phase, start);
+
+            phase = Phase.PARSE;
+            ConcSyn.IProgram program = new Parser(tokens).parse();
+            start = lap(result, phase, start);
+
+            phase = Phase.TO_ABS_SYN;
+            AbsSyn.IProgram abstractProgram = program.toAbsSyn();
+            start = lap(result, phase, start);
+
+            phase = Phase.CHECK;
+            AbsSyn.IProgram validated = abstractProgram.check();
+            start = lap(result, phase, start);
+
+            phase = Phase.FOLD;
+            ConstantFolder.fold(validated);
+            start = lap(result, phase, start);
+
+            phase = Phase.DCE;
+            DeadCodeEliminator.eliminate(validated);
+            start = lap(result, phase, start);
+
+            phase = Phase.CSE;
+            CommonSubexpressionEliminator.eliminate(validated);
+            start = lap(result, phase, start);
+
+            phase = Phase.CODE;
+            ICodeArray codeArray = new CodeArray(Math.max(100_000, 4 * source.length()));
+            validated.code(codeArray, 0, new Environment(validated.getSymbolTable()));
+            start = lap(result, phase, start);
+
+            phase = Phase.PEEPHOLE;
+            PeepholeOptimizer.optimize(codeArray);
+            codeArray.resize();
+            start = lap(result, phase, start);
+
+            phase = Phase.EXECUTE;
+            BenchmarkSupport.runQuietly(code -> new VirtualMachine(code, STORE_SIZE), codeArray, INPUT, 1);
+            lap(result, phase, start);
+        } catch (Exception e) {
+            result.failedPhase = phase;
+            result.error = e.toString();
+        }
+        return result;
+    }
+
+    private static long lap(Result result, Phase phase, long start) {
+        long now = System.nanoTime();
+        result.nanos[phase.ordinal()] = now - start;
+        return now;
+    }
+}
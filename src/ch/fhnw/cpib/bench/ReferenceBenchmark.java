@@ -0,0 +1,74 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.lederer.virtualmachineFS2015.BytecodeVirtualMachine;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.IVirtualMachine;
+import ch.fhnw.lederer.virtualmachineFS2015.VmcListing;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares our code generation with the reference compiler, whose listings lie next to the programs
+ * (e.g. iml-programs/Factorial.vmc): the number of instructions in the code, the number of executed
+ * instructions and the run time on the {@link BytecodeVirtualMachine}. Both programs get the same input.
+ *
+ * Usage: ReferenceBenchmark [file or directory ...], by default iml-programs.
+ */
+public class ReferenceBenchmark {
+
+    private static final int STORE_SIZE = 100_000;
+    private static final long WARMUP_NANOS = 300_000_000L;
+    private static final long MEASURE_NANOS = 500_000_000L;
+    private static final byte[] INPUT = "5\n".repeat(1024).getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        List<Path> locations = new ArrayList<>();
+        for (String arg : args) locations.add(Path.of(arg));
+        if (locations.isEmpty()) locations.add(Path.of("iml-programs"));
+
+        BenchmarkSupport.IVmRunner vm = code -> new BytecodeVirtualMachine(code, STORE_SIZE);
+        System.out.printf("%-34s %16s %16s %22s%n", "reference -> ours", "instructions", "executed", "us");
+        for (Path file : BenchmarkSupport.imlFiles(locations)) {
+            String name = file.getFileName().toString();
+            Path listing = file.resolveSibling(name.substring(0, name.length() - ".iml".length()) + ".vmc");
+            if (!Files.exists(listing)) continue;
+
+            ICodeArray reference = VmcListing.read(listing).code;
+            ICodeArray ours;
+            try {
+                ours = Main.compile(file);
+            } catch (Exception e) {
+                System.out.printf("%-34s failed: %s%n", file, e);
+                continue;
+            }
+
+            System.out.printf("%-34s %6d -> %6d %6d -> %6d %9.2f -> %9.2f%n", file,
+                    reference.getSize(), ours.getSize(),
+                    PeepholeBenchmark.executed(reference, INPUT), PeepholeBenchmark.executed(ours, INPUT),
+                    measure(vm, reference), measure(vm, ours));
+        }
+    }
+
+    /**
+     * Mean microseconds of a run, after warming up.
+     */
+    private static double measure(BenchmarkSupport.IVmRunner vm, ICodeArray code) throws IVirtualMachine.ExecutionError {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) BenchmarkSupport.runQuietly(vm, code, INPUT, 10);
+
+        int runs = 0;
+        long start = System.nanoTime();
+        long now = start;
+        while (now - start < MEASURE_NANOS) {
+            BenchmarkSupport.runQuietly(vm, code, INPUT, 10);
+            runs += 10;
+            now = System.nanoTime();
+        }
+        return (now - start) / 1_000.0 / runs;
+    }
+}
@@ -0,0 +1,193 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.bench.PhaseBenchmark.Phase;
+import ch.fhnw.cpib.codeGen.Environment;
+import ch.fhnw.cpib.lexer.ITokenList;
+import ch.fhnw.cpib.lexer.Scanner;
+import ch.fhnw.cpib.parser.AbsSyn;
+import ch.fhnw.cpib.parser.CommonSubexpressionEliminator;
+import ch.fhnw.cpib.parser.ConcSyn;
+import ch.fhnw.cpib.parser.ConstantFolder;
+import ch.fhnw.cpib.parser.DeadCodeEliminator;
+import ch.fhnw.cpib.parser.Parser;
+import ch.fhnw.lederer.virtualmachineFS2015.CodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.IntVirtualMachine;
+import ch.fhnw.lederer.virtualmachineFS2015.PeepholeOptimizer;
+
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compiles and runs programs of {@link ImlGenerator} of growing size and reports per phase
+ * the time, the allocated memory and the memory retained by the result of the phase.
+ *
+ * Usage: ScalingBenchmark [lines ...]
+ * The largest default sizes need a big heap, e.g. -Xmx8g.
+ * The recursive descent parser and toAbsSyn recurse once per declaration and command,
+ * so everything runs on a thread with a large stack.
+ */
+public class ScalingBenchmark {
+
+    private static final int[] DEFAULT_LINES = {10_000, 30_000, 100_000, 300_000, 1_000_000};
+    private static final int EXPRESSION_DEPTH = 12;
+    private static final long STACK_SIZE = 1L << 30;
+    private static final int STORE_SIZE = 1 << 22;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static class Result {
+        final long[] nanos = new long[Phase.values().length];
+        final long[] allocated = new long[Phase.values().length];
+        final long[] retained = new long[Phase.values().length];
+        int codeSize;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = DEFAULT_LINES;
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) sizes[i] = Integer.parseInt(args[i]);
+        }
+
+        Throwable[] failure = new Throwable[1];
+        int[] finalSizes = sizes;
+        Thread thread = new Thread(null, () -> {
+            try {
+                for (int lines : finalSizes) measure(lines);
+            } catch (Throwable e) {
+                failure[0] = e;
+            }
+        }, "scaling", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (failure[0] != null) throw new RuntimeException(failure[0]);
+    }
+
+    private static void measure(int lines) throws Exception {
+        String source = new ImlGenerator(lines, EXPRESSION_DEPTH).generate(lines);
+        long actualLines = source.chars().filter(c -> c == '\n').count();
+        // every unit reads one int
+        byte[] input = "7\n".repeat(source.split("debugin", -1).length - 1).getBytes(StandardCharsets.UTF_8);
+
+        // the first run finds the size of the code array and measures the retained memory
+        int codeSize = Math.max(100_000, source.length());
+        Result retained;
+        while (true) {
+            try {
+                retained = runPipeline(source, input, codeSize, true);
+                break;
+            } catch (ICodeArray.CodeTooSmallError e) {
+                codeSize *= 2;
+            }
+        }
+        codeSize = retained.codeSize;
+
+        // then the fastest of some runs is taken, since single runs of the large programs take seconds
+        int runs = Math.max(3, 300_000 / lines);
+        runPipeline(source, input, codeSize, false);
+        Result best = null;
+        long bestTotal = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            Result result = runPipeline(source, input, codeSize, false);
+            long total = 0;
+            for (long n : result.nanos) total += n;
+            if (total < bestTotal) {
+                bestTotal = total;
+                best = result;
+            }
+        }
+
+        System.out.printf("%,d lines, %,d chars, %,d instructions (best of %d runs)%n",
+                actualLines, source.length(), codeSize, runs);
+        System.out.printf("  %-12s %10s %10s %14s %14s%n", "phase", "ms", "ns/line", "allocated MB", "retained MB");
+        for (Phase phase : Phase.values()) {
+            int i = phase.ordinal();
+            System.out.printf("  %-12s %10.1f %10.1f %14.1f %14.1f%n",
+                    phase,
+                    best.nanos[i] / 1e6,
+                    (double) best.nanos[i] / actualLines,
+                    best.allocated[i] / 1e6,
+                    retained.retained[i] / 1e6);
+        }
+        System.out.printf("  %-12s %10.1f %10.1f%n%n", "total", bestTotal / 1e6, (double) bestTotal / actualLines);
+    }
+
+    /**
+     * Runs all phases once. With {@code measureRetained} a full GC follows every phase
+     * (not included in the time), and the growth of the live heap is recorded, while the
+     * results of all earlier phases are kept reachable.
+     */
+    private static Result runPipeline(String source, byte[] input, int codeSize, boolean measureRetained) throws Exception {
+        Result result = new Result();
+        long[] lastUsed = {measureRetained ? usedHeap() : 0};
+
+        long allocated = THREADS.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        ITokenList tokens = new Scanner(source).scan();
+        start = lap(result, Phase.SCAN, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        ConcSyn.IProgram program = new Parser(tokens).parse();
+        start = lap(result, Phase.PARSE, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        AbsSyn.IProgram abstractProgram = program.toAbsSyn();
+        start = lap(result, Phase.TO_ABS_SYN, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        AbsSyn.IProgram validated = abstractProgram.check();
+        start = lap(result, Phase.CHECK, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        ConstantFolder.fold(validated);
+        start = lap(result, Phase.FOLD, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        DeadCodeEliminator.eliminate(validated);
+        start = lap(result, Phase.DCE, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        CommonSubexpressionEliminator.eliminate(validated);
+        start = lap(result, Phase.CSE, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        CodeArray codeArray = new CodeArray(codeSize);
+        result.codeSize = validated.code(codeArray, 0, new Environment(validated.getSymbolTable()));
+        start = lap(result, Phase.CODE, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        PeepholeOptimizer.optimize(codeArray);
+        codeArray.resize();
+        start = lap(result, Phase.PEEPHOLE, start, allocated, measureRetained, lastUsed);
+
+        allocated = THREADS.getCurrentThreadAllocatedBytes();
+        BenchmarkSupport.runQuietly(code -> new IntVirtualMachine(code, STORE_SIZE), codeArray, input, 1);
+        lap(result, Phase.EXECUTE, start, allocated, measureRetained, lastUsed);
+
+        Reference.reachabilityFence(tokens);
+        Reference.reachabilityFence(program);
+        Reference.reachabilityFence(abstractProgram);
+        Reference.reachabilityFence(codeArray);
+        return result;
+    }
+
+    private static long lap(Result result, Phase phase, long start, long allocatedBefore, boolean measureRetained, long[] lastUsed) {
+        result.nanos[phase.ordinal()] = System.nanoTime() - start;
+        result.allocated[phase.ordinal()] = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        if (measureRetained) {
+            long used = usedHeap();
+            result.retained[phase.ordinal()] = used - lastUsed[0];
+            lastUsed[0] = used;
+        }
+        return System.nanoTime();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
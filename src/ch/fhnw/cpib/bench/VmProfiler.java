@@ -0,0 +1,58 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.cpib.codeGen.SourceMap;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.IVirtualMachine;
+import ch.fhnw.lederer.virtualmachineFS2015.Profiler;
+import ch.fhnw.lederer.virtualmachineFS2015.SourcePosition;
+import ch.fhnw.lederer.virtualmachineFS2015.VirtualMachine;
+
+import java.nio.file.Path;
+
+/**
+ * Runs a program on the {@link VirtualMachine} with a {@link Profiler} and prints its hot spots:
+ * the most executed kinds of instructions, locations and source lines, and the routines taking the most time.
+ * A run that fails reports the source of the failing instruction.
+ * The program reads its input from standard input as usual.
+ *
+ * Usage: VmProfiler [-o profile.csv] [-n rows] file.iml, -o also writes the whole profile as comma separated values.
+ */
+public class VmProfiler {
+
+    private static final int STORE_SIZE = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        Path output = null;
+        int rows = 20;
+        Path file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                output = Path.of(args[++i]);
+            } else if (args[i].equals("-n") && i + 1 < args.length) {
+                rows = Integer.parseInt(args[++i]);
+            } else {
+                file = Path.of(args[i]);
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: VmProfiler [-o profile.csv] [-n rows] file.iml");
+            System.exit(2);
+        }
+
+        SourceMap sourceMap = new SourceMap();
+        ICodeArray code = Main.compile(file, sourceMap);
+        SourcePosition[] positions = sourceMap.toArray(code.getSize());
+        Profiler profiler = new Profiler();
+        try {
+            new VirtualMachine(code, STORE_SIZE, profiler);
+        } catch (IVirtualMachine.ExecutionError e) {
+            // the profile up to the error is still of interest
+            SourcePosition position = sourceMap.get(e.getLocation());
+            System.out.println(e.getMessage() + (position != null ? " at " + file.getFileName() + ":" + position : ""));
+        }
+        System.out.println();
+        profiler.report(System.out, rows, positions);
+        if (output != null) profiler.write(output, positions);
+    }
+}
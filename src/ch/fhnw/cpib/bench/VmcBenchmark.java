@@ -0,0 +1,83 @@
+package ch.fhnw.cpib.bench;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.lederer.virtualmachineFS2015.Bytecode;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+import ch.fhnw.lederer.virtualmachineFS2015.VmcFile;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compares compiling a program from source with loading its binary {@link VmcFile}: the size of the listing
+ * and of the binary file and the time until the VM program is ready. Checks that every loaded program
+ * equals the compiled one.
+ *
+ * Usage: VmcBenchmark [file or directory ...], by default the sample directories.
+ */
+public class VmcBenchmark {
+
+    private static final long WARMUP_NANOS = 300_000_000L;
+    private static final long MEASURE_NANOS = 500_000_000L;
+
+    private interface IAction {
+        void run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Path> locations = new ArrayList<>();
+        for (String arg : args) locations.add(Path.of(arg));
+        if (locations.isEmpty()) locations.addAll(BenchmarkSupport.SAMPLE_DIRECTORIES);
+
+        Path binary = Files.createTempFile("program", ".vmc");
+        try {
+            System.out.printf("%-34s %8s %8s %14s %14s%n", "", "listing", "binary", "compile us", "load us");
+            for (Path file : BenchmarkSupport.imlFiles(locations)) {
+                String program = Files.readString(file);
+                ICodeArray code;
+                try {
+                    code = Main.compile(program);
+                } catch (Exception e) {
+                    System.out.printf("%-34s failed: %s%n", file, e);
+                    continue;
+                }
+                Bytecode compiled = Bytecode.encode(code);
+                VmcFile.write(compiled, binary);
+                Bytecode loaded = VmcFile.read(binary);
+                if (!Arrays.equals(compiled.getCode(), loaded.getCode())
+                        || !Arrays.equals(compiled.getIndicators(), loaded.getIndicators())) {
+                    throw new IllegalStateException("Loaded program differs from the compiled one: " + file);
+                }
+
+                double compileMicros = measure(() -> Bytecode.encode(Main.compile(program)));
+                double loadMicros = measure(() -> VmcFile.read(binary));
+                System.out.printf("%-34s %8d %8d %14.2f %14.2f%n", file,
+                        code.toString().getBytes(StandardCharsets.UTF_8).length, Files.size(binary), compileMicros, loadMicros);
+            }
+        } finally {
+            Files.deleteIfExists(binary);
+        }
+    }
+
+    /**
+     * Mean microseconds of the action, after warming up.
+     */
+    private static double measure(IAction action) throws Exception {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) action.run();
+
+        int runs = 0;
+        long start = System.nanoTime();
+        long now = start;
+        while (now - start < MEASURE_NANOS) {
+            action.run();
+            runs++;
+            now = System.nanoTime();
+        }
+        return (now - start) / 1_000.0 / runs;
+    }
+}
@@ -0,0 +1,41 @@
+package ch.fhnw.cpib.checks;
+
+import ch.fhnw.cpib.checks.types.ICodeType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The procedures, records and types declared by one program. Every program owns its compilation,
+ * which is bound to the current thread while the program is checked and while its code is generated,
+ * so different programs can be compiled concurrently on different threads.
+ */
+public class Compilation {
+    private static final ThreadLocal<Compilation> CURRENT = new ThreadLocal<>();
+
+    public final Map<String, ProcedureSignature> procedures = new HashMap<>();
+    public final Map<String, RecordSignature> records = new HashMap<>();
+    public final Map<String, ICodeType> types = Types.builtInTypes();
+
+    /**
+     * The compilation bound to the current thread.
+     */
+    public static Compilation current() {
+        Compilation compilation = CURRENT.get();
+        if (compilation == null) throw new IllegalStateException("No program is being compiled on this thread");
+        return compilation;
+    }
+
+    /**
+     * Binds the compilation (or null) to the current thread and returns the one bound before, to be restored afterwards.
+     */
+    public static Compilation bind(Compilation compilation) {
+        Compilation previous = CURRENT.get();
+        if (compilation == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(compilation);
+        }
+        return previous;
+    }
+}
@@ -7,6 +7,7 @@ import java.util.Map;
 public class ProcedureSignature {
     public List<Integer> temporaryAddressLocations = new ArrayList<>(); // code locations that need to be updated with this.address later
     public int address = -1; // will be set during code gen
+    public int bodyAddress = -1; // location after the allocation of the local variables, target of tail calls. Set during code gen
     public List<VariableSignature> arguments;
     public List<VariableSignature> globalImports;
     public Map<String, VariableSignature> symbolTable;
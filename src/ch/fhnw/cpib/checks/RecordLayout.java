@@ -0,0 +1,65 @@
+package ch.fhnw.cpib.checks;
+
+import ch.fhnw.cpib.checks.types.ICodeType;
+import ch.fhnw.cpib.checks.types.RecordCodeType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The layout of a record in the store, computed once per {@link RecordSignature}:
+ * its size and the offset and type of every field, nested fields included under their path like "first.x".
+ * The leaves are the fields of size one, in the order they are stored.
+ */
+public class RecordLayout {
+    public final int size;
+    public final List<Field> leaves;
+    private final Map<String, Field> fields;
+
+    public RecordLayout(List<RecordSignature.RecordField> recordFields) {
+        Map<String, Field> fields = new HashMap<>();
+        List<Field> leaves = new ArrayList<>();
+        int offset = 0;
+        for (RecordSignature.RecordField recordField : recordFields) {
+            fields.put(recordField.name, new Field(recordField.name, offset, recordField.type));
+            if (recordField.type instanceof RecordCodeType) {
+                RecordLayout nested = ((RecordCodeType) recordField.type).getLayout();
+                for (Field field : nested.fields.values()) {
+                    fields.put(recordField.name + "." + field.name, new Field(recordField.name + "." + field.name, offset + field.offset, field.type));
+                }
+                for (Field leaf : nested.leaves) {
+                    leaves.add(fields.get(recordField.name + "." + leaf.name));
+                }
+                offset += nested.size;
+            } else {
+                leaves.add(fields.get(recordField.name));
+                offset++;
+            }
+        }
+        this.size = offset;
+        this.fields = Collections.unmodifiableMap(fields);
+        this.leaves = Collections.unmodifiableList(leaves);
+    }
+
+    /**
+     * The field reached by the field names, one per nesting level, or null if there is none.
+     */
+    public Field get(List<String> fieldNames) {
+        return fields.get(String.join(".", fieldNames));
+    }
+
+    public static class Field {
+        public final String name;
+        public final int offset;
+        public final ICodeType type;
+
+        public Field(String name, int offset, ICodeType type) {
+            this.name = name;
+            this.offset = offset;
+            this.type = type;
+        }
+    }
+}
@@ -6,11 +6,17 @@ import java.util.List;
 
 public class RecordSignature {
     public List<RecordField> fields;
+    private RecordLayout layout; // computed on first use, the field types are all known by then
 
     public RecordSignature(List<RecordField> fields) {
         this.fields = fields;
     }
 
+    public RecordLayout getLayout() {
+        if (layout == null) layout = new RecordLayout(fields);
+        return layout;
+    }
+
     public static class RecordField {
         public String name;
         public ICodeType type;
@@ -7,14 +7,17 @@ import ch.fhnw.cpib.checks.types.IntCodeType;
 import java.util.HashMap;
 
 public class Types {
-    public static HashMap<String, ICodeType> allTypes;
+    private Types() {}
 
-    static {
-        allTypes = new HashMap<>();
-        // Currently only using RecordTypes
+    /**
+     * A new type table with the built in types, the record types of a program are added by its {@link Compilation}.
+     */
+    public static HashMap<String, ICodeType> builtInTypes() {
+        HashMap<String, ICodeType> allTypes = new HashMap<>();
         allTypes.put("bool", new BoolCodeType());
         allTypes.put("int32", new IntCodeType(32));
         allTypes.put("int64", new IntCodeType(64));
         allTypes.put("int1024", new IntCodeType(1024));
+        return allTypes;
     }
 }
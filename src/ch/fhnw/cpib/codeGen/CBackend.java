@@ -0,0 +1,317 @@
+package ch.fhnw.cpib.codeGen;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.lederer.virtualmachineFS2015.Bytecode;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Third target of the compiler: portable C99 source, turned into a native executable by the system C compiler.
+ * Every VM instruction becomes a C statement on an {@code int32_t} store with the registers in locals,
+ * jumps and calls become gotos and a Return continues at its return address through a switch.
+ * Arithmetic wraps around and division truncates as on the JVM, input and output are those of the VMs,
+ * with the output buffered until input is read or the program ends.
+ *
+ * Usage: CBackend [-o executable] [-s storeSize] [-c] file.iml
+ * Without -o the executable is written next to the .iml file, the C source beside it with the suffix .c;
+ * with -c only the C source is written. The C compiler is taken from the environment variable CC, by default cc.
+ */
+public class CBackend {
+
+    public static final int DEFAULT_STORE_SIZE = 100_000;
+
+    private static final String SP_OVER_HP = "Stack pointer over heap pointer.";
+    private static final String EP_OVER_HP = "Extreme pointer over heap pointer.";
+
+    private static final String RUNTIME =
+            "#include <stdint.h>\n" +
+            "#include <stdio.h>\n" +
+            "#include <stdlib.h>\n" +
+            "#include <string.h>\n" +
+            "\n" +
+            "static int32_t store[STORE_SIZE];\n" +
+            "static char output[1 << 16];\n" +
+            "static char line[4096];\n" +
+            "\n" +
+            "static void fail(const char *message) {\n" +
+            "    fflush(stdout);\n" +
+            "    fprintf(stderr, \"Execution error: %s\\n\", message);\n" +
+            "    exit(1);\n" +
+            "}\n" +
+            "\n" +
+            "/* reads a line without its terminator, longer lines are cut but still consumed */\n" +
+            "static const char *read_line(void) {\n" +
+            "    size_t length = 0;\n" +
+            "    int c;\n" +
+            "    fflush(stdout);\n" +
+            "    c = getchar();\n" +
+            "    if (c == EOF) fail(\"Input failed.\");\n" +
+            "    while (c != EOF && c != '\\n' && c != '\\r') {\n" +
+            "        if (length < sizeof line - 1) line[length++] = (char) c;\n" +
+            "        c = getchar();\n" +
+            "    }\n" +
+            "    if (c == '\\r') {\n" +
+            "        c = getchar();\n" +
+            "        if (c != '\\n' && c != EOF) ungetc(c, stdin);\n" +
+            "    }\n" +
+            "    line[length] = '\\0';\n" +
+            "    return line;\n" +
+            "}\n" +
+            "\n" +
+            "/* as Integer.parseInt */\n" +
+            "static int32_t read_int(const char *indicator) {\n" +
+            "    const char *s;\n" +
+            "    int negative = 0;\n" +
+            "    int64_t value = 0;\n" +
+            "    printf(\"? %s : int = \", indicator);\n" +
+            "    s = read_line();\n" +
+            "    if (*s == '-' || *s == '+') negative = *s++ == '-';\n" +
+            "    if (*s == '\\0') fail(\"Not an integer.\");\n" +
+            "    for (; *s != '\\0'; s++) {\n" +
+            "        if (*s < '0' || *s > '9') fail(\"Not an integer.\");\n" +
+            "        value = 10 * value + (*s - '0');\n" +
+            "        if (value > (int64_t) INT32_MAX + negative) fail(\"Not an integer.\");\n" +
+            "    }\n" +
+            "    return (int32_t) (negative ? -value : value);\n" +
+            "}\n" +
+            "\n" +
+            "static int32_t read_bool(const char *indicator) {\n" +
+            "    const char *s;\n" +
+            "    printf(\"? %s : bool = \", indicator);\n" +
+            "    s = read_line();\n" +
+            "    if (s[0] == 'f' && s[1] == 'a' && s[2] == 'l' && s[3] == 's' && s[4] == 'e' && s[5] == '\\0') return 0;\n" +
+            "    if (s[0] == 't' && s[1] == 'r' && s[2] == 'u' && s[3] == 'e' && s[4] == '\\0') return 1;\n" +
+            "    fail(\"Not a boolean.\");\n" +
+            "    return 0;\n" +
+            "}\n" +
+            "\n" +
+            "/* wrap around like the JVM instead of overflowing */\n" +
+            "static int32_t add(int32_t a, int32_t b) { return (int32_t) ((uint32_t) a + (uint32_t) b); }\n" +
+            "static int32_t sub(int32_t a, int32_t b) { return (int32_t) ((uint32_t) a - (uint32_t) b); }\n" +
+            "static int32_t mul(int32_t a, int32_t b) { return (int32_t) ((uint32_t) a * (uint32_t) b); }\n" +
+            "static int32_t div_trunc(int32_t a, int32_t b) {\n" +
+            "    if (b == 0) fail(\"Integer division by zero.\");\n" +
+            "    return b == -1 ? sub(0, a) : a / b;\n" +
+            "}\n" +
+            "static int32_t mod_trunc(int32_t a, int32_t b) {\n" +
+            "    if (b == 0) fail(\"Integer remainder by zero.\");\n" +
+            "    return b == -1 ? 0 : a % b;\n" +
+            "}\n";
+
+    /**
+     * The C source of the program.
+     */
+    public static String translate(ICodeArray codeArray, String programName, int storeSize) {
+        Bytecode bytecode = Bytecode.encode(codeArray);
+        int[] code = bytecode.getCode();
+        String[] indicators = bytecode.getIndicators();
+        int size = bytecode.getSize();
+
+        // locations entered other than from their predecessor
+        TreeSet<Integer> labels = new TreeSet<>();
+        List<Integer> returnAddresses = new ArrayList<>();
+        for (int pc = 0; pc < size; pc++) {
+            int opcode = code[2 * pc];
+            if (opcode == Bytecode.CALL) {
+                labels.add(code[2 * pc + 1]);
+                labels.add(pc + 1);
+                returnAddresses.add(pc + 1);
+            } else if (opcode == Bytecode.UNCOND_JUMP || opcode == Bytecode.COND_JUMP || opcode == Bytecode.JUMP_IF_TRUE) {
+                labels.add(code[2 * pc + 1]);
+            }
+        }
+
+        StringBuilder c = new StringBuilder();
+        c.append("/* ").append(comment(programName)).append(", generated by CBackend */\n\n");
+        c.append("#define STORE_SIZE ").append(storeSize).append("\n");
+        c.append(RUNTIME);
+        c.append("\nint main(void) {\n");
+        c.append("    int32_t sp = 0, fp = 0, ep = 0, pc = 0;\n");
+        c.append("    const int32_t hp = STORE_SIZE - 1;\n");
+        c.append("    setvbuf(stdout, output, _IOFBF, sizeof output);\n");
+        for (int pc = 0; pc < size; pc++) {
+            if (labels.contains(pc)) {
+                c.append("L").append(pc).append(":\n");
+            }
+            c.append("    ").append(statement(code[2 * pc], code[2 * pc + 1], pc, indicators)).append("\n");
+        }
+        c.append("dispatch:\n");
+        c.append("    switch (pc) {\n");
+        for (int address : returnAddresses) {
+            c.append("    case ").append(address).append(": goto L").append(address).append(";\n");
+        }
+        c.append("    }\n");
+        c.append("    fail(\"Return to an unknown address.\");\n");
+        c.append("    return 1;\n");
+        c.append("}\n");
+        return c.toString();
+    }
+
+    private static String statement(int opcode, int operand, int pc, String[] indicators) {
+        switch (opcode) {
+            case Bytecode.STOP:
+                return "fflush(stdout); return 0;";
+            case Bytecode.DUP:
+                return push("store[sp - 1]");
+            case Bytecode.ALLOC_BLOCK:
+                return "sp += " + operand + "; if (sp > hp + 1) fail(\"" + SP_OVER_HP + "\");";
+            case Bytecode.ALLOC_STACK:
+                return "ep = sp + " + operand + "; if (ep > hp + 1) fail(\"" + EP_OVER_HP + "\");";
+            case Bytecode.CALL:
+                return "if (sp + 2 > hp) fail(\"" + SP_OVER_HP + "\"); "
+                        + "store[sp] = fp; store[sp + 1] = ep; store[sp + 2] = " + pc + "; fp = sp; sp += 3; goto L" + operand + ";";
+            case Bytecode.RETURN:
+                return "sp = fp - " + operand + "; pc = store[fp + 2] + 1; ep = store[fp + 1]; fp = store[fp]; "
+                        + "if (ep > hp + 1) fail(\"" + EP_OVER_HP + "\"); goto dispatch;";
+            case Bytecode.LOAD_IM_INT:
+                return push(literal(operand));
+            case Bytecode.LOAD_ADDR_REL:
+                return push("fp + " + literal(operand));
+            case Bytecode.DEREF:
+                return "store[sp - 1] = store[store[sp - 1]];";
+            case Bytecode.STORE:
+                return "store[store[sp - 2]] = store[sp - 1]; sp -= 2;";
+            case Bytecode.STORE_REV:
+                return "store[store[sp - 1]] = store[sp - 2]; sp -= 2;";
+            case Bytecode.LOAD_BLOCK:
+                return "if (sp - 1 + " + operand + " > hp + 1) fail(\"" + SP_OVER_HP + "\"); "
+                        + "memmove(&store[sp - 1], &store[store[sp - 1]], " + operand + " * sizeof store[0]); sp += " + (operand - 1) + ";";
+            case Bytecode.COPY_BLOCK:
+                return "sp -= " + (operand + 1) + "; memmove(&store[store[sp + " + operand + "]], &store[sp], " + operand + " * sizeof store[0]);";
+            case Bytecode.EQ_BLOCK:
+                return "sp -= " + (2 * operand - 1) + "; store[sp - 1] = memcmp(&store[sp - 1], &store[sp - 1 + " + operand + "], "
+                        + operand + " * sizeof store[0]) == 0;";
+            case Bytecode.NEG_INT:
+                return "store[sp - 1] = sub(0, store[sp - 1]);";
+            case Bytecode.ADD_INT: return dyadic("add(store[sp - 1], store[sp])");
+            case Bytecode.SUB_INT: return dyadic("sub(store[sp - 1], store[sp])");
+            case Bytecode.MULT_INT: return dyadic("mul(store[sp - 1], store[sp])");
+            case Bytecode.DIV_TRUNC_INT: return dyadic("div_trunc(store[sp - 1], store[sp])");
+            case Bytecode.MOD_TRUNC_INT: return dyadic("mod_trunc(store[sp - 1], store[sp])");
+            case Bytecode.EQ_INT: return dyadic("store[sp - 1] == store[sp]");
+            case Bytecode.NE_INT: return dyadic("store[sp - 1] != store[sp]");
+            case Bytecode.GT_INT: return dyadic("store[sp - 1] > store[sp]");
+            case Bytecode.LT_INT: return dyadic("store[sp - 1] < store[sp]");
+            case Bytecode.GE_INT: return dyadic("store[sp - 1] >= store[sp]");
+            case Bytecode.LE_INT: return dyadic("store[sp - 1] <= store[sp]");
+            case Bytecode.UNCOND_JUMP:
+                return "goto L" + operand + ";";
+            case Bytecode.COND_JUMP:
+                return "if (store[--sp] == 0) goto L" + operand + ";";
+            case Bytecode.JUMP_IF_TRUE:
+                return "if (store[--sp] != 0) goto L" + operand + ";";
+            case Bytecode.INPUT_BOOL:
+                return "store[store[sp - 1]] = read_bool(" + string(indicators[operand]) + "); sp--;";
+            case Bytecode.INPUT_INT:
+                return "store[store[sp - 1]] = read_int(" + string(indicators[operand]) + "); sp--;";
+            case Bytecode.OUTPUT_BOOL:
+                return "printf(\"! %s : bool = %s\\n\", " + string(indicators[operand]) + ", store[sp - 1] != 0 ? \"true\" : \"false\"); sp--;";
+            case Bytecode.OUTPUT_INT:
+                return "printf(\"! %s : int = %ld\\n\", " + string(indicators[operand]) + ", (long) store[sp - 1]); sp--;";
+            case Bytecode.LOAD_LOCAL:
+                return push("store[fp + " + literal(operand) + "]");
+            case Bytecode.LOAD_INDIRECT_OFFSET:
+                return push("store[store[fp + " + literal(operand >> 16) + "] + " + (operand & 0xffff) + "]");
+            default:
+                throw new IllegalArgumentException("Unknown opcode " + opcode + " at " + pc);
+        }
+    }
+
+    private static String push(String value) {
+        return "if (sp > hp) fail(\"" + SP_OVER_HP + "\"); store[sp] = " + value + "; sp++;";
+    }
+
+    private static String dyadic(String value) {
+        return "sp--; store[sp - 1] = " + value + ";";
+    }
+
+    // an int32_t constant, INT32_MIN has no literal
+    private static String literal(int value) {
+        return value == Integer.MIN_VALUE ? "INT32_MIN" : Integer.toString(value);
+    }
+
+    // a C string literal of the UTF-8 bytes
+    private static String string(String value) {
+        StringBuilder s = new StringBuilder("\"");
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            int c = b & 0xff;
+            if (c == '"' || c == '\\') {
+                s.append('\\').append((char) c);
+            } else if (c >= 0x20 && c < 0x7f && c != '?') {
+                s.append((char) c);
+            } else {
+                // octal, so that no following character is taken as part of the escape; '?' against trigraphs
+                s.append(String.format("\\%03o", c));
+            }
+        }
+        return s.append('"').toString();
+    }
+
+    private static String comment(String text) {
+        return text.replace("*/", "* /");
+    }
+
+    /**
+     * Writes the C source and compiles it to the executable.
+     *
+     * @throws IOException if the C compiler cannot be run or fails, with its messages
+     */
+    public static void compileNative(ICodeArray code, String programName, int storeSize, Path source, Path executable)
+            throws IOException, InterruptedException {
+        Files.writeString(source, translate(code, programName, storeSize));
+        String cc = System.getenv().getOrDefault("CC", "cc");
+        Process process = new ProcessBuilder(cc, "-std=c99", "-O2", "-o", executable.toString(), source.toString())
+                .redirectErrorStream(true)
+                .start();
+        String messages = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        if (process.waitFor() != 0) {
+            throw new IOException(cc + " failed on " + source + ":\n" + messages);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path executable = null;
+        int storeSize = DEFAULT_STORE_SIZE;
+        boolean sourceOnly = false;
+        Path file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                executable = Path.of(args[++i]);
+            } else if (args[i].equals("-s") && i + 1 < args.length) {
+                storeSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-c")) {
+                sourceOnly = true;
+            } else if (file == null) {
+                file = Path.of(args[i]);
+            } else {
+                file = null;
+                break;
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: CBackend [-o executable] [-s storeSize] [-c] file.iml");
+            System.exit(2);
+        }
+        String name = file.getFileName().toString().replaceFirst("\\.iml$", "");
+        if (executable == null) {
+            executable = file.resolveSibling(name);
+        }
+        Path source = executable.resolveSibling(executable.getFileName() + ".c");
+
+        ICodeArray code = Main.compile(file);
+        if (sourceOnly) {
+            Files.writeString(source, translate(code, name, storeSize));
+            System.out.printf("%s -> %s (%d instructions)%n", file, source, code.getSize());
+        } else {
+            compileNative(code, name, storeSize, source, executable);
+            System.out.printf("%s -> %s (%d instructions)%n", file, executable, code.getSize());
+        }
+    }
+}
@@ -22,9 +22,15 @@ public class Environment {
     }
 
     public final Map<String, VariableSignature> symbolTable;
+    public final SourceMap sourceMap; // null if the source positions are not of interest
 
     public Environment(Map<String, VariableSignature> symbolTable) {
+        this(symbolTable, null);
+    }
+
+    public Environment(Map<String, VariableSignature> symbolTable, SourceMap sourceMap) {
         this.symbolTable = symbolTable;
+        this.sourceMap = sourceMap;
     }
 
     public Map<String, VariableSignature> getSymbolTable() {
@@ -0,0 +1,105 @@
+package ch.fhnw.cpib.codeGen;
+
+import ch.fhnw.cpib.Main;
+import ch.fhnw.lederer.virtualmachineFS2015.AotCompiler;
+import ch.fhnw.lederer.virtualmachineFS2015.Bytecode;
+import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Second target of the compiler besides the VM: a runnable jar with the program compiled ahead of time
+ * into a JVM class by {@link AotCompiler}, so a run needs no interpreter and the JIT of the JVM sees
+ * the program itself. The VMs stay the reference the jars are tested against.
+ *
+ * Usage: JarBackend [-o output.jar] [-s storeSize] file.iml
+ * Without -o the jar is written next to the .iml file, run it with {@code java -jar}.
+ */
+public class JarBackend {
+
+    public static final int DEFAULT_STORE_SIZE = 100_000;
+
+    /**
+     * The class file of the program, in the unnamed package.
+     */
+    public static byte[] compile(ICodeArray code, String className, int storeSize) {
+        return AotCompiler.compile(Bytecode.encode(code), className, storeSize);
+    }
+
+    /**
+     * Writes a jar with the program class, the runtime it needs and a manifest naming the program class.
+     */
+    public static void writeJar(ICodeArray code, String className, int storeSize, OutputStream output) throws IOException {
+        byte[] program = compile(code, className, storeSize);
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, className);
+        try (JarOutputStream jar = new JarOutputStream(output, manifest)) {
+            putClass(jar, className, program);
+            for (Map.Entry<String, byte[]> runtimeClass : AotCompiler.runtimeClasses().entrySet()) {
+                putClass(jar, runtimeClass.getKey(), runtimeClass.getValue());
+            }
+        }
+    }
+
+    private static void putClass(JarOutputStream jar, String name, byte[] classFile) throws IOException {
+        jar.putNextEntry(new JarEntry(name + ".class"));
+        jar.write(classFile);
+        jar.closeEntry();
+    }
+
+    /**
+     * A class name for the program in the file, from its name without .iml.
+     */
+    public static String className(Path file) {
+        String name = file.getFileName().toString().replaceFirst("\\.iml$", "");
+        StringBuilder className = new StringBuilder();
+        for (char c : name.toCharArray()) {
+            className.append(Character.isJavaIdentifierPart(c) ? c : '_');
+        }
+        if (className.length() == 0 || !Character.isJavaIdentifierStart(className.charAt(0))) {
+            className.insert(0, '_');
+        }
+        return className.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path output = null;
+        int storeSize = DEFAULT_STORE_SIZE;
+        Path file = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-o") && i + 1 < args.length) {
+                output = Path.of(args[++i]);
+            } else if (args[i].equals("-s") && i + 1 < args.length) {
+                storeSize = Integer.parseInt(args[++i]);
+            } else if (file == null) {
+                file = Path.of(args[i]);
+            } else {
+                file = null;
+                break;
+            }
+        }
+        if (file == null) {
+            System.err.println("Usage: JarBackend [-o output.jar] [-s storeSize] file.iml");
+            System.exit(2);
+        }
+        String className = className(file);
+        if (output == null) {
+            output = file.resolveSibling(className + ".jar");
+        }
+
+        ICodeArray code = Main.compile(file);
+        try (OutputStream out = Files.newOutputStream(output)) {
+            writeJar(code, className, storeSize, out);
+        }
+        System.out.printf("%s -> %s (%d instructions)%n", file, output, code.getSize());
+    }
+}
@@ -0,0 +1,56 @@
+package ch.fhnw.cpib.codeGen;
+
+import ch.fhnw.lederer.virtualmachineFS2015.SourcePosition;
+
+import java.util.Arrays;
+
+/**
+ * The source position of every location of the generated code, filled in by the code generator.
+ * Locations of code that stems from no particular expression or command (e.g. the final Stop) have none.
+ */
+public class SourceMap {
+
+    private SourcePosition[] positions = new SourcePosition[256];
+    private int size = 0;
+
+    /**
+     * Sets the position of the locations from {@code from} (inclusive) to {@code to} (exclusive) that have none yet,
+     * so the innermost node keeps the instructions it generated itself.
+     */
+    public void mark(int from, int to, SourcePosition position) {
+        if (position == null || from >= to) return;
+        if (to > positions.length) {
+            positions = Arrays.copyOf(positions, Math.max(to, 2 * positions.length));
+        }
+        for (int i = from; i < to; i++) {
+            if (positions[i] == null) positions[i] = position;
+        }
+        size = Math.max(size, to);
+    }
+
+    /**
+     * The position of the location, null if it has none.
+     */
+    public SourcePosition get(int location) {
+        return location < size ? positions[location] : null;
+    }
+
+    /**
+     * The positions of the locations 0 up to {@code length} (exclusive).
+     */
+    public SourcePosition[] toArray(int length) {
+        return Arrays.copyOf(positions, length);
+    }
+
+    /**
+     * Replaces all positions, e.g. by those of the code after optimization.
+     */
+    public void replace(SourcePosition[] positions) {
+        this.positions = Arrays.copyOf(positions, Math.max(positions.length, 1));
+        this.size = positions.length;
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -5,7 +5,7 @@ public class LexicalError extends Exception {
         super(message);
     }
 
-    public LexicalError(char c, int pos) {
-        super("Invalid charcter '" + c + "' encountered at position " + pos + " in input!");
+    public LexicalError(char c, int line, int column) {
+        super("Invalid character '" + c + "' encountered at line " + line + ", column " + column + " in input!");
     }
 }
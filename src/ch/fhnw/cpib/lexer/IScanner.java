@@ -4,4 +4,9 @@ import ch.fhnw.cpib.exceptions.LexicalError;
 
 public interface IScanner {
     ITokenList scan() throws LexicalError;
+
+    /**
+     * Pull-based alternative to {@link #scan()}: the input is only scanned as far as tokens are requested.
+     */
+    ITokenStream stream();
 }
@@ -1,5 +1,6 @@
 package ch.fhnw.cpib.lexer;
 
+import ch.fhnw.cpib.lexer.tokens.Terminal;
 import ch.fhnw.cpib.lexer.tokens.Token;
 
 import java.util.Iterator;
@@ -7,5 +8,62 @@ import java.util.Iterator;
 public interface ITokenList {
     Iterator<Token> iterator();
 
-    void add(Token t);
+    /**
+     * Appends a token that starts at the given offset in the source and ends before {@code end}.
+     */
+    void add(Token t, int position, int end);
+
+    int size();
+
+    /**
+     * Random access lookahead, without materializing a token.
+     */
+    Terminal terminal(int index);
+
+    Token get(int index);
+
+    /**
+     * Offset of the first character of the token in the source.
+     */
+    int position(int index);
+
+    /**
+     * Offset after the last character of the token in the source.
+     */
+    int end(int index);
+
+    /**
+     * The lines of the source the tokens were scanned from.
+     */
+    LineMap lines();
+
+    /**
+     * The tokens in order, the last one (the SENTINEL) repeated at the end.
+     */
+    default ITokenStream stream() {
+        return new ITokenStream() {
+            private int index = -1;
+
+            @Override
+            public Token next() {
+                if (index < size() - 1) index++;
+                return get(index);
+            }
+
+            @Override
+            public int position() {
+                return ITokenList.this.position(index);
+            }
+
+            @Override
+            public int end() {
+                return ITokenList.this.end(index);
+            }
+
+            @Override
+            public LineMap lines() {
+                return ITokenList.this.lines();
+            }
+        };
+    }
 }
@@ -0,0 +1,29 @@
+package ch.fhnw.cpib.lexer;
+
+import ch.fhnw.cpib.exceptions.LexicalError;
+import ch.fhnw.cpib.lexer.tokens.Token;
+
+/**
+ * Tokens pulled one at a time, e.g. by the parser while the scanner still reads the input.
+ */
+public interface ITokenStream {
+    /**
+     * The next token. At the end of the input this is the SENTINEL, on every further call as well.
+     */
+    Token next() throws LexicalError;
+
+    /**
+     * Offset of the first character of the token last returned by {@link #next()}.
+     */
+    int position();
+
+    /**
+     * Offset after the last character of the token last returned by {@link #next()}.
+     */
+    int end();
+
+    /**
+     * The lines of the source, known at least up to the token last returned by {@link #next()}.
+     */
+    LineMap lines();
+}
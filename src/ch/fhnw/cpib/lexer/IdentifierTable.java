@@ -0,0 +1,69 @@
+package ch.fhnw.cpib.lexer;
+
+import ch.fhnw.cpib.lexer.tokens.Identifier;
+
+import java.util.Arrays;
+
+/**
+ * Interns the identifiers of a compilation: every name gets one {@link Identifier} with a dense symbol id (0, 1, ...),
+ * shared by all its occurrences. Names can be looked up as any CharSequence, e.g. a view onto the source,
+ * so a String is only created for the first occurrence.
+ */
+public class IdentifierTable {
+    private int[] slots = new int[256]; // symbol + 1, 0 marks an empty slot
+    private int[] hashes = new int[128]; // per symbol
+    private Identifier[] identifiers = new Identifier[128]; // per symbol
+    private int size = 0;
+
+    public Identifier intern(CharSequence name) {
+        int hash = hash(name);
+        int mask = slots.length - 1;
+        int i = hash & mask;
+        for (int slot = slots[i]; slot != 0; slot = slots[i]) {
+            Identifier candidate = identifiers[slot - 1];
+            if (hashes[slot - 1] == hash && candidate.ident.contentEquals(name)) {
+                return candidate;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (size == identifiers.length) {
+            identifiers = Arrays.copyOf(identifiers, 2 * size);
+            hashes = Arrays.copyOf(hashes, 2 * size);
+        }
+        Identifier identifier = new Identifier(name.toString(), size);
+        identifiers[size] = identifier;
+        hashes[size] = hash;
+        size++;
+        slots[i] = size;
+        if (2 * size > slots.length) rehash();
+        return identifier;
+    }
+
+    /**
+     * The identifier of the symbol, or null if there is no such symbol in this table.
+     */
+    public Identifier identifier(int symbol) {
+        return symbol >= 0 && symbol < size ? identifiers[symbol] : null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        slots = new int[2 * slots.length];
+        int mask = slots.length - 1;
+        for (int symbol = 0; symbol < size; symbol++) {
+            int i = hashes[symbol] & mask;
+            while (slots[i] != 0) i = (i + 1) & mask;
+            slots[i] = symbol + 1;
+        }
+    }
+
+    private static int hash(CharSequence name) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) h = 31 * h + name.charAt(i);
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,48 @@
+package ch.fhnw.cpib.lexer;
+
+import ch.fhnw.cpib.lexer.tokens.Terminal;
+import ch.fhnw.cpib.lexer.tokens.Token;
+
+import java.util.Map;
+
+/**
+ * Recognizes the keywords of {@link Terminal#keywordMappings()} with a perfect hash
+ * over the length, the first and the last character: every keyword has its own slot,
+ * so a lookup is one hash and at most one comparison, without creating a String.
+ */
+final class Keywords {
+    private static final int SIZE = 128;
+    private static final String[] NAMES = new String[SIZE];
+    private static final Token[] TOKENS = new Token[SIZE];
+
+    static {
+        for (Map.Entry<String, Token> keyword : Terminal.keywordMappings().entrySet()) {
+            int hash = hash(keyword.getKey());
+            if (NAMES[hash] != null) {
+                throw new IllegalStateException("Keywords " + NAMES[hash] + " and " + keyword.getKey() + " collide, choose other factors");
+            }
+            NAMES[hash] = keyword.getKey();
+            TOKENS[hash] = keyword.getValue();
+        }
+    }
+
+    private Keywords() {}
+
+    private static int hash(CharSequence name) {
+        int length = name.length();
+        return (length + 12 * name.charAt(0) + 41 * name.charAt(length - 1)) & (SIZE - 1);
+    }
+
+    /**
+     * The token of the keyword, or null if the (non empty) name is no keyword.
+     */
+    static Token lookup(CharSequence name) {
+        int hash = hash(name);
+        String keyword = NAMES[hash];
+        if (keyword == null || keyword.length() != name.length()) return null;
+        for (int i = 0; i < keyword.length(); i++) {
+            if (keyword.charAt(i) != name.charAt(i)) return null;
+        }
+        return TOKENS[hash];
+    }
+}
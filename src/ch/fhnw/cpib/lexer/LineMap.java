@@ -0,0 +1,51 @@
+package ch.fhnw.cpib.lexer;
+
+import ch.fhnw.lederer.virtualmachineFS2015.SourcePosition;
+
+import java.util.Arrays;
+
+/**
+ * The offsets at which the lines of the source start, recorded by the scanner as it passes the line breaks,
+ * to turn the offsets of tokens into lines and columns. Lines and columns start at 1.
+ */
+public class LineMap {
+    private int[] starts = new int[64];
+    private int count = 1; // line 1 starts at offset 0
+
+    /**
+     * Records that a line starts at the offset, i.e. a line break was just read. Offsets already passed are ignored,
+     * so a line break read again after pushing it back is not counted twice.
+     */
+    void lineStartsAt(int offset) {
+        if (offset <= starts[count - 1]) return;
+        if (count == starts.length) starts = Arrays.copyOf(starts, 2 * count);
+        starts[count++] = offset;
+    }
+
+    public int line(int offset) {
+        int low = 0;
+        int high = count - 1;
+        // the last line starting at or before the offset
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low + 1;
+    }
+
+    public int column(int offset) {
+        return offset - starts[line(offset) - 1] + 1;
+    }
+
+    /**
+     * The position of the characters from {@code from} (inclusive) to {@code to} (exclusive).
+     */
+    public SourcePosition span(int from, int to) {
+        int last = Math.max(from, to - 1);
+        return new SourcePosition(line(from), column(from), line(last), column(last));
+    }
+}
@@ -3,54 +3,163 @@ package ch.fhnw.cpib.lexer;
 import ch.fhnw.cpib.exceptions.LexicalError;
 import ch.fhnw.cpib.lexer.tokens.*;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
-public class Scanner implements IScanner {
+/**
+ * Scans a complete input (a CharSequence), the bytes of an ASCII / UTF-8 input (e.g. a memory mapped file)
+ * or a Reader.
+ * Tokens are produced one at a time by {@link #next()}, so the parser can pull them while the input is read;
+ * {@link #scan()} collects all of them into a token list.
+ * Identifiers and literals are sliced directly out of the input. For byte input, positions are byte offsets.
+ * The line breaks passed are recorded in a {@link LineMap}, for lines and columns in diagnostics and source maps.
+ */
+public class Scanner implements IScanner, ITokenStream {
 
-    private final CharSequence input;
+    private static final int BUFFER_SIZE = 8192;
+
+    // exactly one of input, bytes and reader is set
+    private final String input;
+    private final ByteBuffer bytes;
+    private final Reader reader;
+    private char[] buffer;
+    private int bufferPosition = 0;
+    private int bufferEnd = 0;
+
+    private int position = 0; // offset of the next character
+    private int start = 0; // offset of the first character of the current token
+    private int tokenPosition = 0; // offset of the token last returned
+    private int tokenEnd = 0; // offset after the token last returned
+    private boolean done = false;
+
+    private final IdentifierTable identifiers = new IdentifierTable();
+    private final TokenText text = new TokenText();
+    private final LineMap lines = new LineMap();
 
     public Scanner(CharSequence input) {
-        this.input = input + ""; // Safeguard
+        this.input = input.toString(); // Safeguard against mutable inputs, no copy for Strings
+        this.bytes = null;
+        this.reader = null;
+        assert(input.length() == 0 || input.charAt(input.length()-1) == '\n');
+    }
+
+    /**
+     * Scans the bytes from the position to the limit of the buffer.
+     * Only ASCII is allowed outside of comments, so UTF-8 input can be scanned byte by byte.
+     */
+    public Scanner(ByteBuffer bytes) {
+        this.input = null;
+        this.bytes = bytes.slice();
+        this.reader = null;
+        assert(!this.bytes.hasRemaining() || this.bytes.get(this.bytes.limit()-1) == '\n');
+    }
+
+    public Scanner(Reader reader) {
+        this.input = null;
+        this.bytes = null;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Scans the file without copying it onto the heap, it is memory mapped.
+     */
+    public static Scanner ofFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new Scanner(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
     }
 
     public ITokenList scan() throws LexicalError {
-        assert(input.length() == 0 || input.charAt(input.length()-1) == '\n');
-        ITokenList tokenList = new TokenList();
+        ITokenList tokenList;
+        if (reader != null) {
+            tokenList = new TokenList(64, identifiers, lines);
+        } else {
+            int length = input != null ? input.length() : bytes.limit();
+            tokenList = new TokenList(length / 4, identifiers, lines); // a token every 4 characters is plenty
+        }
+        Token token;
+        do {
+            token = next();
+            tokenList.add(token, tokenPosition, tokenEnd);
+        } while (token.terminal != Terminal.SENTINEL);
+        return tokenList;
+    }
+
+    @Override
+    public ITokenStream stream() {
+        return this;
+    }
+
+    /**
+     * The identifiers interned so far, all Identifier tokens of this scanner are shared instances out of this table.
+     */
+    public IdentifierTable getIdentifiers() {
+        return identifiers;
+    }
+
+    @Override
+    public int position() {
+        return tokenPosition;
+    }
+
+    @Override
+    public int end() {
+        return tokenEnd;
+    }
+
+    @Override
+    public LineMap lines() {
+        return lines;
+    }
+
+    @Override
+    public Token next() throws LexicalError {
+        if (done) return new Token(Terminal.SENTINEL);
 
         int state = 0;
-        StringBuilder lexAccu = null; // for identifiers and comments
-        StringBuilder numAccu = new StringBuilder();
+        int numEnd = 0; // end of the digits of a number literal, without trailing whitespace
 
-        for (int i = 0; i < input.length(); i++) {
-            char c = input.charAt(i);
+        while (true) {
+            int i = position;
+            int read = read();
+            if (read < 0) break;
+            char c = (char) read;
+            if (c == '\n') lines.lineStartsAt(position);
 
             switch (state) {
                 case 0:
+                    start = i;
                     if (c == '(') {
-                        tokenList.add(new Token(Terminal.LPAREN));
+                        return token(new Token(Terminal.LPAREN));
                     } else if (c == ',') {
-                        tokenList.add(new Token(Terminal.COMMA));
+                        return token(new Token(Terminal.COMMA));
                     } else if (c == ')') {
-                        tokenList.add(new Token(Terminal.RPAREN));
+                        return token(new Token(Terminal.RPAREN));
                     } else if (c == ';') {
-                        tokenList.add(new Token(Terminal.SEMICOLON));
+                        return token(new Token(Terminal.SEMICOLON));
                     } else if (c == '=') {
-                        tokenList.add(new RelOpr(RelOpr.Attr.EQ));
+                        return token(new RelOpr(RelOpr.Attr.EQ));
                     } else if (c == '+') {
-                        tokenList.add(new AddOpr(AddOpr.Attr.PLUS));
+                        return token(new AddOpr(AddOpr.Attr.PLUS));
                     } else if (c == '-') {
-                        tokenList.add(new AddOpr(AddOpr.Attr.MINUS));
+                        return token(new AddOpr(AddOpr.Attr.MINUS));
                     } else if (c == '*') {
-                        tokenList.add(new MultOpr(MultOpr.Attr.TIMES));
+                        return token(new MultOpr(MultOpr.Attr.TIMES));
                     } else if (c == '.') {
-                        tokenList.add(new Token(Terminal.ACCESSOPR));
+                        return token(new Token(Terminal.ACCESSOPR));
                     } else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
-                        lexAccu = new StringBuilder();
-                        lexAccu.append(c);
                         state = 1;
                     } else if (Character.isDigit(c)) {
-                        numAccu = new StringBuilder(Character.toString(c));
+                        numEnd = position;
                         state = 2;
                     } else if (c == '/') {
                         state = 3;
@@ -65,30 +174,28 @@ public class Scanner implements IScanner {
                     } else if (Character.isWhitespace(c)) {
                         // skip whitespace
                     } else {
-                        throw new LexicalError(c, i);
+                        throw error(c, i);
                     }
                     break;
                 case 1:
                     if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || Character.isDigit(c) || c == '_' || c == '\'') {
-                        lexAccu.append(c);
+                        // part of the identifier
                     } else {
-                        state = 0;
-                        i--;
-                        tokenList.add(tokenFromIdentifier(lexAccu.toString()));
-                        lexAccu = null;
+                        unread();
+                        text.set(start, position);
+                        Token keyword = Keywords.lookup(text);
+                        return token(keyword != null ? keyword : identifiers.intern(text));
                     }
                     break;
                 case 2:
                     if (Character.isDigit(c)) {
-                        numAccu.append(c);
+                        numEnd = position;
                     // if (numAccu > Integer.MAX_VALUE) throw new LexicalError("IntegerLiteral too large at position " + i + "!");
                     } else if (c == '\'' || Character.isWhitespace(c)) {
                         continue; // ' can be used to delimit numbers. Numbers can be multiline
                     } else {
-                        state = 0;
-                        i--;
-                        tokenList.add(new Literal(numAccu.toString()));
-                        numAccu = new StringBuilder();
+                        unread();
+                        return token(new Literal(digits(slice(start, numEnd))), numEnd);
                     }
                     break;
                 case 3:
@@ -97,91 +204,205 @@ public class Scanner implements IScanner {
                     } else if (c == '\\') {
                         state = 6;
                     } else if (c == '=') {
-                        tokenList.add(new RelOpr(RelOpr.Attr.NE));
-                        state = 0;
+                        return token(new RelOpr(RelOpr.Attr.NE));
                     } else {
-                        throw new LexicalError(c, i);
+                        throw error(c, i);
                     }
                     break;
                 case 4:
+                    // skip comments
                     if (c == '\n') {
-                        if (lexAccu != null) {
-                            // skip comments
-                            // tokenList.add(new Comment(lexAccu.toString()));
-                            lexAccu = null;
-                        }
                         state = 0;
-                        i--; // let state 0 handle newline
+                        unread(); // let state 0 handle newline
                     } else {
-                        if (lexAccu == null) lexAccu = new StringBuilder();
-                        lexAccu.append(c);
+                        start = position; // nothing of a comment needs to be kept
                     }
                     break;
                 case 5:
                     if (c == '=') {
-                        tokenList.add(new Token(Terminal.BECOMES));
-                        state = 0;
+                        return token(new Token(Terminal.BECOMES));
                     } else {
-                        tokenList.add(new Token(Terminal.COLON));
-                        state = 0;
-                        i--;
+                        unread();
+                        return token(new Token(Terminal.COLON));
                     }
-                    break;
                 case 6:
                     if (c == '?') {
-                        tokenList.add(new BoolOpr(BoolOpr.Attr.CAND));
-                        state = 0;
+                        return token(new BoolOpr(BoolOpr.Attr.CAND));
                     } else {
-                        throw new LexicalError(c, i);
+                        throw error(c, i);
                     }
-                    break;
                 case 7:
                     if (c == '/') {
                         state = 8;
                     } else {
-                        throw new LexicalError(c, i);
+                        throw error(c, i);
                     }
                     break;
                 case 8:
                     if (c == '?') {
-                        tokenList.add(new BoolOpr(BoolOpr.Attr.COR));
-                        state = 0;
+                        return token(new BoolOpr(BoolOpr.Attr.COR));
                     } else {
-                        throw new LexicalError(c, i);
+                        throw error(c, i);
                     }
-                    break;
                 case 9:
                     if (c == '=') {
-                        tokenList.add(new RelOpr(RelOpr.Attr.LE));
-                        state = 0;
+                        return token(new RelOpr(RelOpr.Attr.LE));
                     } else {
-                        tokenList.add(new RelOpr(RelOpr.Attr.LT));
-                        state = 0;
-                        i--;
+                        unread();
+                        return token(new RelOpr(RelOpr.Attr.LT));
                     }
-                    break;
                 case 10:
                     if (c == '=') {
-                        tokenList.add(new RelOpr(RelOpr.Attr.GE));
-                        state = 0;
+                        return token(new RelOpr(RelOpr.Attr.GE));
                     } else {
-                        tokenList.add(new RelOpr(RelOpr.Attr.GT));
-                        state = 0;
-                        i--;
+                        unread();
+                        return token(new RelOpr(RelOpr.Attr.GT));
                     }
-                    break;
                 default: throw new RuntimeException("Invalid state: " + state);
             }
         }
 
         assert(state == 0);
 
-        tokenList.add(new Token(Terminal.SENTINEL));
+        done = true;
+        start = position;
+        return token(new Token(Terminal.SENTINEL));
+    }
 
-        return tokenList;
+    private Token token(Token token) {
+        return token(token, position);
+    }
+
+    private Token token(Token token, int end) {
+        tokenPosition = start;
+        tokenEnd = end;
+        return token;
+    }
+
+    private LexicalError error(char c, int offset) {
+        return new LexicalError(c, lines.line(offset), lines.column(offset));
+    }
+
+    /**
+     * The next character, or -1 at the end of the input.
+     */
+    private int read() {
+        if (input != null) {
+            return position < input.length() ? input.charAt(position++) : -1;
+        }
+        if (bytes != null) {
+            return position < bytes.limit() ? bytes.get(position++) & 0xff : -1;
+        }
+        if (bufferPosition == bufferEnd && !fill()) {
+            return -1;
+        }
+        position++;
+        return buffer[bufferPosition++];
+    }
+
+    /**
+     * Reads the next chunk of the reader into the buffer. The current token stays in the buffer, so it can be sliced.
+     */
+    private boolean fill() {
+        int keep = position - start;
+        if (keep == buffer.length) {
+            buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        System.arraycopy(buffer, bufferPosition - keep, buffer, 0, keep);
+        bufferPosition = keep;
+        bufferEnd = keep;
+        try {
+            int n = reader.read(buffer, keep, buffer.length - keep);
+            if (n <= 0) return false;
+            bufferEnd += n;
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Pushes back the character just read, so it is read again.
+     */
+    private void unread() {
+        position--;
+        if (reader != null) bufferPosition--;
+    }
+
+    /**
+     * The input from {@code from} (inclusive) to {@code to} (exclusive), where {@code from} is not before the current token.
+     */
+    private String slice(int from, int to) {
+        if (input != null) {
+            return input.substring(from, to);
+        }
+        if (bytes != null) {
+            byte[] slice = new byte[to - from];
+            bytes.get(from, slice);
+            return new String(slice, StandardCharsets.ISO_8859_1); // identifiers and literals are ASCII
+        }
+        return new String(buffer, bufferPosition - (position - from), to - from);
+    }
+
+    /**
+     * The character at the offset, which is not before the current token.
+     */
+    private char charAt(int offset) {
+        if (input != null) {
+            return input.charAt(offset);
+        }
+        if (bytes != null) {
+            return (char) (bytes.get(offset) & 0xff);
+        }
+        return buffer[bufferPosition - (position - offset)];
+    }
+
+    /**
+     * View onto a part of the current token, for looking up identifiers without creating a String.
+     */
+    private class TokenText implements CharSequence {
+        private int from;
+        private int to;
+
+        void set(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return Scanner.this.charAt(from + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return slice(from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            return slice(from, to);
+        }
     }
 
-    private static Token tokenFromIdentifier(String identifier) {
-        return Terminal.identifierToKeyword(identifier).orElse(new Identifier(identifier));
+    /**
+     * Removes the ' delimiters and line breaks of a number literal.
+     */
+    static String digits(String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (!Character.isDigit(literal.charAt(i))) {
+                StringBuilder digits = new StringBuilder(literal.length());
+                for (int j = 0; j < literal.length(); j++) {
+                    if (Character.isDigit(literal.charAt(j))) digits.append(literal.charAt(j));
+                }
+                return digits.toString();
+            }
+        }
+        return literal;
     }
 }
@@ -0,0 +1,358 @@
+package ch.fhnw.cpib.lexer;
+
+import ch.fhnw.cpib.exceptions.LexicalError;
+import ch.fhnw.cpib.lexer.tokens.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Table driven variant of {@link Scanner}: the state machine of scanner_states.gv is precomputed as a
+ * [state][character class] table, every entry holding the next state, an action and whether the character
+ * has to be read again. Scanning a character is a class lookup and a table lookup; only accepting a token
+ * does more work. Produces exactly the same token list as {@link Scanner}.
+ */
+public class TableScanner implements IScanner {
+
+    // character classes
+    private static final int LETTER = 0;
+    private static final int DIGIT = 1;
+    private static final int UNDERSCORE = 2;
+    private static final int APOSTROPHE = 3;
+    private static final int NEWLINE = 4;
+    private static final int WHITESPACE = 5;
+    private static final int LPAREN = 6;
+    private static final int COMMA = 7;
+    private static final int RPAREN = 8;
+    private static final int SEMICOLON = 9;
+    private static final int EQUALS = 10;
+    private static final int PLUS = 11;
+    private static final int MINUS = 12;
+    private static final int STAR = 13;
+    private static final int DOT = 14;
+    private static final int SLASH = 15;
+    private static final int COLON = 16;
+    private static final int BACKSLASH = 17;
+    private static final int LESS = 18;
+    private static final int GREATER = 19;
+    private static final int QUESTION = 20;
+    private static final int OTHER = 21;
+    private static final int CLASS_COUNT = 22;
+
+    private static final int STATE_COUNT = 11;
+
+    // actions, ACCEPT + i accepts SYMBOLS[i]
+    private static final int NONE = 0;
+    private static final int ERROR = 1;
+    private static final int ACCEPT_IDENTIFIER = 2;
+    private static final int ACCEPT_LITERAL = 3;
+    private static final int ACCEPT = 4;
+
+    private static final Token[] SYMBOLS = {
+            new Token(Terminal.LPAREN),
+            new Token(Terminal.COMMA),
+            new Token(Terminal.RPAREN),
+            new Token(Terminal.SEMICOLON),
+            new RelOpr(RelOpr.Attr.EQ),
+            new AddOpr(AddOpr.Attr.PLUS),
+            new AddOpr(AddOpr.Attr.MINUS),
+            new MultOpr(MultOpr.Attr.TIMES),
+            new Token(Terminal.ACCESSOPR),
+            new RelOpr(RelOpr.Attr.NE),
+            new Token(Terminal.BECOMES),
+            new Token(Terminal.COLON),
+            new BoolOpr(BoolOpr.Attr.CAND),
+            new BoolOpr(BoolOpr.Attr.COR),
+            new RelOpr(RelOpr.Attr.LE),
+            new RelOpr(RelOpr.Attr.LT),
+            new RelOpr(RelOpr.Attr.GE),
+            new RelOpr(RelOpr.Attr.GT),
+    };
+
+    // entry: next state in the lowest 4 bits, then the action, and the bit RETRACT to read the character again
+    private static final int ACTION_SHIFT = 4;
+    private static final int RETRACT = 1 << 12;
+    private static final int STATE_MASK = 0xf;
+
+    private static final byte[] CLASSES = new byte[128];
+    private static final int[] TABLE = new int[STATE_COUNT * CLASS_COUNT];
+
+    static {
+        for (int c = 0; c < 128; c++) CLASSES[c] = (byte) classOf((char) c);
+
+        // S_0: start of a token
+        otherwise(0, 0, ERROR, false);
+        on(0, LETTER, 1, NONE);
+        on(0, DIGIT, 2, NONE);
+        on(0, WHITESPACE, 0, NONE);
+        on(0, NEWLINE, 0, NONE);
+        on(0, LPAREN, 0, accept(Terminal.LPAREN, null));
+        on(0, COMMA, 0, accept(Terminal.COMMA, null));
+        on(0, RPAREN, 0, accept(Terminal.RPAREN, null));
+        on(0, SEMICOLON, 0, accept(Terminal.SEMICOLON, null));
+        on(0, EQUALS, 0, accept(Terminal.RELOPR, RelOpr.Attr.EQ));
+        on(0, PLUS, 0, accept(Terminal.ADDOPR, AddOpr.Attr.PLUS));
+        on(0, MINUS, 0, accept(Terminal.ADDOPR, AddOpr.Attr.MINUS));
+        on(0, STAR, 0, accept(Terminal.MULTOPR, MultOpr.Attr.TIMES));
+        on(0, DOT, 0, accept(Terminal.ACCESSOPR, null));
+        on(0, SLASH, 3, NONE);
+        on(0, COLON, 5, NONE);
+        on(0, BACKSLASH, 7, NONE);
+        on(0, LESS, 9, NONE);
+        on(0, GREATER, 10, NONE);
+
+        // S_1: identifier
+        otherwise(1, 0, ACCEPT_IDENTIFIER, true);
+        on(1, LETTER, 1, NONE);
+        on(1, DIGIT, 1, NONE);
+        on(1, UNDERSCORE, 1, NONE);
+        on(1, APOSTROPHE, 1, NONE);
+
+        // S_2: number literal, ' and whitespace may be used as delimiters
+        otherwise(2, 0, ACCEPT_LITERAL, true);
+        on(2, DIGIT, 2, NONE);
+        on(2, APOSTROPHE, 2, NONE);
+        on(2, WHITESPACE, 2, NONE);
+        on(2, NEWLINE, 2, NONE);
+
+        // S_3: after /
+        otherwise(3, 0, ERROR, false);
+        on(3, SLASH, 4, NONE);
+        on(3, BACKSLASH, 6, NONE);
+        on(3, EQUALS, 0, accept(Terminal.RELOPR, RelOpr.Attr.NE));
+
+        // S_4: comment, the newline is handled by S_0
+        otherwise(4, 4, NONE, false);
+        on(4, NEWLINE, 0, NONE, true);
+
+        // S_5: after :
+        otherwise(5, 0, accept(Terminal.COLON, null), true);
+        on(5, EQUALS, 0, accept(Terminal.BECOMES, null));
+
+        // S_6: after /\
+        otherwise(6, 0, ERROR, false);
+        on(6, QUESTION, 0, accept(Terminal.BOOLOPR, BoolOpr.Attr.CAND));
+
+        // S_7: after \
+        otherwise(7, 0, ERROR, false);
+        on(7, SLASH, 8, NONE);
+
+        // S_8: after \/
+        otherwise(8, 0, ERROR, false);
+        on(8, QUESTION, 0, accept(Terminal.BOOLOPR, BoolOpr.Attr.COR));
+
+        // S_9: after <
+        otherwise(9, 0, accept(Terminal.RELOPR, RelOpr.Attr.LT), true);
+        on(9, EQUALS, 0, accept(Terminal.RELOPR, RelOpr.Attr.LE));
+
+        // S_10: after >
+        otherwise(10, 0, accept(Terminal.RELOPR, RelOpr.Attr.GT), true);
+        on(10, EQUALS, 0, accept(Terminal.RELOPR, RelOpr.Attr.GE));
+    }
+
+    private static int classOf(char c) {
+        if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) return LETTER;
+        if (Character.isDigit(c)) return DIGIT;
+        switch (c) {
+            case '_': return UNDERSCORE;
+            case '\'': return APOSTROPHE;
+            case '\n': return NEWLINE;
+            case '(': return LPAREN;
+            case ',': return COMMA;
+            case ')': return RPAREN;
+            case ';': return SEMICOLON;
+            case '=': return EQUALS;
+            case '+': return PLUS;
+            case '-': return MINUS;
+            case '*': return STAR;
+            case '.': return DOT;
+            case '/': return SLASH;
+            case ':': return COLON;
+            case '\\': return BACKSLASH;
+            case '<': return LESS;
+            case '>': return GREATER;
+            case '?': return QUESTION;
+            default: return Character.isWhitespace(c) ? WHITESPACE : OTHER;
+        }
+    }
+
+    private static void on(int state, int characterClass, int next, int action) {
+        on(state, characterClass, next, action, false);
+    }
+
+    private static void on(int state, int characterClass, int next, int action, boolean retract) {
+        TABLE[state * CLASS_COUNT + characterClass] = next | action << ACTION_SHIFT | (retract ? RETRACT : 0);
+    }
+
+    private static void otherwise(int state, int next, int action, boolean retract) {
+        for (int c = 0; c < CLASS_COUNT; c++) {
+            TABLE[state * CLASS_COUNT + c] = next | action << ACTION_SHIFT | (retract ? RETRACT : 0);
+        }
+    }
+
+    private static int accept(Terminal terminal, Enum<?> attr) {
+        for (int i = 0; i < SYMBOLS.length; i++) {
+            Token symbol = SYMBOLS[i];
+            if (symbol.terminal == terminal && (attr == null || attr.equals(attributeOf(symbol)))) return ACCEPT + i;
+        }
+        throw new IllegalArgumentException("No symbol " + terminal + " " + attr);
+    }
+
+    private static Enum<?> attributeOf(Token symbol) {
+        if (symbol instanceof RelOpr) return ((RelOpr) symbol).attr;
+        if (symbol instanceof AddOpr) return ((AddOpr) symbol).attr;
+        if (symbol instanceof MultOpr) return ((MultOpr) symbol).attr;
+        if (symbol instanceof BoolOpr) return ((BoolOpr) symbol).attr;
+        return null;
+    }
+
+    // exactly one of input and bytes is set
+    private final String input;
+    private final ByteBuffer bytes;
+    private final int length;
+
+    private final IdentifierTable identifiers = new IdentifierTable();
+    private final TokenText text = new TokenText();
+
+    public TableScanner(CharSequence input) {
+        this.input = input.toString();
+        this.bytes = null;
+        this.length = this.input.length();
+        assert(length == 0 || input.charAt(length-1) == '\n');
+    }
+
+    /**
+     * Scans the bytes from the position to the limit of the buffer, see {@link Scanner#Scanner(ByteBuffer)}.
+     */
+    public TableScanner(ByteBuffer bytes) {
+        this.input = null;
+        this.bytes = bytes.slice();
+        this.length = this.bytes.limit();
+        assert(length == 0 || this.bytes.get(length-1) == '\n');
+    }
+
+    public ITokenList scan() throws LexicalError {
+        LineMap lines = new LineMap();
+        ITokenList tokenList = new TokenList(length / 4, identifiers, lines); // a token every 4 characters is plenty
+
+        final byte[] classes = CLASSES;
+        final int[] table = TABLE;
+        int state = 0;
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = input != null ? input.charAt(i) : (char) (bytes.get(i) & 0xff);
+            int characterClass = c < 128 ? classes[c] : classOf(c);
+            if (characterClass == NEWLINE) lines.lineStartsAt(i + 1);
+            if (state == 0) start = i;
+
+            int entry = table[state * CLASS_COUNT + characterClass];
+            state = entry & STATE_MASK;
+            int action = (entry & ~RETRACT) >>> ACTION_SHIFT;
+            if (action != NONE) {
+                int end = (entry & RETRACT) != 0 ? i : i + 1; // a retracted character is not part of the token
+                if (action >= ACCEPT) {
+                    tokenList.add(SYMBOLS[action - ACCEPT], start, end);
+                } else if (action == ACCEPT_IDENTIFIER) {
+                    text.set(start, i);
+                    Token keyword = Keywords.lookup(text);
+                    tokenList.add(keyword != null ? keyword : identifiers.intern(text), start, end);
+                } else if (action == ACCEPT_LITERAL) {
+                    while (!Character.isDigit(charAt(end - 1))) end--; // trailing delimiters
+                    tokenList.add(new Literal(Scanner.digits(slice(start, end))), start, end);
+                } else {
+                    throw new LexicalError(c, lines.line(i), lines.column(i));
+                }
+            }
+            if ((entry & RETRACT) != 0) i--;
+        }
+
+        assert(state == 0);
+
+        tokenList.add(new Token(Terminal.SENTINEL), length, length);
+
+        return tokenList;
+    }
+
+    /**
+     * Not incremental: the whole input is scanned first.
+     */
+    @Override
+    public ITokenStream stream() {
+        try {
+            return scan().stream();
+        } catch (LexicalError e) {
+            // report it when the first token is requested, as the Scanner does
+            return new ITokenStream() {
+                @Override
+                public Token next() throws LexicalError {
+                    throw e;
+                }
+
+                @Override
+                public int position() {
+                    return 0;
+                }
+
+                @Override
+                public int end() {
+                    return 0;
+                }
+
+                @Override
+                public LineMap lines() {
+                    return new LineMap();
+                }
+            };
+        }
+    }
+
+    public IdentifierTable getIdentifiers() {
+        return identifiers;
+    }
+
+    private char charAt(int offset) {
+        return input != null ? input.charAt(offset) : (char) (bytes.get(offset) & 0xff);
+    }
+
+    private String slice(int from, int to) {
+        if (input != null) {
+            return input.substring(from, to);
+        }
+        byte[] slice = new byte[to - from];
+        bytes.get(from, slice);
+        return new String(slice, StandardCharsets.ISO_8859_1); // identifiers and literals are ASCII
+    }
+
+    /**
+     * View onto the current identifier, for looking it up without creating a String.
+     */
+    private class TokenText implements CharSequence {
+        private int from;
+        private int to;
+
+        void set(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return TableScanner.this.charAt(from + index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return slice(from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            return slice(from, to);
+        }
+    }
+}
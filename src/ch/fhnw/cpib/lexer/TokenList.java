@@ -1,29 +1,196 @@
 package ch.fhnw.cpib.lexer;
 
-import ch.fhnw.cpib.lexer.tokens.Token;
+import ch.fhnw.cpib.lexer.tokens.*;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.StringJoiner;
 
+/**
+ * Tokens stored as struct of arrays: per token the ordinal of its terminal, an attribute and its source offsets.
+ * The attribute is the ordinal of the operator / mode / type enum, the symbol of an identifier in the
+ * {@link IdentifierTable}, or for number literals an index into the string table.
+ * Token objects are only created on {@link #get(int)} for number literals, all other tokens are shared instances.
+ */
 public class TokenList implements ITokenList {
-    LinkedList<Token> internalList;
+    private static final Terminal[] TERMINALS = Terminal.values();
+    private static final Token[] PLAIN_TOKENS = new Token[TERMINALS.length];
+    private static final AddOpr[] ADD_OPRS = new AddOpr[AddOpr.Attr.values().length];
+    private static final BoolOpr[] BOOL_OPRS = new BoolOpr[BoolOpr.Attr.values().length];
+    private static final Changemode[] CHANGEMODES = new Changemode[Changemode.Attr.values().length];
+    private static final Flowmode[] FLOWMODES = new Flowmode[Flowmode.Attr.values().length];
+    private static final Mechmode[] MECHMODES = new Mechmode[Mechmode.Attr.values().length];
+    private static final MultOpr[] MULT_OPRS = new MultOpr[MultOpr.Attr.values().length];
+    private static final RelOpr[] REL_OPRS = new RelOpr[RelOpr.Attr.values().length];
+    private static final Type[] TYPES = new Type[Type.Attr.values().length];
+    private static final Literal FALSE_LITERAL = new Literal(false);
+    private static final Literal TRUE_LITERAL = new Literal(true);
+
+    // attributes of bool literals, number literals use the string table
+    private static final int FALSE = -1;
+    private static final int TRUE = -2;
+
+    static {
+        for (Terminal t : TERMINALS) PLAIN_TOKENS[t.ordinal()] = new Token(t);
+        for (AddOpr.Attr a : AddOpr.Attr.values()) ADD_OPRS[a.ordinal()] = new AddOpr(a);
+        for (BoolOpr.Attr a : BoolOpr.Attr.values()) BOOL_OPRS[a.ordinal()] = new BoolOpr(a);
+        for (Changemode.Attr a : Changemode.Attr.values()) CHANGEMODES[a.ordinal()] = new Changemode(a);
+        for (Flowmode.Attr a : Flowmode.Attr.values()) FLOWMODES[a.ordinal()] = new Flowmode(a);
+        for (Mechmode.Attr a : Mechmode.Attr.values()) MECHMODES[a.ordinal()] = new Mechmode(a);
+        for (MultOpr.Attr a : MultOpr.Attr.values()) MULT_OPRS[a.ordinal()] = new MultOpr(a);
+        for (RelOpr.Attr a : RelOpr.Attr.values()) REL_OPRS[a.ordinal()] = new RelOpr(a);
+        for (Type.Attr a : Type.Attr.values()) TYPES[a.ordinal()] = new Type(a);
+    }
+
+    private byte[] terminals;
+    private int[] attributes;
+    private int[] positions;
+    private int[] ends;
+    private int size = 0;
+
+    private final IdentifierTable identifiers;
+    private final LineMap lines;
+    private String[] strings;
+    private int stringCount = 0;
+
+    public TokenList() {
+        this(64, new IdentifierTable(), new LineMap());
+    }
+
+    public TokenList(int expectedSize, IdentifierTable identifiers, LineMap lines) {
+        this.identifiers = identifiers;
+        this.lines = lines;
+        expectedSize = Math.max(expectedSize, 1);
+        terminals = new byte[expectedSize];
+        attributes = new int[expectedSize];
+        positions = new int[expectedSize];
+        ends = new int[expectedSize];
+        strings = new String[Math.max(expectedSize / 4, 1)];
+    }
 
     @Override
     public Iterator<Token> iterator() {
-        return internalList.iterator();
+        return new Iterator<>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Token next() {
+                if (index >= size) throw new NoSuchElementException();
+                return get(index++);
+            }
+        };
     }
 
     @Override
-    public void add(Token t) {
-        internalList.add(t);
+    public void add(Token t, int position, int end) {
+        if (size == terminals.length) {
+            int capacity = size + (size >> 1) + 1;
+            terminals = Arrays.copyOf(terminals, capacity);
+            attributes = Arrays.copyOf(attributes, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        terminals[size] = (byte) t.terminal.ordinal();
+        attributes[size] = attributeOf(t);
+        positions[size] = position;
+        ends[size] = end;
+        size++;
     }
 
-    public TokenList() {
-        this.internalList = new LinkedList<>();
+    private int attributeOf(Token t) {
+        if (t instanceof Identifier) {
+            Identifier identifier = (Identifier) t;
+            if (identifiers.identifier(identifier.symbol) == identifier) return identifier.symbol;
+            return identifiers.intern(identifier.ident).symbol;
+        }
+        if (t instanceof Literal) {
+            Literal literal = (Literal) t;
+            if (literal.attr == Literal.Attr.NUMBER) return addString(literal.numberValue);
+            return literal.boolValue ? TRUE : FALSE;
+        }
+        if (t instanceof AddOpr) return ((AddOpr) t).attr.ordinal();
+        if (t instanceof BoolOpr) return ((BoolOpr) t).attr.ordinal();
+        if (t instanceof Changemode) return ((Changemode) t).attr.ordinal();
+        if (t instanceof Flowmode) return ((Flowmode) t).attr.ordinal();
+        if (t instanceof Mechmode) return ((Mechmode) t).attr.ordinal();
+        if (t instanceof MultOpr) return ((MultOpr) t).attr.ordinal();
+        if (t instanceof RelOpr) return ((RelOpr) t).attr.ordinal();
+        if (t instanceof Type) return ((Type) t).attr.ordinal();
+        return 0;
+    }
+
+    private int addString(String s) {
+        if (stringCount == strings.length) {
+            strings = Arrays.copyOf(strings, stringCount + (stringCount >> 1) + 1);
+        }
+        strings[stringCount] = s;
+        return stringCount++;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Terminal terminal(int index) {
+        checkIndex(index);
+        return TERMINALS[terminals[index]];
+    }
+
+    @Override
+    public Token get(int index) {
+        checkIndex(index);
+        int attribute = attributes[index];
+        switch (TERMINALS[terminals[index]]) {
+            case IDENT: return identifiers.identifier(attribute);
+            case LITERAL:
+                if (attribute == TRUE) return TRUE_LITERAL;
+                if (attribute == FALSE) return FALSE_LITERAL;
+                return new Literal(strings[attribute]);
+            case ADDOPR: return ADD_OPRS[attribute];
+            case BOOLOPR: return BOOL_OPRS[attribute];
+            case CHANGEMODE: return CHANGEMODES[attribute];
+            case FLOWMODE: return FLOWMODES[attribute];
+            case MECHMODE: return MECHMODES[attribute];
+            case MULTOPR: return MULT_OPRS[attribute];
+            case RELOPR: return REL_OPRS[attribute];
+            case TYPE: return TYPES[attribute];
+            default: return PLAIN_TOKENS[terminals[index]];
+        }
+    }
+
+    @Override
+    public int position(int index) {
+        checkIndex(index);
+        return positions[index];
+    }
+
+    @Override
+    public int end(int index) {
+        checkIndex(index);
+        return ends[index];
+    }
+
+    @Override
+    public LineMap lines() {
+        return lines;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException("Token " + index + " of " + size);
     }
 
     @Override
     public String toString() {
-        return internalList.toString();
+        StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int i = 0; i < size; i++) joiner.add(get(i).toString());
+        return joiner.toString();
     }
 }
@@ -3,10 +3,16 @@ package ch.fhnw.cpib.lexer.tokens;
 public class Identifier extends Token {
 
     public final String ident;
+    public final int symbol; // id in the IdentifierTable of the compilation, -1 if not interned
 
     public Identifier(String ident) {
+        this(ident, -1);
+    }
+
+    public Identifier(String ident, int symbol) {
         super(Terminal.IDENT);
         this.ident = ident;
+        this.symbol = symbol;
     }
 
     @Override
@@ -1,5 +1,6 @@
 package ch.fhnw.cpib.lexer.tokens;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Optional;
@@ -95,6 +96,10 @@ public enum Terminal {
         keywordMappings.put("while", new Token(WHILE));
     }
 
+    public static Map<String, Token> keywordMappings() {
+        return Collections.unmodifiableMap(keywordMappings);
+    }
+
     public static Optional<Token> identifierToKeyword(String identifier) {
         return Optional.ofNullable(keywordMappings.get(identifier));
     }
@@ -12,10 +12,10 @@ import ch.fhnw.cpib.lexer.tokens.*;
 import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray;
 import ch.fhnw.lederer.virtualmachineFS2015.ICodeArray.CodeTooSmallError;
 import ch.fhnw.lederer.virtualmachineFS2015.IInstructions;
+import ch.fhnw.lederer.virtualmachineFS2015.SourcePosition;
 
 import java.util.*;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class AbsSyn {
 
@@ -30,8 +30,103 @@ public class AbsSyn {
         int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError;
     }
 
-    private static Map<String, ProcedureSignature> procedureMap;
-    private static Map<String, RecordSignature> recordMap;
+    // the declarations of the program being compiled on this thread
+    private static Map<String, ProcedureSignature> procedureMap() {
+        return Compilation.current().procedures;
+    }
+
+    private static Map<String, RecordSignature> recordMap() {
+        return Compilation.current().records;
+    }
+
+    private static Map<String, ICodeType> allTypes() {
+        return Compilation.current().types;
+    }
+
+    /**
+     * Expressions and commands know the part of the source they were parsed from, null for nodes created by the compiler.
+     */
+    public abstract static class Positioned {
+        private SourcePosition position;
+
+        public SourcePosition getPosition() {
+            return position;
+        }
+
+        public void setPosition(SourcePosition position) {
+            this.position = position;
+        }
+    }
+
+    // Code generation of a child node, which records the source of the instructions in the source map of the environment.
+    // The innermost node marks an instruction first, so it keeps the most precise position.
+
+    private static int codeLValueOf(IExpression expression, ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
+        int start = location;
+        location = expression.codeLValue(codeArray, location, env);
+        if (env.sourceMap != null) env.sourceMap.mark(start, location, expression.getPosition());
+        return location;
+    }
+
+    private static int codeRValueOf(IExpression expression, ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
+        int start = location;
+        location = expression.codeRValue(codeArray, location, env);
+        if (env.sourceMap != null) env.sourceMap.mark(start, location, expression.getPosition());
+        return location;
+    }
+
+    private static int codeOf(ICommand command, ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
+        int start = location;
+        location = command.code(codeArray, location, env);
+        if (env.sourceMap != null) env.sourceMap.mark(start, location, command.getPosition());
+        return location;
+    }
+
+    /**
+     * A call of the routine itself, as the last thing the routine does, may reuse the frame of the routine,
+     * if every reference passed is one to a global variable or one of its own reference parameters.
+     * A reference to a local variable or a copy parameter points into the frame that the arguments overwrite.
+     */
+    private static boolean canReuseFrame(ProcedureSignature signature, List<IExpression> arguments, Environment env) {
+        for (int i = 0; i < arguments.size(); i++) {
+            if (signature.arguments.get(i).getMechMode() != Mechmode.Attr.REF) continue;
+            if (!(arguments.get(i) instanceof StoreExpression)) return false;
+            Environment.IdentifierInfo info = env.getIdentifierInfo(((StoreExpression) arguments.get(i)).name);
+            if (info.isLocalScope && info.isDirectAccess) return false; // a slot of the frame itself
+        }
+        return true;
+    }
+
+    /**
+     * Creates the code of a tail call: the arguments overwrite the parameters of the current incarnation
+     * and the body starts over, so the recursion runs in constant stack space.
+     * All arguments are evaluated before the first parameter is overwritten.
+     */
+    private static int codeTailCall(ProcedureSignature signature, List<IExpression> arguments, List<String> parameters,
+                                    ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
+        List<Integer> addresses = new ArrayList<>(); // of the values pushed, in order
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < arguments.size(); i++) {
+            var argument = arguments.get(i);
+            var param = signature.arguments.get(i);
+            int addr = env.getIdentifierInfo(parameters.get(i)).addr;
+            if (param.getMechMode() == Mechmode.Attr.REF) {
+                location = codeLValueOf(argument, codeArray, location, env);
+                addresses.add(addr);
+                sizes.add(1);
+            } else if (param.getFlowMode() != Flowmode.Attr.OUT) { // an out parameter is not initialized anyway
+                location = codeRValueOf(argument, codeArray, location, env);
+                addresses.add(addr);
+                sizes.add(param.getType().getSize());
+            }
+        }
+        for (int i = addresses.size() - 1; i >= 0; i--) {
+            codeArray.put(location++, new IInstructions.LoadAddrRel(addresses.get(i)));
+            codeArray.put(location++, sizes.get(i) == 1 ? new IInstructions.StoreRev() : new IInstructions.CopyBlock(sizes.get(i)));
+        }
+        codeArray.put(location++, new IInstructions.UncondJump(signature.bodyAddress));
+        return location;
+    }
 
     public interface IType {
         ICodeType convertType();
@@ -45,7 +140,7 @@ public class AbsSyn {
 
         @Override
         public ICodeType convertType() {
-            return Types.allTypes.get(type.attr.toString());
+            return allTypes().get(type.attr.toString());
         }
     }
 
@@ -58,7 +153,7 @@ public class AbsSyn {
 
         @Override
         public ICodeType convertType() {
-            return Types.allTypes.get(name);
+            return allTypes().get(name);
         }
     }
 
@@ -299,6 +394,31 @@ public class AbsSyn {
         }
     }
 
+    /**
+     * A variable introduced by the compiler, e.g. for a value computed once and used more than once.
+     * Its name is not an identifier of IML, so it cannot clash with one of the program.
+     */
+    public static class TemporaryDeclaration extends StorageDeclaration {
+        private final String name;
+        private final ICodeType type;
+
+        public TemporaryDeclaration(String name, ICodeType type) {
+            super(new VarChangeMode(), null);
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public VariableSignature getSignature(Scope scope) {
+            return new VariableSignature(type, null, Changemode.Attr.VAR, null, AccessMode.DIRECT, scope);
+        }
+    }
+
     public interface IFunctionDeclaration extends IDeclaration {
     }
 
@@ -323,10 +443,10 @@ public class AbsSyn {
 
         @Override
         public IDeclaration check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
-            if (procedureMap.containsKey(name)) {
+            if (procedureMap().containsKey(name)) {
                 throw new ContextError("Function " + name + " is already declared");
             }
-            if (recordMap.containsKey(name)) {
+            if (recordMap().containsKey(name)) {
                 throw new ContextError("Function " + name + " cannot be declared, there is a record of that name.");
             }
 
@@ -355,7 +475,7 @@ public class AbsSyn {
 
             returnValue = returnValue.check(parentScope);
             FunctionSignature signature = new FunctionSignature(gis, args, symbolTable, returnValue.getSignature(Scope.LOCAL).getType());
-            procedureMap.put(name, signature);
+            procedureMap().put(name, signature);
 
             symbolTable.put(returnValue.getName(), returnValue.getSignature(Scope.LOCAL));
 
@@ -411,10 +531,10 @@ public class AbsSyn {
 
         @Override
         public IDeclaration check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
-            if (procedureMap.containsKey(name)) {
+            if (procedureMap().containsKey(name)) {
                 throw new ContextError("Procedure " + name + " is already declared");
             }
-            if (recordMap.containsKey(name)) {
+            if (recordMap().containsKey(name)) {
                 throw new ContextError("Procedure " + name + " cannot be declared, there is a record of that name.");
             }
 
@@ -433,7 +553,7 @@ public class AbsSyn {
             }
 
             symbolTable = new HashMap<>();
-            procedureMap.put(name, new ProcedureSignature(gi, args, symbolTable));
+            procedureMap().put(name, new ProcedureSignature(gi, args, symbolTable));
 
             List<IParameter> newParams = new LinkedList<>();
             for (IParameter iParameter : parameters) {
@@ -492,10 +612,10 @@ public class AbsSyn {
 
         @Override
         public IDeclaration check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
-            if (recordMap.containsKey(name)) {
+            if (recordMap().containsKey(name)) {
                 throw new ContextError("Record " + name + " is already declared");
             }
-            if (procedureMap.containsKey(name)) {
+            if (procedureMap().containsKey(name)) {
                 throw new ContextError("Record " + name + " cannot be declared, there is already a procedure of that name");
             }
 
@@ -505,8 +625,8 @@ public class AbsSyn {
                 f.add(newField);
             }
             RecordSignature recordSignature = new RecordSignature(f);
-            recordMap.put(name, recordSignature);
-            Types.allTypes.put(name, new RecordCodeType(name, f));
+            recordMap().put(name, recordSignature);
+            allTypes().put(name, new RecordCodeType(name, recordSignature));
 
             return this;
         }
@@ -535,10 +655,13 @@ public class AbsSyn {
 
         int codeLValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError;
         int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError;
+
+        SourcePosition getPosition();
+        void setPosition(SourcePosition position);
     }
     public interface ILiteralExpression extends IExpression {}
     public interface IBoolLiteralExpression extends ILiteralExpression {}
-    public static class BoolLiteralExpression implements IBoolLiteralExpression {
+    public static class BoolLiteralExpression extends Positioned implements IBoolLiteralExpression {
         public boolean value;
 
         public BoolLiteralExpression(boolean value) {
@@ -580,7 +703,7 @@ public class AbsSyn {
     public interface IIntLiteralExpression extends ILiteralExpression {
     }
 
-    public static class IntLiteralExpression implements IIntLiteralExpression {
+    public static class IntLiteralExpression extends Positioned implements IIntLiteralExpression {
         public String value; // To allow any length of number
 
         public IntLiteralExpression(String value) {
@@ -629,7 +752,7 @@ public class AbsSyn {
     public interface IStoreExpression extends IExpression {
     }
 
-    public static class StoreExpression implements IStoreExpression {
+    public static class StoreExpression extends Positioned implements IStoreExpression {
         public String name;
         public boolean init;
 
@@ -714,16 +837,11 @@ public class AbsSyn {
 
         @Override
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
-            // todo deduplicate with record access
             try {
                 ICodeType type = getType(env.getSymbolTable());
                 if (type instanceof RecordCodeType) {
-                    for (int i = 0; i < type.getSize(); i++) {
-                        location = codeLValue(codeArray, location, env); // hack: evaluate lValue multiple times
-                        codeArray.put(location++, new IInstructions.LoadImInt(i));
-                        codeArray.put(location++, new IInstructions.AddInt());
-                        codeArray.put(location++, new IInstructions.Deref());
-                    }
+                    location = codeLValue(codeArray, location, env);
+                    codeArray.put(location++, new IInstructions.LoadBlock(type.getSize())); // all fields at once
                 } else {
                     location = codeLValue(codeArray, location, env);
                     codeArray.put(location++, new IInstructions.Deref());
@@ -749,7 +867,7 @@ public class AbsSyn {
         }
     }
 
-    public static class FunctionCallExpression implements IFunctionCallExpression {
+    public static class FunctionCallExpression extends Positioned implements IFunctionCallExpression {
         public String name;
         public List<IExpression> arguments;
 
@@ -769,18 +887,20 @@ public class AbsSyn {
         @Override
         public IExpression check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
 
-            if (!procedureMap.containsKey(name) && !recordMap.containsKey(name))
+            if (!procedureMap().containsKey(name) && !recordMap().containsKey(name))
                 throw new ContextError(String.format("Unknown function %s", name));
 
             List<IExpression> newArgs = new LinkedList<>();
             for (IExpression e : arguments) newArgs.add(e.check(parentScope));
             arguments = newArgs;
 
-            if (recordMap.containsKey(name)) {
-                return new RecordCallExpression(name, arguments).check(parentScope);
+            if (recordMap().containsKey(name)) {
+                RecordCallExpression recordCall = new RecordCallExpression(name, arguments);
+                recordCall.setPosition(getPosition());
+                return recordCall.check(parentScope);
             }
 
-            var desiredArguments = procedureMap.get(name).arguments;
+            var desiredArguments = procedureMap().get(name).arguments;
             if (arguments.size() != desiredArguments.size())
                 throw new ContextError(name + ": expected " + desiredArguments.size() + " arguments. Found " + arguments.size());
             for (int i = 0; i < arguments.size(); i++) {
@@ -795,7 +915,7 @@ public class AbsSyn {
 
         @Override
         public ICodeType getType(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
-            var signature = procedureMap.get(name);
+            var signature = procedureMap().get(name);
             if (signature == null) {
                 throw new ContextError(String.format("Couldn't find function '%s'", name));
             }
@@ -812,7 +932,7 @@ public class AbsSyn {
 
         @Override
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
-            FunctionSignature signature = (FunctionSignature)procedureMap.get(name);
+            FunctionSignature signature = (FunctionSignature)procedureMap().get(name);
 
             int returnTypeSize = signature.returnType.getSize();
             codeArray.put(location++, new IInstructions.AllocBlock(returnTypeSize));
@@ -823,12 +943,12 @@ public class AbsSyn {
                 var argument = arguments.get(i);
                 var param = signature.arguments.get(i);
                 if (param.getMechMode() == Mechmode.Attr.REF) {
-                    location = argument.codeLValue(codeArray, location, env);
+                    location = codeLValueOf(argument, codeArray, location, env);
                 } else {
                     if (param.getFlowMode() == Flowmode.Attr.OUT) {
                         codeArray.put(location++, new IInstructions.AllocBlock(param.getType().getSize()));
                     } else {
-                        location = argument.codeRValue(codeArray, location, env);
+                        location = codeRValueOf(argument, codeArray, location, env);
                     }
                 }
             }
@@ -841,7 +961,7 @@ public class AbsSyn {
     }
 
     // Only returned in static analysis of FunctionCallExpression
-    public static class RecordCallExpression implements IFunctionCallExpression {
+    public static class RecordCallExpression extends Positioned implements IFunctionCallExpression {
         public String name;
         public List<IExpression> arguments;
 
@@ -853,7 +973,7 @@ public class AbsSyn {
         @Override
         public IExpression check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
 
-            var desiredArguments = recordMap.get(name).fields;
+            var desiredArguments = recordMap().get(name).fields;
             if (arguments.size() != desiredArguments.size())
                 throw new ContextError(name + ": expected " + desiredArguments.size() + " arguments. Found " + arguments.size());
             for (int i = 0; i < arguments.size(); i++) {
@@ -868,7 +988,7 @@ public class AbsSyn {
 
         @Override
         public ICodeType getType(Map<String, VariableSignature> parentScope) {
-            return Types.allTypes.get(name);
+            return allTypes().get(name);
         }
 
 
@@ -880,7 +1000,7 @@ public class AbsSyn {
         @Override
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
             for (IExpression expression : arguments) {
-                location =  expression.codeRValue(codeArray, location, env);
+                location =  codeRValueOf(expression, codeArray, location, env);
             }
             return location;
         }
@@ -897,7 +1017,7 @@ public class AbsSyn {
             return true;
         }
     }
-    public static class MonadicExpression implements IMonadicExpression {
+    public static class MonadicExpression extends Positioned implements IMonadicExpression {
         public IMonadicOperator operator;
         public IExpression expression;
 
@@ -935,12 +1055,12 @@ public class AbsSyn {
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
             if (operator instanceof NotMonadicOperator) {
                 codeArray.put(location++, new IInstructions.LoadImInt(1));
-                location = expression.codeRValue(codeArray, location, env); // assumed condition: this expression evaluates to a boolean
+                location = codeRValueOf(expression, codeArray, location, env); // assumed condition: this expression evaluates to a boolean
                 codeArray.put(location++, new IInstructions.SubInt()); // 1 - boolean = !boolean
             } else if (operator instanceof PosMonadicOperator) {
-                location = expression.codeRValue(codeArray, location, env);
+                location = codeRValueOf(expression, codeArray, location, env);
             } else if (operator instanceof NegMonadicOperator) {
-                location = expression.codeRValue(codeArray, location, env);
+                location = codeRValueOf(expression, codeArray, location, env);
                 codeArray.put(location++, new IInstructions.LoadImInt(-1));
                 codeArray.put(location++, new IInstructions.MultInt());
             } else {
@@ -965,7 +1085,7 @@ public class AbsSyn {
     }
 
     public interface IMultiplicationDyadicExpression extends IDyadicExpression {}
-    public static class MultiplicationDyadicExpression implements IMultiplicationDyadicExpression {
+    public static class MultiplicationDyadicExpression extends Positioned implements IMultiplicationDyadicExpression {
         public MultOpr.Attr operator;
         public IExpression l;
         public IExpression r;
@@ -1005,8 +1125,8 @@ public class AbsSyn {
 
         @Override
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
-            location = l.codeRValue(codeArray, location, env);
-            location = r.codeRValue(codeArray, location, env);
+            location = codeRValueOf(l, codeArray, location, env);
+            location = codeRValueOf(r, codeArray, location, env);
             switch (operator) {
                 case TIMES -> codeArray.put(location++, new IInstructions.MultInt());
                 case DIV_T -> codeArray.put(location++, new IInstructions.DivTruncInt());
@@ -1021,7 +1141,7 @@ public class AbsSyn {
     public interface IAdditionDyadicExpression extends IDyadicExpression {
     }
 
-    public static class AdditionDyadicExpression implements IAdditionDyadicExpression {
+    public static class AdditionDyadicExpression extends Positioned implements IAdditionDyadicExpression {
         public AddOpr.Attr operator;
         public IExpression l;
         public IExpression r;
@@ -1061,8 +1181,8 @@ public class AbsSyn {
 
         @Override
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
-            location = l.codeRValue(codeArray, location, env);
-            location = r.codeRValue(codeArray, location, env);
+            location = codeRValueOf(l, codeArray, location, env);
+            location = codeRValueOf(r, codeArray, location, env);
             switch (operator) {
                 case PLUS -> codeArray.put(location++, new IInstructions.AddInt());
                 case MINUS -> codeArray.put(location++, new IInstructions.SubInt());
@@ -1075,10 +1195,11 @@ public class AbsSyn {
     public interface IRelativeDyadicExpression extends IDyadicExpression {
     }
 
-    public static class RelativeDyadicExpression implements IRelativeDyadicExpression {
+    public static class RelativeDyadicExpression extends Positioned implements IRelativeDyadicExpression {
         public RelOpr.Attr operator;
         public IExpression l;
         public IExpression r;
+        private RecordCodeType recordType; // of both operands if records are compared, set by check
 
         public RelativeDyadicExpression(RelOpr.Attr operator, IExpression l, IExpression r) {
             this.operator = operator;
@@ -1091,6 +1212,16 @@ public class AbsSyn {
             switch (operator) {
                 case EQ:
                 case NE:
+                    if (l.getType(parentScope) instanceof RecordCodeType) {
+                        // records are equal if all their fields are
+                        if (!l.getType(parentScope).getName().equals(r.getType(parentScope).getName())) {
+                            throw new TypeError("RelativeDyadicExpression", r.getType(parentScope).getName(), l.getType(parentScope).getName());
+                        }
+                        recordType = (RecordCodeType) l.getType(parentScope);
+                        l = l.check(parentScope);
+                        r = r.check(parentScope);
+                        break;
+                    }
                     if (l.getType(parentScope) instanceof BoolCodeType && !(r.getType(parentScope) instanceof BoolCodeType)) {
                         throw new TypeError("RelativeDyadicExpression", r.getType(parentScope).toString(), BoolCodeType.typeString);
                     }
@@ -1122,8 +1253,17 @@ public class AbsSyn {
 
         @Override
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
-            location = l.codeRValue(codeArray, location, env);
-            location = r.codeRValue(codeArray, location, env);
+            if (recordType != null) {
+                if (operator == RelOpr.Attr.NE) codeArray.put(location++, new IInstructions.LoadImInt(1));
+                location = codeRValueOf(l, codeArray, location, env);
+                location = codeRValueOf(r, codeArray, location, env);
+                codeArray.put(location++, new IInstructions.EqBlock(recordType.getSize()));
+                if (operator == RelOpr.Attr.NE) codeArray.put(location++, new IInstructions.SubInt()); // 1 - equal
+                return location;
+            }
+
+            location = codeRValueOf(l, codeArray, location, env);
+            location = codeRValueOf(r, codeArray, location, env);
 
             switch (operator) {
                 case EQ -> codeArray.put(location++, new IInstructions.EqInt());
@@ -1140,7 +1280,7 @@ public class AbsSyn {
     public interface IBoolDyadicExpression extends IDyadicExpression {
     }
 
-    public static class BoolDyadicExpression implements IBoolDyadicExpression {
+    public static class BoolDyadicExpression extends Positioned implements IBoolDyadicExpression {
         public BoolOpr.Attr operator;
         public IExpression l;
         public IExpression r;
@@ -1178,9 +1318,9 @@ public class AbsSyn {
         public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
             switch (operator) {
                 case CAND -> {
-                    location = l.codeRValue(codeArray, location, env);
+                    location = codeRValueOf(l, codeArray, location, env);
                     int jumpLocation = location++;
-                    location = r.codeRValue(codeArray, location, env); // eval r otherwise
+                    location = codeRValueOf(r, codeArray, location, env); // eval r otherwise
                     int afterIfBodyJumpLocation = location++;
                     int elseAddr = location;
                     codeArray.put(location++, new IInstructions.LoadImInt(0)); // else evaluate to false
@@ -1192,12 +1332,12 @@ public class AbsSyn {
                 case COR -> {
                     // calculate 1-l for cndJump
                     codeArray.put(location++, new IInstructions.LoadImInt(1));
-                    location = l.codeRValue(codeArray, location, env);
+                    location = codeRValueOf(l, codeArray, location, env);
                     codeArray.put(location++, new IInstructions.SubInt());
 
 
                     int jumpLocation = location++;
-                    location = r.codeRValue(codeArray, location, env); // eval r otherwise
+                    location = codeRValueOf(r, codeArray, location, env); // eval r otherwise
                     int afterIfBodyJumpLocation = location++;
                     int elseAddr = location;
                     codeArray.put(location++, new IInstructions.LoadImInt(1)); // else evaluate to true
@@ -1222,7 +1362,7 @@ public class AbsSyn {
             return true;
         }
     }
-    public static class RecordAccessExpression implements IRecordAccessExpression {
+    public static class RecordAccessExpression extends Positioned implements IRecordAccessExpression {
         public String variableName;
         public List<String> fieldNames;
 
@@ -1247,7 +1387,7 @@ public class AbsSyn {
         }
 
         private ICodeType getRecordType(String recordName, String field, List<String> moreFields) throws ContextError {
-            var recordSignature = recordMap.get(recordName);
+            var recordSignature = recordMap().get(recordName);
             if (recordSignature == null)
                 throw new ContextError(String.format("Couldn't find record %s", recordName));
 
@@ -1279,6 +1419,10 @@ public class AbsSyn {
             if (!(record.getType() instanceof RecordCodeType))
                 throw new ContextError(String.format("%s isn't a record", variableName));
 
+            var field = ((RecordCodeType) record.getType()).getLayout().get(fieldNames);
+            if (field != null) return field.type;
+
+            // walk the fields for the error message
             var recordName = record.getType().getName();
             return getRecordType(recordName, fieldNames.get(0), fieldNames.subList(1, fieldNames.size()));
         }
@@ -1314,12 +1458,8 @@ public class AbsSyn {
             try {
                 ICodeType type = getType(env.getSymbolTable());
                 if (type instanceof RecordCodeType) {
-                    for (int i = 0; i < type.getSize(); i++) {
-                        location = codeLValue(codeArray, location, env); // hack: evaluate lValue multiple times
-                        codeArray.put(location++, new IInstructions.LoadImInt(i));
-                        codeArray.put(location++, new IInstructions.AddInt());
-                        codeArray.put(location++, new IInstructions.Deref());
-                    }
+                    location = codeLValue(codeArray, location, env);
+                    codeArray.put(location++, new IInstructions.LoadBlock(type.getSize())); // all fields at once
                 } else {
                     location = codeLValue(codeArray, location, env);
                     codeArray.put(location++, new IInstructions.Deref());
@@ -1333,11 +1473,73 @@ public class AbsSyn {
         }
     }
 
+    /**
+     * An expression whose value is kept in a temporary variable, the first evaluation stores it and the later ones load it.
+     * It reads like the expression, which matters for the indicator of a debugout.
+     */
+    public static class TemporaryExpression extends Positioned implements IExpression {
+        public StoreExpression temporary;
+        public IExpression expression;
+        public boolean first;
+
+        public TemporaryExpression(StoreExpression temporary, IExpression expression, boolean first) {
+            this.temporary = temporary;
+            this.expression = expression;
+            this.first = first;
+            setPosition(expression.getPosition());
+        }
+
+        @Override
+        public String toString() {
+            return expression.toString();
+        }
+
+        @Override
+        public IExpression check(Map<String, VariableSignature> parentScope) {
+            return this;
+        }
+
+        @Override
+        public ICodeType getType(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
+            return expression.getType(parentScope);
+        }
+
+        @Override
+        public boolean isValidLeft() {
+            return false;
+        }
+
+        @Override
+        public boolean isValidRight() {
+            return true;
+        }
+
+        @Override
+        public int codeLValue(ICodeArray codeArray, int location, Environment env) {
+            throw new RuntimeException("TemporaryExpression cant be used as l-value");
+        }
+
+        @Override
+        public int codeRValue(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError {
+            if (!first) {
+                return temporary.codeRValue(codeArray, location, env);
+            }
+            location = codeRValueOf(expression, codeArray, location, env);
+            codeArray.put(location++, new IInstructions.Dup()); // the value stays on the stack for the expression
+            location = temporary.codeLValue(codeArray, location, env);
+            codeArray.put(location++, new IInstructions.StoreRev());
+            return location;
+        }
+    }
+
     public interface ICommand extends IAbsSynNode  {
         ICommand check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError;
+
+        SourcePosition getPosition();
+        void setPosition(SourcePosition position);
     }
     public interface ISkipCommand extends ICommand {}
-    public static class SkipCommand implements ISkipCommand {
+    public static class SkipCommand extends Positioned implements ISkipCommand {
 
         @Override
         public ICommand check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
@@ -1350,9 +1552,10 @@ public class AbsSyn {
         }
     }
     public interface IAssignmentCommand extends ICommand {}
-    public static class AssignmentCommand implements IAssignmentCommand {
+    public static class AssignmentCommand extends Positioned implements IAssignmentCommand {
         public IExpression l;
         public IExpression r;
+        public List<String> tailCallParameters = null; // parameters of the function if this returns a call of it, set during code gen
 
         public AssignmentCommand(IExpression l, IExpression r) {
             this.l = l;
@@ -1392,20 +1595,24 @@ public class AbsSyn {
 
         @Override
         public int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
+            if (tailCallParameters != null) {
+                FunctionCallExpression call = (FunctionCallExpression) r;
+                ProcedureSignature signature = procedureMap().get(call.name);
+                if (canReuseFrame(signature, call.arguments, env)) {
+                    // the function stores its result right where this assignment would
+                    return codeTailCall(signature, call.arguments, tailCallParameters, codeArray, location, env);
+                }
+            }
+
             ICodeType rType = r.getType(env.getSymbolTable());
 
             if (rType instanceof RecordCodeType) {
-                location = r.codeRValue(codeArray, location, env);
-                for (int i = rType.getSize(); i > 0; i--) {
-                    location = l.codeLValue(codeArray, location, env); // hack: calculate lValue multiple times
-                    codeArray.put(location++, new IInstructions.LoadImInt(i-1)); // add offset for current field
-                    codeArray.put(location++, new IInstructions.AddInt());
-
-                    codeArray.put(location++, new IInstructions.StoreRev()); // store reversed
-                }
+                location = codeRValueOf(r, codeArray, location, env);
+                location = codeLValueOf(l, codeArray, location, env);
+                codeArray.put(location++, new IInstructions.CopyBlock(rType.getSize())); // all fields at once
             } else {
-                location = l.codeLValue(codeArray, location, env);
-                location = r.codeRValue(codeArray, location, env);
+                location = codeLValueOf(l, codeArray, location, env);
+                location = codeRValueOf(r, codeArray, location, env);
                 codeArray.put(location++, new IInstructions.Store());
             }
 
@@ -1416,7 +1623,7 @@ public class AbsSyn {
     public interface IIfCommand extends ICommand {
     }
 
-    public static class IfCommand implements IIfCommand {
+    public static class IfCommand extends Positioned implements IIfCommand {
         public IExpression condition;
         public List<ICommand> commands;
         public List<ICommand> elseCommands;
@@ -1450,15 +1657,15 @@ public class AbsSyn {
 
         @Override
         public int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
-            location = condition.codeRValue(codeArray, location, env);
+            location = codeRValueOf(condition, codeArray, location, env);
             int jumpLocation = location++;
             for (ICommand command : commands) {
-                location = command.code(codeArray, location, env);
+                location = codeOf(command, codeArray, location, env);
             }
             int afterIfBodyJumpLocation = location++;
             int elseBodyStartLocation = location;
             for (ICommand command : elseCommands) {
-                location = command.code(codeArray, location, env);
+                location = codeOf(command, codeArray, location, env);
             }
             int afterElseBodyLocation = location;
 
@@ -1471,7 +1678,7 @@ public class AbsSyn {
     public interface IWhileCommand extends ICommand {
     }
 
-    public static class WhileCommand implements IWhileCommand {
+    public static class WhileCommand extends Positioned implements IWhileCommand {
         public IExpression condition;
         public List<ICommand> commands;
 
@@ -1499,10 +1706,10 @@ public class AbsSyn {
         @Override
         public int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
             int conditionLocation = location;
-            location = condition.codeRValue(codeArray, location, env);
+            location = codeRValueOf(condition, codeArray, location, env);
             int jumpLocation = location++;
             for (ICommand command : commands) {
-                location = command.code(codeArray, location, env);
+                location = codeOf(command, codeArray, location, env);
             }
             codeArray.put(location++, new IInstructions.UncondJump(conditionLocation));
             int afterBodyLocation = location;
@@ -1515,10 +1722,11 @@ public class AbsSyn {
     public interface ICallCommand extends ICommand {
     }
 
-    public static class CallCommand implements ICallCommand {
+    public static class CallCommand extends Positioned implements ICallCommand {
         public String name;
         public List<IExpression> arguments;
         public List<String> globalInits;
+        public List<String> tailCallParameters = null; // parameters of the procedure if this is its last call of itself, set during code gen
 
         public CallCommand(String name, List<IExpression> arguments, List<String> globalInits) {
             this.name = name;
@@ -1528,7 +1736,7 @@ public class AbsSyn {
 
         @Override
         public ICommand check(Map<String, VariableSignature> parentScope) throws TypeError, ContextError {
-            if (!procedureMap.containsKey(name)) {
+            if (!procedureMap().containsKey(name)) {
                 throw new ContextError(String.format("Couldn't find procedure '%s'", name));
             }
 
@@ -1538,14 +1746,14 @@ public class AbsSyn {
             }
             arguments = newArgs;
 
-            var desiredArguments = procedureMap.get(name).arguments;
+            var desiredArguments = procedureMap().get(name).arguments;
             if (arguments.size() != desiredArguments.size())
                 throw new ContextError(name + ": expected " + desiredArguments.size() + " arguments. Found " + arguments.size());
 
             for (int i = 0; i < arguments.size(); i++) {
                 var actualType = arguments.get(i).getType(parentScope);
                 var desiredType = desiredArguments.get(i).getType();
-                if (desiredType != actualType)
+                if (!desiredType.equals(actualType))
                     throw new TypeError("CallCommand", actualType.toString(), desiredType.toString());
             }
 
@@ -1554,18 +1762,21 @@ public class AbsSyn {
 
         @Override
         public int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
-            ProcedureSignature signature = procedureMap.get(name);
+            ProcedureSignature signature = procedureMap().get(name);
+            if (tailCallParameters != null && canReuseFrame(signature, arguments, env)) {
+                return codeTailCall(signature, arguments, tailCallParameters, codeArray, location, env);
+            }
 
             for (int i = 0; i < arguments.size(); i++) {
                 var argument = arguments.get(i);
                 var param = signature.arguments.get(i);
                 if (param.getMechMode() == Mechmode.Attr.REF) {
-                    location = argument.codeLValue(codeArray, location, env);
+                    location = codeLValueOf(argument, codeArray, location, env);
                 } else {
                     if (param.getFlowMode() == Flowmode.Attr.OUT) {
                         codeArray.put(location++, new IInstructions.AllocBlock(param.getType().getSize()));
                     } else {
-                        location = argument.codeRValue(codeArray, location, env);
+                        location = codeRValueOf(argument, codeArray, location, env);
                     }
                 }
             }
@@ -1580,7 +1791,7 @@ public class AbsSyn {
     public interface IDebugInCommand extends ICommand {
     }
 
-    public static class DebugInCommand implements IDebugInCommand {
+    public static class DebugInCommand extends Positioned implements IDebugInCommand {
         public IExpression expression;
 
         public DebugInCommand(IExpression expression) {
@@ -1601,7 +1812,7 @@ public class AbsSyn {
 
         @Override
         public int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
-            location = expression.codeLValue(codeArray, location, env);
+            location = codeLValueOf(expression, codeArray, location, env);
             ICodeType type = expression.getType(env.getSymbolTable());
 
             if (type instanceof IntCodeType) {
@@ -1618,7 +1829,7 @@ public class AbsSyn {
     public interface IDebugOutCommand extends ICommand {
     }
 
-    public static class DebugOutCommand implements IDebugOutCommand {
+    public static class DebugOutCommand extends Positioned implements IDebugOutCommand {
         public IExpression expression;
 
         public DebugOutCommand(IExpression expression) {
@@ -1636,7 +1847,7 @@ public class AbsSyn {
 
         @Override
         public int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
-            location = expression.codeRValue(codeArray, location, env);
+            location = codeRValueOf(expression, codeArray, location, env);
             ICodeType type = expression.getType(env.getSymbolTable());
 
             if (type instanceof IntCodeType) {
@@ -1644,13 +1855,13 @@ public class AbsSyn {
             } else if (type instanceof BoolCodeType) {
                 codeArray.put(location++, new IInstructions.OutputBool(expression.toString()));
             } else if (type instanceof RecordCodeType) {
-                List<FieldDesc> fieldNames = getRecordFieldNames(type.getName());
-                for (int i = fieldNames.size() - 1; i >= 0; i--) {
-                    var fieldDesc = fieldNames.get(i);
-                    if (fieldDesc.isInt) {
-                        codeArray.put(location++, new IInstructions.OutputInt(fieldDesc.name));
+                List<RecordLayout.Field> leaves = ((RecordCodeType) type).getLayout().leaves;
+                for (int i = leaves.size() - 1; i >= 0; i--) {
+                    var leaf = leaves.get(i);
+                    if (leaf.type instanceof IntCodeType) {
+                        codeArray.put(location++, new IInstructions.OutputInt(leaf.name));
                     } else {
-                        codeArray.put(location++, new IInstructions.OutputBool(fieldDesc.name));
+                        codeArray.put(location++, new IInstructions.OutputBool(leaf.name));
                     }
                 }
             } else {
@@ -1661,28 +1872,6 @@ public class AbsSyn {
 
             return location;
         }
-
-        private static class FieldDesc {
-            public boolean isInt;
-            public String name;
-
-            public FieldDesc(boolean isInt, String name) {
-                this.isInt = isInt;
-                this.name = name;
-            }
-        }
-
-        private List<FieldDesc> getRecordFieldNames(String recordName) {
-            RecordSignature signature = recordMap.get(recordName);
-
-            return signature.fields.stream().flatMap(field -> {
-                if (field.type instanceof RecordCodeType) {
-                    return getRecordFieldNames(field.type.getName()).stream().peek(str -> str.name = field.name + "." + str.name);
-                } else {
-                    return Stream.of(new FieldDesc(field.type instanceof IntCodeType, field.name));
-                }
-            }).collect(Collectors.toList());
-        }
     }
 
     public interface IProgram extends IAbsSynNode  {
@@ -1697,6 +1886,7 @@ public class AbsSyn {
         public List<ICommand> commands;
 
         public Map<String, VariableSignature> symbolTable = null;
+        private Compilation compilation = null;
 
         public Program(String name, List<IProgramParameter> programParameters, List<IDeclaration> globalDeclarations, List<ICommand> commands) {
             this.name = name;
@@ -1707,8 +1897,16 @@ public class AbsSyn {
 
         @Override
         public IProgram check() throws TypeError, ContextError {
-            procedureMap = new HashMap<>();
-            recordMap = new HashMap<>();
+            compilation = new Compilation();
+            Compilation previous = Compilation.bind(compilation);
+            try {
+                return checkProgram();
+            } finally {
+                Compilation.bind(previous);
+            }
+        }
+
+        private IProgram checkProgram() throws TypeError, ContextError {
             symbolTable = new HashMap<>();
 
             List<IProgramParameter> newParams = new LinkedList<>();
@@ -1742,8 +1940,46 @@ public class AbsSyn {
             return symbolTable;
         }
 
+        /**
+         * The declarations of the checked program, for passes over it.
+         */
+        Compilation getCompilation() {
+            return compilation;
+        }
+
         @Override
         public int code(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
+            if (compilation == null) throw new IllegalStateException("Program " + name + " has not been checked");
+            Compilation previous = Compilation.bind(compilation);
+            try {
+                return codeProgram(codeArray, location, env);
+            } finally {
+                Compilation.bind(previous);
+            }
+        }
+
+        /**
+         * Marks the calls of the routine itself that are the last thing it does, they reuse its frame.
+         * For a function, that is an assignment of such a call to its return value.
+         */
+        private static void markTailCalls(List<ICommand> commands, String name, String returnName, List<String> parameters) {
+            if (commands.isEmpty()) return;
+            ICommand last = commands.get(commands.size() - 1);
+            if (last instanceof IfCommand) {
+                markTailCalls(((IfCommand) last).commands, name, returnName, parameters);
+                markTailCalls(((IfCommand) last).elseCommands, name, returnName, parameters);
+            } else if (last instanceof CallCommand && ((CallCommand) last).name.equals(name)) {
+                ((CallCommand) last).tailCallParameters = parameters;
+            } else if (last instanceof AssignmentCommand && returnName != null) {
+                AssignmentCommand assignment = (AssignmentCommand) last;
+                if (assignment.l instanceof StoreExpression && ((StoreExpression) assignment.l).name.equals(returnName)
+                        && assignment.r instanceof FunctionCallExpression && ((FunctionCallExpression) assignment.r).name.equals(name)) {
+                    assignment.tailCallParameters = parameters;
+                }
+            }
+        }
+
+        private int codeProgram(ICodeArray codeArray, int location, Environment env) throws CodeTooSmallError, ContextError, TypeError {
             if (!programParameters.isEmpty()) throw new RuntimeException("program params are not yet implemented");
 
             int globalStoreAddress = 0;
@@ -1769,14 +2005,14 @@ public class AbsSyn {
             }
 
             for (ICommand command : commands) {
-                location = command.code(codeArray, location, env);
+                location = codeOf(command, codeArray, location, env);
             }
             codeArray.put(location++, new IInstructions.Stop());
 
             for (IDeclaration declaration : globalDeclarations) {
                 if (declaration instanceof FunctionDeclaration) {
                     FunctionDeclaration declaration1 = (FunctionDeclaration) declaration;
-                    procedureMap.get(declaration1.name).address = location;
+                    procedureMap().get(declaration1.name).address = location;
 
                     int relAddress = 0;
 
@@ -1818,16 +2054,18 @@ public class AbsSyn {
                         localStoreOffset += storeSize;
                     }
 
-                    var localEnv = new Environment(declaration1.symbolTable);
-
+                    procedureMap().get(declaration1.name).bodyAddress = location;
+                    markTailCalls(declaration1.commands, declaration1.name, returnValue.getName(),
+                            declaration1.parameterList.stream().map(IParameter::getName).collect(Collectors.toList()));
+                    var localEnv = new Environment(declaration1.symbolTable, env.sourceMap);
 
                     for (ICommand command : declaration1.commands) {
-                        location = command.code(codeArray, location, localEnv);
+                        location = codeOf(command, codeArray, location, localEnv);
                     }
                     codeArray.put(location++, new IInstructions.Return(-relAddress));
                 } else if (declaration instanceof ProcedureDeclaration) {
                     ProcedureDeclaration declaration1 = (ProcedureDeclaration) declaration;
-                    procedureMap.get(declaration1.name).address = location;
+                    procedureMap().get(declaration1.name).address = location;
 
                     int relAddress = 0;
 
@@ -1862,17 +2100,20 @@ public class AbsSyn {
                         localStoreOffset += storeSize;
                     }
 
-                    var localEnv = new Environment(declaration1.symbolTable);
+                    procedureMap().get(declaration1.name).bodyAddress = location;
+                    markTailCalls(declaration1.commands, declaration1.name, null,
+                            declaration1.parameters.stream().map(IParameter::getName).collect(Collectors.toList()));
+                    var localEnv = new Environment(declaration1.symbolTable, env.sourceMap);
 
                     for (ICommand command : declaration1.commands) {
-                        location = command.code(codeArray, location, localEnv);
+                        location = codeOf(command, codeArray, location, localEnv);
                     }
                     codeArray.put(location++, new IInstructions.Return(-relAddress));
                 }
             }
 
             // replace placeholder function calls
-            for (Map.Entry<String, ProcedureSignature> signatureEntry : procedureMap.entrySet()) {
+            for (Map.Entry<String, ProcedureSignature> signatureEntry : procedureMap().entrySet()) {
                 for (Integer temporaryAddressLocation : signatureEntry.getValue().temporaryAddressLocations) {
                     codeArray.put(temporaryAddressLocation, new IInstructions.Call(signatureEntry.getValue().address));
                 }
@@ -0,0 +1,442 @@
+package ch.fhnw.cpib.parser;
+
+import ch.fhnw.cpib.checks.AccessMode;
+import ch.fhnw.cpib.checks.Compilation;
+import ch.fhnw.cpib.checks.Scope;
+import ch.fhnw.cpib.checks.VariableSignature;
+import ch.fhnw.cpib.checks.types.ICodeType;
+import ch.fhnw.cpib.exceptions.ContextError;
+import ch.fhnw.cpib.exceptions.TypeError;
+import ch.fhnw.cpib.lexer.tokens.*;
+import ch.fhnw.cpib.parser.AbsSyn.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes pure expressions that are evaluated more than once only the first time, into a temporary variable
+ * the later evaluations load, e.g. {@code rect.location.x} of a reference parameter or {@code (a.x - b.x)} in
+ * {@code (a.x - b.x) * (a.x - b.x)}.
+ * <p>
+ * Pure expressions (literals, variables, record fields and the operators) are hash-consed: equal ones get the same value number.
+ * Going through the commands in the order of their evaluation, a value stays available until a store to a variable
+ * it reads (or that may be a reference to one), a call, or the end of the branch or loop it was computed in.
+ * A value is only kept if the instructions saved pay for storing it.
+ * The temporaries are local variables of the routine, or global variables for the main program.
+ */
+public class CommonSubexpressionEliminator {
+
+    private static final String TEMPORARY_PREFIX = "$cse";
+    private static final int STORE_COST = 3; // Dup, the address and StoreRev
+    private static final int LOAD_COST = 2; // the address and Deref
+
+    /**
+     * The first evaluation of a value and the evaluations that can use it.
+     */
+    private static class Value {
+        final IExpression expression;
+        final Set<String> reads = new HashSet<>();
+        final List<IExpression> uses = new ArrayList<>();
+
+        Value(IExpression expression) {
+            this.expression = expression;
+        }
+    }
+
+    private final Map<String, VariableSignature> symbolTable;
+    private final Map<String, Integer> numbers = new HashMap<>(); // hash-consing of the pure expressions
+    private final Map<IExpression, Integer> numbered = new IdentityHashMap<>();
+    private final List<Value> values = new ArrayList<>();
+    private Map<Integer, Value> available = new HashMap<>();
+
+    private CommonSubexpressionEliminator(Map<String, VariableSignature> symbolTable) {
+        this.symbolTable = symbolTable;
+    }
+
+    public static void eliminate(AbsSyn.IProgram program) throws ContextError, TypeError {
+        Program p = (Program) program;
+        if (p.getCompilation() == null) throw new IllegalStateException("Program " + p.name + " has not been checked");
+        Compilation previous = Compilation.bind(p.getCompilation());
+        try {
+            List<IDeclaration> temporaries = new ArrayList<>();
+            eliminate(p.commands, p.getSymbolTable(), Scope.GLOBAL, temporaries);
+            for (IDeclaration declaration : p.globalDeclarations) {
+                if (declaration instanceof FunctionDeclaration) {
+                    FunctionDeclaration function = (FunctionDeclaration) declaration;
+                    eliminate(function.commands, function.symbolTable, Scope.LOCAL, function.localImports);
+                } else if (declaration instanceof ProcedureDeclaration) {
+                    ProcedureDeclaration procedure = (ProcedureDeclaration) declaration;
+                    eliminate(procedure.commands, procedure.symbolTable, Scope.LOCAL, procedure.localImports);
+                }
+            }
+            p.globalDeclarations.addAll(temporaries);
+        } finally {
+            Compilation.bind(previous);
+        }
+    }
+
+    /**
+     * Eliminates the common subexpressions of a body, declaring its temporaries into the symbol table and the list.
+     */
+    private static void eliminate(List<ICommand> commands, Map<String, VariableSignature> symbolTable,
+                                  Scope scope, List<? super TemporaryDeclaration> declarations) throws ContextError, TypeError {
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator(symbolTable);
+        eliminator.visitCommands(commands);
+
+        Map<IExpression, TemporaryExpression> replacements = new IdentityHashMap<>();
+        int temporaries = 0;
+        for (Value value : eliminator.values) {
+            int cost = eliminator.cost(value.expression);
+            if (value.uses.size() * (cost - LOAD_COST) <= STORE_COST) continue;
+
+            String name = TEMPORARY_PREFIX + temporaries++;
+            ICodeType type = value.expression.getType(symbolTable);
+            TemporaryDeclaration declaration = new TemporaryDeclaration(name, type);
+            symbolTable.put(name, declaration.getSignature(scope));
+            declarations.add(declaration);
+
+            replacements.put(value.expression, new TemporaryExpression(new StoreExpression(name, false), value.expression, true));
+            for (IExpression use : value.uses) {
+                replacements.put(use, new TemporaryExpression(new StoreExpression(name, false), use, false));
+            }
+        }
+        if (!replacements.isEmpty()) replaceInCommands(commands, replacements);
+    }
+
+    // Simulates the evaluation, to find the values and their uses
+
+    private void visitCommands(List<ICommand> commands) throws ContextError, TypeError {
+        for (ICommand command : commands) {
+            visitCommand(command);
+        }
+    }
+
+    private void visitCommand(ICommand command) throws ContextError, TypeError {
+        if (command instanceof AssignmentCommand) {
+            AssignmentCommand assignment = (AssignmentCommand) command;
+            visit(assignment.r);
+            kill(targetOf(assignment.l));
+        } else if (command instanceof DebugInCommand) {
+            kill(targetOf(((DebugInCommand) command).expression));
+        } else if (command instanceof DebugOutCommand) {
+            visit(((DebugOutCommand) command).expression);
+        } else if (command instanceof CallCommand) {
+            CallCommand call = (CallCommand) command;
+            visitArguments(Compilation.current().procedures.get(call.name).arguments, call.arguments);
+            available.clear(); // the procedure may store anywhere
+        } else if (command instanceof IfCommand) {
+            IfCommand ifCommand = (IfCommand) command;
+            visit(ifCommand.condition);
+            Map<Integer, Value> before = available;
+            available = new HashMap<>(before);
+            visitCommands(ifCommand.commands);
+            Map<Integer, Value> afterThen = available;
+            available = new HashMap<>(before);
+            visitCommands(ifCommand.elseCommands);
+            available = intersection(intersection(before, afterThen), available);
+        } else if (command instanceof WhileCommand) {
+            WhileCommand whileCommand = (WhileCommand) command;
+            // the condition is evaluated again after the body, which may have changed anything
+            available.clear();
+            visit(whileCommand.condition);
+            visitCommands(whileCommand.commands);
+            available.clear();
+        }
+    }
+
+    private void visitArguments(List<VariableSignature> parameters, List<IExpression> arguments) throws ContextError, TypeError {
+        for (int i = 0; i < arguments.size(); i++) {
+            VariableSignature parameter = parameters.get(i);
+            // a reference needs the variable, an out copy is not evaluated
+            if (parameter.getMechMode() != Mechmode.Attr.REF && parameter.getFlowMode() != Flowmode.Attr.OUT) {
+                visit(arguments.get(i));
+            }
+        }
+    }
+
+    private void visit(IExpression expression) throws ContextError, TypeError {
+        Integer number = number(expression);
+        if (number != null && isCandidate(expression)) {
+            Value value = available.get(number);
+            if (value != null) {
+                value.uses.add(expression);
+                return;
+            }
+        }
+
+        if (expression instanceof MonadicExpression) {
+            visit(((MonadicExpression) expression).expression);
+        } else if (expression instanceof MultiplicationDyadicExpression) {
+            visit(((MultiplicationDyadicExpression) expression).l);
+            visit(((MultiplicationDyadicExpression) expression).r);
+        } else if (expression instanceof AdditionDyadicExpression) {
+            visit(((AdditionDyadicExpression) expression).l);
+            visit(((AdditionDyadicExpression) expression).r);
+        } else if (expression instanceof RelativeDyadicExpression) {
+            visit(((RelativeDyadicExpression) expression).l);
+            visit(((RelativeDyadicExpression) expression).r);
+        } else if (expression instanceof BoolDyadicExpression) {
+            visit(((BoolDyadicExpression) expression).l);
+            // the right operand is not always evaluated, its values are not available after it
+            Map<Integer, Value> before = available;
+            available = new HashMap<>(before);
+            visit(((BoolDyadicExpression) expression).r);
+            available = intersection(before, available);
+        } else if (expression instanceof FunctionCallExpression) {
+            FunctionCallExpression call = (FunctionCallExpression) expression;
+            visitArguments(Compilation.current().procedures.get(call.name).arguments, call.arguments);
+            available.clear(); // the function may store anywhere, e.g. by calling procedures
+        } else if (expression instanceof RecordCallExpression) {
+            for (IExpression argument : ((RecordCallExpression) expression).arguments) {
+                visit(argument);
+            }
+        }
+
+        if (number != null && isCandidate(expression)) {
+            Value value = new Value(expression);
+            reads(expression, value.reads);
+            values.add(value);
+            available.put(number, value);
+        }
+    }
+
+    /**
+     * The values of the first map still available in the second one.
+     */
+    private static Map<Integer, Value> intersection(Map<Integer, Value> first, Map<Integer, Value> second) {
+        Map<Integer, Value> result = new HashMap<>();
+        for (Map.Entry<Integer, Value> entry : first.entrySet()) {
+            if (second.get(entry.getKey()) == entry.getValue()) result.put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Makes the values reading a variable that a store to the target may change unavailable.
+     */
+    private void kill(String target) {
+        if (target == null) {
+            available.clear();
+            return;
+        }
+        available.values().removeIf(value -> value.reads.stream().anyMatch(read -> mayAlias(read, target)));
+    }
+
+    private static String targetOf(IExpression lValue) {
+        if (lValue instanceof StoreExpression) return ((StoreExpression) lValue).name;
+        if (lValue instanceof RecordAccessExpression) return ((RecordAccessExpression) lValue).variableName;
+        return null;
+    }
+
+    /**
+     * Whether the two variables may be the same storage, a reference parameter may refer to any variable not local to the routine.
+     */
+    private boolean mayAlias(String a, String b) {
+        if (a.equals(b)) return true;
+        VariableSignature sa = symbolTable.get(a);
+        VariableSignature sb = symbolTable.get(b);
+        if (sa == null || sb == null) return true;
+        return isReference(sa) && !isLocalStorage(sb) || isReference(sb) && !isLocalStorage(sa);
+    }
+
+    private static boolean isReference(VariableSignature signature) {
+        return signature.getAccessMode() == AccessMode.INDIRECT;
+    }
+
+    private static boolean isLocalStorage(VariableSignature signature) {
+        return signature.getScope() == Scope.LOCAL && signature.getAccessMode() == AccessMode.DIRECT;
+    }
+
+    private static void reads(IExpression expression, Set<String> reads) {
+        if (expression instanceof StoreExpression) {
+            reads.add(((StoreExpression) expression).name);
+        } else if (expression instanceof RecordAccessExpression) {
+            reads.add(((RecordAccessExpression) expression).variableName);
+        } else if (expression instanceof MonadicExpression) {
+            reads(((MonadicExpression) expression).expression, reads);
+        } else if (expression instanceof MultiplicationDyadicExpression) {
+            reads(((MultiplicationDyadicExpression) expression).l, reads);
+            reads(((MultiplicationDyadicExpression) expression).r, reads);
+        } else if (expression instanceof AdditionDyadicExpression) {
+            reads(((AdditionDyadicExpression) expression).l, reads);
+            reads(((AdditionDyadicExpression) expression).r, reads);
+        } else if (expression instanceof RelativeDyadicExpression) {
+            reads(((RelativeDyadicExpression) expression).l, reads);
+            reads(((RelativeDyadicExpression) expression).r, reads);
+        } else if (expression instanceof BoolDyadicExpression) {
+            reads(((BoolDyadicExpression) expression).l, reads);
+            reads(((BoolDyadicExpression) expression).r, reads);
+        }
+    }
+
+    // Hash-consing
+
+    /**
+     * The value number of a pure expression, equal for equal expressions; null for an expression with effects or calls.
+     */
+    private Integer number(IExpression expression) {
+        if (numbered.containsKey(expression)) return numbered.get(expression);
+        String key = key(expression);
+        Integer number = key == null ? null : numbers.computeIfAbsent(key, k -> numbers.size());
+        numbered.put(expression, number);
+        return number;
+    }
+
+    private String key(IExpression expression) {
+        if (expression instanceof IntLiteralExpression) {
+            return "int " + ((IntLiteralExpression) expression).value;
+        }
+        if (expression instanceof BoolLiteralExpression) {
+            return "bool " + ((BoolLiteralExpression) expression).value;
+        }
+        if (expression instanceof StoreExpression) {
+            StoreExpression store = (StoreExpression) expression;
+            return store.init ? null : "var " + store.name;
+        }
+        if (expression instanceof RecordAccessExpression) {
+            RecordAccessExpression access = (RecordAccessExpression) expression;
+            return "field " + access.variableName + "." + String.join(".", access.fieldNames);
+        }
+        if (expression instanceof MonadicExpression) {
+            MonadicExpression monadic = (MonadicExpression) expression;
+            return key(monadic.operator.getClass().getSimpleName(), monadic.expression);
+        }
+        if (expression instanceof MultiplicationDyadicExpression) {
+            MultiplicationDyadicExpression dyadic = (MultiplicationDyadicExpression) expression;
+            return key(dyadic.operator.toString(), dyadic.l, dyadic.r);
+        }
+        if (expression instanceof AdditionDyadicExpression) {
+            AdditionDyadicExpression dyadic = (AdditionDyadicExpression) expression;
+            return key(dyadic.operator.toString(), dyadic.l, dyadic.r);
+        }
+        if (expression instanceof RelativeDyadicExpression) {
+            RelativeDyadicExpression dyadic = (RelativeDyadicExpression) expression;
+            return key(dyadic.operator.toString(), dyadic.l, dyadic.r);
+        }
+        if (expression instanceof BoolDyadicExpression) {
+            BoolDyadicExpression dyadic = (BoolDyadicExpression) expression;
+            return key(dyadic.operator.toString(), dyadic.l, dyadic.r);
+        }
+        return null;
+    }
+
+    private String key(String operator, IExpression... operands) {
+        StringBuilder key = new StringBuilder(operator);
+        for (IExpression operand : operands) {
+            Integer number = number(operand);
+            if (number == null) return null;
+            key.append(' ').append(number);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Whether keeping the value can be cheaper than evaluating it: a single word that takes more than loading it.
+     */
+    private boolean isCandidate(IExpression expression) throws ContextError, TypeError {
+        if (expression instanceof IntLiteralExpression || expression instanceof BoolLiteralExpression || expression instanceof StoreExpression) {
+            return false;
+        }
+        return cost(expression) > LOAD_COST && expression.getType(symbolTable).getSize() == 1;
+    }
+
+    /**
+     * The number of instructions the code generator emits for a pure expression, roughly.
+     */
+    private int cost(IExpression expression) {
+        if (expression instanceof StoreExpression) {
+            VariableSignature signature = symbolTable.get(((StoreExpression) expression).name);
+            return signature != null && isReference(signature) ? 3 : 2;
+        }
+        if (expression instanceof RecordAccessExpression) {
+            VariableSignature signature = symbolTable.get(((RecordAccessExpression) expression).variableName);
+            return signature != null && isReference(signature) ? 5 : 2;
+        }
+        if (expression instanceof MonadicExpression) {
+            MonadicExpression monadic = (MonadicExpression) expression;
+            return cost(monadic.expression) + (monadic.operator instanceof PosMonadicOperator ? 0 : 2);
+        }
+        if (expression instanceof MultiplicationDyadicExpression) {
+            return cost(((MultiplicationDyadicExpression) expression).l) + cost(((MultiplicationDyadicExpression) expression).r) + 1;
+        }
+        if (expression instanceof AdditionDyadicExpression) {
+            return cost(((AdditionDyadicExpression) expression).l) + cost(((AdditionDyadicExpression) expression).r) + 1;
+        }
+        if (expression instanceof RelativeDyadicExpression) {
+            return cost(((RelativeDyadicExpression) expression).l) + cost(((RelativeDyadicExpression) expression).r) + 1;
+        }
+        if (expression instanceof BoolDyadicExpression) {
+            return cost(((BoolDyadicExpression) expression).l) + cost(((BoolDyadicExpression) expression).r) + 3;
+        }
+        return 1;
+    }
+
+    // Replaces the evaluations of the kept values
+
+    private static void replaceInCommands(List<ICommand> commands, Map<IExpression, TemporaryExpression> replacements) {
+        for (ICommand command : commands) {
+            if (command instanceof AssignmentCommand) {
+                AssignmentCommand assignment = (AssignmentCommand) command;
+                assignment.r = replace(assignment.r, replacements);
+            } else if (command instanceof DebugOutCommand) {
+                DebugOutCommand debugOut = (DebugOutCommand) command;
+                debugOut.expression = replace(debugOut.expression, replacements);
+            } else if (command instanceof CallCommand) {
+                replaceInArguments(((CallCommand) command).arguments, replacements);
+            } else if (command instanceof IfCommand) {
+                IfCommand ifCommand = (IfCommand) command;
+                ifCommand.condition = replace(ifCommand.condition, replacements);
+                replaceInCommands(ifCommand.commands, replacements);
+                replaceInCommands(ifCommand.elseCommands, replacements);
+            } else if (command instanceof WhileCommand) {
+                WhileCommand whileCommand = (WhileCommand) command;
+                whileCommand.condition = replace(whileCommand.condition, replacements);
+                replaceInCommands(whileCommand.commands, replacements);
+            }
+        }
+    }
+
+    private static void replaceInArguments(List<IExpression> arguments, Map<IExpression, TemporaryExpression> replacements) {
+        // the arguments passed as references are not among the replaced ones
+        for (ListIterator<IExpression> it = arguments.listIterator(); it.hasNext(); ) {
+            it.set(replace(it.next(), replacements));
+        }
+    }
+
+    private static IExpression replace(IExpression expression, Map<IExpression, TemporaryExpression> replacements) {
+        TemporaryExpression replacement = replacements.get(expression);
+        if (replacement != null && !replacement.first) return replacement; // nothing of it is evaluated
+
+        if (expression instanceof MonadicExpression) {
+            MonadicExpression monadic = (MonadicExpression) expression;
+            monadic.expression = replace(monadic.expression, replacements);
+        } else if (expression instanceof MultiplicationDyadicExpression) {
+            MultiplicationDyadicExpression dyadic = (MultiplicationDyadicExpression) expression;
+            dyadic.l = replace(dyadic.l, replacements);
+            dyadic.r = replace(dyadic.r, replacements);
+        } else if (expression instanceof AdditionDyadicExpression) {
+            AdditionDyadicExpression dyadic = (AdditionDyadicExpression) expression;
+            dyadic.l = replace(dyadic.l, replacements);
+            dyadic.r = replace(dyadic.r, replacements);
+        } else if (expression instanceof RelativeDyadicExpression) {
+            RelativeDyadicExpression dyadic = (RelativeDyadicExpression) expression;
+            dyadic.l = replace(dyadic.l, replacements);
+            dyadic.r = replace(dyadic.r, replacements);
+        } else if (expression instanceof BoolDyadicExpression) {
+            BoolDyadicExpression dyadic = (BoolDyadicExpression) expression;
+            dyadic.l = replace(dyadic.l, replacements);
+            dyadic.r = replace(dyadic.r, replacements);
+        } else if (expression instanceof FunctionCallExpression) {
+            replaceInArguments(((FunctionCallExpression) expression).arguments, replacements);
+        } else if (expression instanceof RecordCallExpression) {
+            replaceInArguments(((RecordCallExpression) expression).arguments, replacements);
+        }
+        return replacement != null ? replacement : expression;
+    }
+}
@@ -1,10 +1,10 @@
 package ch.fhnw.cpib.parser;
 
 import ch.fhnw.cpib.lexer.tokens.*;
+import ch.fhnw.lederer.virtualmachineFS2015.SourcePosition;
 
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Objects;
 
 public class ConcSyn {
     interface IType {
@@ -130,10 +130,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.IProgramParameter> toAbsSyn() {
-            List<AbsSyn.IProgramParameter> list = new LinkedList<>();
-            list.add(progParam.toAbsSyn());
-            List<AbsSyn.IProgramParameter> next = optProgParamRepCommaProgParam.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.IProgramParameter> list = optProgParamRepCommaProgParam.toAbsSyn();
+            list.add(0, progParam.toAbsSyn());
             return list;
         }
     }
@@ -189,10 +187,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.IParameter> toAbsSyn() {
-            List<AbsSyn.IParameter> list = new LinkedList<>();
-            list.add(param.toAbsSyn());
-            List<AbsSyn.IParameter> next = optParamRepCommaParam.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.IParameter> list = optParamRepCommaParam.toAbsSyn();
+            list.add(0, param.toAbsSyn());
             return list;
         }
     }
@@ -242,10 +238,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.IGlobalImport> toAbsSyn() {
-            List<AbsSyn.IGlobalImport> list = new LinkedList<>();
-            list.add(globImp.toAbsSyn());
-            List<AbsSyn.IGlobalImport> next = globImps.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.IGlobalImport> list = globImps.toAbsSyn();
+            list.add(0, globImp.toAbsSyn());
             return list;
         }
     }
@@ -283,10 +277,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.IStorageDeclaration> toAbsSyn() {
-            List<AbsSyn.IStorageDeclaration> list = new LinkedList<>();
-            list.add(stoDecl.toAbsSyn());
-            List<AbsSyn.IStorageDeclaration> next = cpsStoDecl.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.IStorageDeclaration> list = cpsStoDecl.toAbsSyn();
+            list.add(0, stoDecl.toAbsSyn());
             return list;
         }
     }
@@ -324,10 +316,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.ITypedIdentifier> toAbsSyn() {
-            List<AbsSyn.ITypedIdentifier> list = new LinkedList<>();
-            list.add(typedIdent.toAbsSyn());
-            List<AbsSyn.ITypedIdentifier> next = cpsTypedIdent.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.ITypedIdentifier> list = cpsTypedIdent.toAbsSyn();
+            list.add(0, typedIdent.toAbsSyn());
             return list;
         }
     }
@@ -429,10 +419,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.IDeclaration> toAbsSyn() {
-            List<AbsSyn.IDeclaration> list = new LinkedList<>();
-            list.add(decl.toAbsSyn());
-            List<AbsSyn.IDeclaration> next = cpsDecl.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.IDeclaration> list = cpsDecl.toAbsSyn();
+            list.add(0, decl.toAbsSyn());
             return list;
         }
     }
@@ -470,10 +458,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.IExpression> toAbsSyn() {
-            List<AbsSyn.IExpression> list = new LinkedList<>();
-            list.add(expression.toAbsSyn());
-            List<AbsSyn.IExpression> next = optExprRepCommaExpr.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.IExpression> list = optExprRepCommaExpr.toAbsSyn();
+            list.add(0, expression.toAbsSyn());
             return list;
         }
     }
@@ -578,45 +564,57 @@ public class ConcSyn {
     interface ILiteralFactor extends IFactor {}
     static class LiteralFactor implements ILiteralFactor {
         Literal literal;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IExpression toAbsSyn() {
-            return switch (literal.attr) {
+            AbsSyn.IExpression expression = switch (literal.attr) {
                 case BOOL -> new AbsSyn.BoolLiteralExpression(literal.boolValue);
                 case NUMBER -> new AbsSyn.IntLiteralExpression(literal.numberValue);
             };
+            expression.setPosition(position);
+            return expression;
         }
     }
     interface IIdentFactor extends IFactor {}
     static class IdentFactor implements IIdentFactor {
         Identifier identifier;
         IOptInitOrExpressionListOrRecordAccess optInitOrExpressionListOrRecordAccess;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IExpression toAbsSyn() {
-            return optInitOrExpressionListOrRecordAccess.toAbsSyn(identifier.ident);
+            AbsSyn.IExpression expression = optInitOrExpressionListOrRecordAccess.toAbsSyn(identifier.ident);
+            expression.setPosition(position);
+            return expression;
         }
     }
     interface IMonadicFactor extends IFactor {}
     static class MonadicFactor implements IMonadicFactor {
         IMonadicOpr monadicOpr;
         IFactor factor;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IMonadicExpression toAbsSyn() {
-            return new AbsSyn.MonadicExpression(
+            AbsSyn.MonadicExpression expression = new AbsSyn.MonadicExpression(
                     monadicOpr.toAbsSyn(),
                     factor.toAbsSyn()
             );
+            expression.setPosition(position);
+            return expression;
         }
     }
     interface IExpressionFactor extends IFactor {}
     static class ExpressionFactor implements IExpressionFactor {
         IExpr expression;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IExpression toAbsSyn() {
-            return expression.toAbsSyn();
+            AbsSyn.IExpression abstractExpression = expression.toAbsSyn();
+            abstractExpression.setPosition(position); // including the parentheses
+            return abstractExpression;
         }
     }
 
@@ -630,20 +628,14 @@ public class ConcSyn {
 
         @Override
         public AbsSyn.IExpression toAbsSyn(AbsSyn.IExpression lastFactor) {
-            if (Objects.equals(repMultOprFactor.toAbsSyn(factor.toAbsSyn()), factor.toAbsSyn())) {
-                return new AbsSyn.MultiplicationDyadicExpression(
-                        multOpr.attr,
-                        lastFactor,
-                        factor.toAbsSyn()
-                );
-            } else {
-                var left = new AbsSyn.MultiplicationDyadicExpression(
-                        multOpr.attr,
-                        lastFactor,
-                        factor.toAbsSyn()
-                );
-                return repMultOprFactor.toAbsSyn(left);
-            }
+            var right = factor.toAbsSyn();
+            var left = new AbsSyn.MultiplicationDyadicExpression(
+                    multOpr.attr,
+                    lastFactor,
+                    right
+            );
+            left.setPosition(SourcePosition.join(lastFactor.getPosition(), right.getPosition()));
+            return repMultOprFactor.toAbsSyn(left);
         }
     }
     static class RepMultOprFactorEpsilon implements IRepMultOprFactor {
@@ -662,11 +654,7 @@ public class ConcSyn {
 
         @Override
         public AbsSyn.IExpression toAbsSyn() {
-            if (Objects.equals(repMultOprFactor.toAbsSyn(factor.toAbsSyn()), factor.toAbsSyn())) {
-                return factor.toAbsSyn();
-            } else {
-                return repMultOprFactor.toAbsSyn(factor.toAbsSyn());
-            }
+            return repMultOprFactor.toAbsSyn(factor.toAbsSyn());
         }
     }
 
@@ -680,20 +668,14 @@ public class ConcSyn {
 
         @Override
         public AbsSyn.IExpression toAbsSyn(AbsSyn.IExpression lastFactor) {
-            if (Objects.equals(repAddOprTerm3.toAbsSyn(term3.toAbsSyn()), term3.toAbsSyn())) {
-                return new AbsSyn.AdditionDyadicExpression(
-                        addOpr.attr,
-                        lastFactor,
-                        term3.toAbsSyn()
-                );
-            } else {
-                var left = new AbsSyn.AdditionDyadicExpression(
-                        addOpr.attr,
-                        lastFactor,
-                        term3.toAbsSyn()
-                );
-                return repAddOprTerm3.toAbsSyn(left);
-            }
+            var right = term3.toAbsSyn();
+            var left = new AbsSyn.AdditionDyadicExpression(
+                    addOpr.attr,
+                    lastFactor,
+                    right
+            );
+            left.setPosition(SourcePosition.join(lastFactor.getPosition(), right.getPosition()));
+            return repAddOprTerm3.toAbsSyn(left);
         }
     }
     static class RepAddOprTerm3Epsilon implements IRepAddOprTerm3 {
@@ -725,11 +707,14 @@ public class ConcSyn {
 
         @Override
         public AbsSyn.IExpression toAbsSyn(AbsSyn.IExpression lastFactor) {
-            return new AbsSyn.RelativeDyadicExpression(
+            var right = term2.toAbsSyn();
+            var expression = new AbsSyn.RelativeDyadicExpression(
                     relOpr.attr,
                     lastFactor,
-                    term2.toAbsSyn()
+                    right
             );
+            expression.setPosition(SourcePosition.join(lastFactor.getPosition(), right.getPosition()));
+            return expression;
         }
     }
     static class OptRelOprTerm2Epsilon implements IOptRelOprTerm2 {
@@ -763,20 +748,14 @@ public class ConcSyn {
 
         @Override
         public AbsSyn.IExpression toAbsSyn(AbsSyn.IExpression lastFactor) {
-            if (repBoolOprTerm1.toAbsSyn(term1.toAbsSyn()) == term1.toAbsSyn()) {
-                return new AbsSyn.BoolDyadicExpression(
-                        boolOpr.attr,
-                        lastFactor,
-                        term1.toAbsSyn()
-                );
-            } else {
-                var left = new AbsSyn.BoolDyadicExpression(
-                        boolOpr.attr,
-                        lastFactor,
-                        term1.toAbsSyn()
-                );
-                return repBoolOprTerm1.toAbsSyn(left);
-            }
+            var right = term1.toAbsSyn();
+            var left = new AbsSyn.BoolDyadicExpression(
+                    boolOpr.attr,
+                    lastFactor,
+                    right
+            );
+            left.setPosition(SourcePosition.join(lastFactor.getPosition(), right.getPosition()));
+            return repBoolOprTerm1.toAbsSyn(left);
         }
     }
     static class RepBoolOprTerm1Epsilon implements IRepBoolOprTerm1 {
@@ -826,10 +805,8 @@ public class ConcSyn {
 
         @Override
         public List<String> toAbsSyn() {
-            List<String> list = new LinkedList<>();
-            list.add(identifier.ident);
-            List<String> next = repCommaIdents.toAbsSyn();
-            list.addAll(next);
+            List<String> list = repCommaIdents.toAbsSyn();
+            list.add(0, identifier.ident);
             return list;
         }
     }
@@ -849,10 +826,8 @@ public class ConcSyn {
 
         @Override
         public List<String> toAbsSyn() {
-            List<String> list = new LinkedList<>();
-            list.add(identifier.ident);
-            List<String> next = repCommaIdents.toAbsSyn();
-            list.addAll(next);
+            List<String> list = repCommaIdents.toAbsSyn();
+            list.add(0, identifier.ident);
             return list;
         }
     }
@@ -879,13 +854,16 @@ public class ConcSyn {
     static class AssignmentCmd implements IAssignmentCmd {
         IExpr expr1;
         IExpr expr2;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IAssignmentCommand toAbsSyn() {
-            return new AbsSyn.AssignmentCommand(
+            AbsSyn.AssignmentCommand command = new AbsSyn.AssignmentCommand(
                     expr1.toAbsSyn(),
                     expr2.toAbsSyn()
             );
+            command.setPosition(position);
+            return command;
         }
     }
     interface IIfCmd extends ICmd {
@@ -896,14 +874,17 @@ public class ConcSyn {
         IExpr conditionExpr;
         ICpsCmd cpsCmd;
         IOptElseCpsCmd optElseCpsCmd;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IIfCommand toAbsSyn() {
-            return new AbsSyn.IfCommand(
+            AbsSyn.IfCommand command = new AbsSyn.IfCommand(
                     conditionExpr.toAbsSyn(),
                     cpsCmd.toAbsSyn(),
                     optElseCpsCmd.toAbsSyn()
             );
+            command.setPosition(position);
+            return command;
         }
     }
     interface IWhileCmd extends ICmd {
@@ -913,13 +894,16 @@ public class ConcSyn {
     static class WhileCmd implements IWhileCmd {
         IExpr conditionExpr;
         ICpsCmd cpsCmd;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IWhileCommand toAbsSyn() {
-            return new AbsSyn.WhileCommand(
+            AbsSyn.WhileCommand command = new AbsSyn.WhileCommand(
                     conditionExpr.toAbsSyn(),
                     cpsCmd.toAbsSyn()
             );
+            command.setPosition(position);
+            return command;
         }
     }
     interface ICallCmd extends ICmd {
@@ -930,14 +914,17 @@ public class ConcSyn {
         Identifier identifier;
         IExprList exprList;
         IOptGlobInits optGlobInits;
+        SourcePosition position;
 
         @Override
         public AbsSyn.ICallCommand toAbsSyn() {
-            return new AbsSyn.CallCommand(
+            AbsSyn.CallCommand command = new AbsSyn.CallCommand(
                     identifier.ident,
                     exprList.toAbsSyn(),
                     optGlobInits.toAbsSyn()
             );
+            command.setPosition(position);
+            return command;
         }
     }
     interface IDebugInCmd extends ICmd {
@@ -946,10 +933,13 @@ public class ConcSyn {
     }
     static class DebugInCmd implements IDebugInCmd {
         IExpr expr;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IDebugInCommand toAbsSyn() {
-            return new AbsSyn.DebugInCommand(expr.toAbsSyn());
+            AbsSyn.DebugInCommand command = new AbsSyn.DebugInCommand(expr.toAbsSyn());
+            command.setPosition(position);
+            return command;
         }
     }
     interface IDebugOutCmd extends ICmd {
@@ -958,10 +948,13 @@ public class ConcSyn {
     }
     static class DebugOutCmd implements IDebugOutCmd {
         IExpr expr;
+        SourcePosition position;
 
         @Override
         public AbsSyn.IDebugOutCommand toAbsSyn() {
-            return new AbsSyn.DebugOutCommand(expr.toAbsSyn());
+            AbsSyn.DebugOutCommand command = new AbsSyn.DebugOutCommand(expr.toAbsSyn());
+            command.setPosition(position);
+            return command;
         }
     }
 
@@ -974,10 +967,8 @@ public class ConcSyn {
 
         @Override
         public List<AbsSyn.ICommand> toAbsSyn() {
-            List<AbsSyn.ICommand> list = new LinkedList<>();
-            list.add(cmd.toAbsSyn());
-            List<AbsSyn.ICommand> next = cpsCmd.toAbsSyn();
-            list.addAll(next);
+            List<AbsSyn.ICommand> list = cpsCmd.toAbsSyn();
+            list.add(0, cmd.toAbsSyn());
             return list;
         }
     }
@@ -0,0 +1,409 @@
+package ch.fhnw.cpib.parser;
+
+import ch.fhnw.cpib.checks.Compilation;
+import ch.fhnw.cpib.checks.VariableSignature;
+import ch.fhnw.cpib.checks.types.BoolCodeType;
+import ch.fhnw.cpib.checks.types.IntCodeType;
+import ch.fhnw.cpib.lexer.tokens.*;
+import ch.fhnw.cpib.parser.AbsSyn.*;
+import ch.fhnw.lederer.virtualmachineFS2015.SourcePosition;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+
+/**
+ * Evaluates the parts of a checked program that do not depend on its run:
+ * <ul>
+ *     <li>operators applied to literals, with the integer arithmetic of the VM,</li>
+ *     <li>the neutral elements {@code x + 0}, {@code x - 0}, {@code x * 1}, {@code x divT 1}, {@code x cand true} and {@code x cor false},</li>
+ *     <li>{@code cand} and {@code cor} with a literal on the left,</li>
+ *     <li>uses of {@code const} variables that are initialized once, by a literal and outside of any if or while.</li>
+ * </ul>
+ * Constant global variables are also propagated into the routines importing them,
+ * if they are initialized before the main program calls any routine.
+ * A division or remainder by the literal 0 is left to fail at run time, as it may never run, and reported as a warning.
+ * The operator of an expression that is not an int or bool literal (e.g. {@code divE}) is left to the code generator.
+ */
+public class ConstantFolder {
+
+    private final Map<String, VariableSignature> symbolTable;
+    private final Map<String, Integer> assignments;
+    private final Map<String, IExpression> constants; // variable -> its literal value
+    private final List<String> warnings;
+
+    private ConstantFolder(Map<String, VariableSignature> symbolTable, Map<String, Integer> assignments,
+                           Map<String, IExpression> constants, List<String> warnings) {
+        this.symbolTable = symbolTable;
+        this.assignments = assignments;
+        this.constants = constants;
+        this.warnings = warnings;
+    }
+
+    /**
+     * Folds the commands of the program and its routines in place and returns the warnings, e.g. "Division by zero at line 7, column 10".
+     */
+    public static List<String> fold(AbsSyn.IProgram program) {
+        Program p = (Program) program;
+        if (p.getCompilation() == null) throw new IllegalStateException("Program " + p.name + " has not been checked");
+        Compilation previous = Compilation.bind(p.getCompilation());
+        try {
+            List<String> warnings = new ArrayList<>();
+            foldProgram(p, warnings);
+            return warnings;
+        } finally {
+            Compilation.bind(previous);
+        }
+    }
+
+    private static void foldProgram(Program p, List<String> warnings) {
+
+        Map<String, Integer> globalAssignments = new HashMap<>();
+        countAssignments(p.commands, globalAssignments);
+        for (IDeclaration declaration : p.globalDeclarations) {
+            if (declaration instanceof FunctionDeclaration) {
+                countAssignments(((FunctionDeclaration) declaration).commands, globalAssignments);
+            } else if (declaration instanceof ProcedureDeclaration) {
+                countAssignments(((ProcedureDeclaration) declaration).commands, globalAssignments);
+            }
+        }
+
+        // the constants known before the first call are known in every routine
+        ConstantFolder main = new ConstantFolder(p.getSymbolTable(), globalAssignments, new HashMap<>(), warnings);
+        Map<String, IExpression> beforeFirstCall = null;
+        for (ICommand command : p.commands) {
+            if (beforeFirstCall == null && containsCall(command)) {
+                beforeFirstCall = new HashMap<>(main.constants);
+            }
+            main.foldCommand(command);
+            main.learn(command);
+        }
+        if (beforeFirstCall == null) beforeFirstCall = main.constants;
+
+        for (IDeclaration declaration : p.globalDeclarations) {
+            if (declaration instanceof FunctionDeclaration) {
+                FunctionDeclaration function = (FunctionDeclaration) declaration;
+                foldRoutine(function.commands, function.globalImports, function.symbolTable, beforeFirstCall, warnings);
+            } else if (declaration instanceof ProcedureDeclaration) {
+                ProcedureDeclaration procedure = (ProcedureDeclaration) declaration;
+                foldRoutine(procedure.commands, procedure.globalImports, procedure.symbolTable, beforeFirstCall, warnings);
+            }
+        }
+    }
+
+    private static void foldRoutine(List<ICommand> commands, List<IGlobalImport> globalImports,
+                                    Map<String, VariableSignature> symbolTable, Map<String, IExpression> globalConstants,
+                                    List<String> warnings) {
+        Map<String, IExpression> constants = new HashMap<>();
+        for (IGlobalImport globalImport : globalImports) {
+            IExpression value = globalConstants.get(globalImport.getName());
+            if (value != null) constants.put(globalImport.getName(), value);
+        }
+        Map<String, Integer> assignments = new HashMap<>();
+        countAssignments(commands, assignments);
+
+        ConstantFolder folder = new ConstantFolder(symbolTable, assignments, constants, warnings);
+        for (ICommand command : commands) {
+            folder.foldCommand(command);
+            folder.learn(command);
+        }
+    }
+
+    /**
+     * Remembers the value of a constant initialized by the command, a top level command of the body.
+     */
+    private void learn(ICommand command) {
+        if (!(command instanceof AssignmentCommand)) return;
+        AssignmentCommand assignment = (AssignmentCommand) command;
+        if (!(assignment.l instanceof StoreExpression) || !isLiteral(assignment.r)) return;
+
+        String name = ((StoreExpression) assignment.l).name;
+        VariableSignature signature = symbolTable.get(name);
+        if (signature != null && signature.getChangeMode() == Changemode.Attr.CONST
+                && (signature.getType() instanceof IntCodeType || signature.getType() instanceof BoolCodeType)
+                && assignments.getOrDefault(name, 0) == 1) {
+            constants.put(name, assignment.r);
+        }
+    }
+
+    /**
+     * Folds the expressions of the command in place.
+     */
+    private void foldCommand(ICommand command) {
+        if (command instanceof AssignmentCommand) {
+            AssignmentCommand assignment = (AssignmentCommand) command;
+            assignment.r = foldExpression(assignment.r);
+        } else if (command instanceof IfCommand) {
+            IfCommand ifCommand = (IfCommand) command;
+            ifCommand.condition = foldExpression(ifCommand.condition);
+            foldCommands(ifCommand.commands);
+            foldCommands(ifCommand.elseCommands);
+        } else if (command instanceof WhileCommand) {
+            WhileCommand whileCommand = (WhileCommand) command;
+            whileCommand.condition = foldExpression(whileCommand.condition);
+            foldCommands(whileCommand.commands);
+        } else if (command instanceof CallCommand) {
+            CallCommand call = (CallCommand) command;
+            foldArguments(Compilation.current().procedures.get(call.name).arguments, call.arguments);
+        } else if (command instanceof DebugOutCommand) {
+            // the expression stays, its text is the indicator of the output
+            foldOperands(((DebugOutCommand) command).expression);
+        }
+    }
+
+    private void foldCommands(List<ICommand> commands) {
+        for (ICommand command : commands) {
+            foldCommand(command);
+        }
+    }
+
+    private void foldArguments(List<VariableSignature> parameters, List<IExpression> arguments) {
+        ListIterator<IExpression> it = arguments.listIterator();
+        for (VariableSignature parameter : parameters) {
+            IExpression argument = it.next();
+            if (parameter.getMechMode() != Mechmode.Attr.REF) { // a reference needs the variable
+                it.set(foldExpression(argument));
+            }
+        }
+    }
+
+    private IExpression foldExpression(IExpression expression) {
+        foldOperands(expression);
+        return evaluate(expression);
+    }
+
+    private void foldOperands(IExpression expression) {
+        if (expression instanceof MonadicExpression) {
+            MonadicExpression monadic = (MonadicExpression) expression;
+            monadic.expression = foldExpression(monadic.expression);
+        } else if (expression instanceof MultiplicationDyadicExpression) {
+            MultiplicationDyadicExpression dyadic = (MultiplicationDyadicExpression) expression;
+            dyadic.l = foldExpression(dyadic.l);
+            dyadic.r = foldExpression(dyadic.r);
+            Integer r = intValue(dyadic.r);
+            if (r != null && r == 0 && (dyadic.operator == MultOpr.Attr.DIV_T || dyadic.operator == MultOpr.Attr.MOD_T)) {
+                warnings.add("Division by zero" + at(dyadic.getPosition())); // left to the run time, it may never run
+            }
+        } else if (expression instanceof AdditionDyadicExpression) {
+            AdditionDyadicExpression dyadic = (AdditionDyadicExpression) expression;
+            dyadic.l = foldExpression(dyadic.l);
+            dyadic.r = foldExpression(dyadic.r);
+        } else if (expression instanceof RelativeDyadicExpression) {
+            RelativeDyadicExpression dyadic = (RelativeDyadicExpression) expression;
+            dyadic.l = foldExpression(dyadic.l);
+            dyadic.r = foldExpression(dyadic.r);
+        } else if (expression instanceof BoolDyadicExpression) {
+            BoolDyadicExpression dyadic = (BoolDyadicExpression) expression;
+            dyadic.l = foldExpression(dyadic.l);
+            dyadic.r = foldExpression(dyadic.r);
+        } else if (expression instanceof FunctionCallExpression) {
+            FunctionCallExpression call = (FunctionCallExpression) expression;
+            foldArguments(Compilation.current().procedures.get(call.name).arguments, call.arguments);
+        } else if (expression instanceof RecordCallExpression) {
+            for (ListIterator<IExpression> it = ((RecordCallExpression) expression).arguments.listIterator(); it.hasNext(); ) {
+                it.set(foldExpression(it.next()));
+            }
+        }
+    }
+
+    /**
+     * The expression, or a simpler one of the same value, given that its operands are folded.
+     */
+    private IExpression evaluate(IExpression expression) {
+        SourcePosition position = expression.getPosition();
+
+        if (expression instanceof StoreExpression) {
+            StoreExpression store = (StoreExpression) expression;
+            IExpression value = store.init ? null : constants.get(store.name);
+            return value != null ? literal(value, position) : expression;
+        }
+        if (expression instanceof MonadicExpression) {
+            MonadicExpression monadic = (MonadicExpression) expression;
+            if (monadic.operator instanceof PosMonadicOperator) {
+                return monadic.expression;
+            }
+            if (monadic.operator instanceof NegMonadicOperator && intValue(monadic.expression) != null) {
+                return intLiteral(-intValue(monadic.expression), position);
+            }
+            if (monadic.operator instanceof NotMonadicOperator && monadic.expression instanceof BoolLiteralExpression) {
+                return boolLiteral(!((BoolLiteralExpression) monadic.expression).value, position);
+            }
+            return expression;
+        }
+        if (expression instanceof MultiplicationDyadicExpression) {
+            MultiplicationDyadicExpression dyadic = (MultiplicationDyadicExpression) expression;
+            Integer l = intValue(dyadic.l);
+            Integer r = intValue(dyadic.r);
+            if (l != null && r != null && (r != 0 || dyadic.operator == MultOpr.Attr.TIMES)) {
+                return switch (dyadic.operator) {
+                    case TIMES -> intLiteral(l * r, position);
+                    case DIV_T -> intLiteral(l / r, position);
+                    case MOD_T -> intLiteral(l % r, position);
+                    default -> expression;
+                };
+            }
+            if (r != null && r == 1 && (dyadic.operator == MultOpr.Attr.TIMES || dyadic.operator == MultOpr.Attr.DIV_T)) return dyadic.l;
+            if (l != null && l == 1 && dyadic.operator == MultOpr.Attr.TIMES) return dyadic.r;
+            return expression;
+        }
+        if (expression instanceof AdditionDyadicExpression) {
+            AdditionDyadicExpression dyadic = (AdditionDyadicExpression) expression;
+            Integer l = intValue(dyadic.l);
+            Integer r = intValue(dyadic.r);
+            boolean plus = dyadic.operator == AddOpr.Attr.PLUS;
+            if (l != null && r != null) return intLiteral(plus ? l + r : l - r, position);
+            if (r != null && r == 0) return dyadic.l;
+            if (l != null && l == 0 && plus) return dyadic.r;
+            return expression;
+        }
+        if (expression instanceof RelativeDyadicExpression) {
+            RelativeDyadicExpression dyadic = (RelativeDyadicExpression) expression;
+            Integer l = intValue(dyadic.l);
+            Integer r = intValue(dyadic.r);
+            if (l == null || r == null) return expression;
+            return boolLiteral(switch (dyadic.operator) {
+                case EQ -> l.intValue() == r.intValue();
+                case NE -> l.intValue() != r.intValue();
+                case GT -> l > r;
+                case LT -> l < r;
+                case GE -> l >= r;
+                case LE -> l <= r;
+            }, position);
+        }
+        if (expression instanceof BoolDyadicExpression) {
+            BoolDyadicExpression dyadic = (BoolDyadicExpression) expression;
+            boolean and = dyadic.operator == BoolOpr.Attr.CAND;
+            if (dyadic.l instanceof BoolLiteralExpression) {
+                // the right operand is only evaluated if the left one does not decide
+                return ((BoolLiteralExpression) dyadic.l).value == and ? dyadic.r : boolLiteral(!and, position);
+            }
+            if (dyadic.r instanceof BoolLiteralExpression && ((BoolLiteralExpression) dyadic.r).value == and) {
+                return dyadic.l;
+            }
+            return expression;
+        }
+        return expression;
+    }
+
+    /**
+     * The value of an int literal that fits the VM, null for any other expression.
+     */
+    private static Integer intValue(IExpression expression) {
+        if (!(expression instanceof IntLiteralExpression)) return null;
+        try {
+            return Integer.parseInt(((IntLiteralExpression) expression).value);
+        } catch (NumberFormatException e) {
+            return null; // left to the code generator
+        }
+    }
+
+    private static boolean isLiteral(IExpression expression) {
+        return intValue(expression) != null || expression instanceof BoolLiteralExpression;
+    }
+
+    private static IExpression intLiteral(int value, SourcePosition position) {
+        IExpression literal = new IntLiteralExpression(Integer.toString(value));
+        literal.setPosition(position);
+        return literal;
+    }
+
+    private static IExpression boolLiteral(boolean value, SourcePosition position) {
+        IExpression literal = new BoolLiteralExpression(value);
+        literal.setPosition(position);
+        return literal;
+    }
+
+    /**
+     * A copy of the literal, at the position of the use.
+     */
+    private static IExpression literal(IExpression value, SourcePosition position) {
+        if (value instanceof BoolLiteralExpression) {
+            return boolLiteral(((BoolLiteralExpression) value).value, position);
+        }
+        return intLiteral(intValue(value), position);
+    }
+
+    private static String at(SourcePosition position) {
+        return position != null ? " at line " + position.line + ", column " + position.column : "";
+    }
+
+    /**
+     * Counts the assignments to each variable name, including input and passing as a reference.
+     */
+    private static void countAssignments(List<ICommand> commands, Map<String, Integer> assignments) {
+        for (ICommand command : commands) {
+            if (command instanceof AssignmentCommand) {
+                count(((AssignmentCommand) command).l, assignments);
+            } else if (command instanceof DebugInCommand) {
+                count(((DebugInCommand) command).expression, assignments);
+            } else if (command instanceof IfCommand) {
+                countAssignments(((IfCommand) command).commands, assignments);
+                countAssignments(((IfCommand) command).elseCommands, assignments);
+            } else if (command instanceof WhileCommand) {
+                countAssignments(((WhileCommand) command).commands, assignments);
+            } else if (command instanceof CallCommand) {
+                for (IExpression argument : ((CallCommand) command).arguments) {
+                    count(argument, assignments); // whether or not it is passed as a reference
+                }
+            }
+        }
+    }
+
+    private static void count(IExpression target, Map<String, Integer> assignments) {
+        if (target instanceof StoreExpression) {
+            assignments.merge(((StoreExpression) target).name, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Whether a routine is called by the command, the routines may use the constants known so far.
+     */
+    private static boolean containsCall(ICommand command) {
+        if (command instanceof CallCommand) return true;
+        if (command instanceof AssignmentCommand) {
+            return containsCall(((AssignmentCommand) command).l) || containsCall(((AssignmentCommand) command).r);
+        }
+        if (command instanceof IfCommand) {
+            IfCommand ifCommand = (IfCommand) command;
+            return containsCall(ifCommand.condition) || containsAnyCall(ifCommand.commands) || containsAnyCall(ifCommand.elseCommands);
+        }
+        if (command instanceof WhileCommand) {
+            return containsCall(((WhileCommand) command).condition) || containsAnyCall(((WhileCommand) command).commands);
+        }
+        if (command instanceof DebugOutCommand) return containsCall(((DebugOutCommand) command).expression);
+        return false;
+    }
+
+    private static boolean containsAnyCall(List<ICommand> commands) {
+        for (ICommand command : commands) {
+            if (containsCall(command)) return true;
+        }
+        return false;
+    }
+
+    private static boolean containsCall(IExpression expression) {
+        if (expression instanceof FunctionCallExpression) return true;
+        if (expression instanceof RecordCallExpression) {
+            for (IExpression argument : ((RecordCallExpression) expression).arguments) {
+                if (containsCall(argument)) return true;
+            }
+            return false;
+        }
+        if (expression instanceof MonadicExpression) return containsCall(((MonadicExpression) expression).expression);
+        if (expression instanceof MultiplicationDyadicExpression) {
+            return containsCall(((MultiplicationDyadicExpression) expression).l) || containsCall(((MultiplicationDyadicExpression) expression).r);
+        }
+        if (expression instanceof AdditionDyadicExpression) {
+            return containsCall(((AdditionDyadicExpression) expression).l) || containsCall(((AdditionDyadicExpression) expression).r);
+        }
+        if (expression instanceof RelativeDyadicExpression) {
+            return containsCall(((RelativeDyadicExpression) expression).l) || containsCall(((RelativeDyadicExpression) expression).r);
+        }
+        if (expression instanceof BoolDyadicExpression) {
+            return containsCall(((BoolDyadicExpression) expression).l) || containsCall(((BoolDyadicExpression) expression).r);
+        }
+        return false;
+    }
+}
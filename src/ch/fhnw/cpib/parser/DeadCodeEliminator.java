@@ -0,0 +1,136 @@
+package ch.fhnw.cpib.parser;
+
+import ch.fhnw.cpib.parser.AbsSyn.*;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Removes the parts of a checked program that can never run, so no code is generated for them:
+ * <ul>
+ *     <li>the branch of an if with a literal condition that is not taken, the other branch takes the place of the if,</li>
+ *     <li>while loops with the literal condition false,</li>
+ *     <li>functions and procedures that are not reachable by calls from the main program.</li>
+ * </ul>
+ * Conditions only become literals by the {@link ConstantFolder}, so it runs before.
+ */
+public class DeadCodeEliminator {
+
+    private DeadCodeEliminator() {}
+
+    public static void eliminate(AbsSyn.IProgram program) {
+        Program p = (Program) program;
+
+        p.commands = prune(p.commands);
+        Map<String, List<ICommand>> bodies = new HashMap<>();
+        for (IDeclaration declaration : p.globalDeclarations) {
+            if (declaration instanceof FunctionDeclaration) {
+                FunctionDeclaration function = (FunctionDeclaration) declaration;
+                function.commands = prune(function.commands);
+                bodies.put(function.name, function.commands);
+            } else if (declaration instanceof ProcedureDeclaration) {
+                ProcedureDeclaration procedure = (ProcedureDeclaration) declaration;
+                procedure.commands = prune(procedure.commands);
+                bodies.put(procedure.name, procedure.commands);
+            }
+        }
+
+        // the routines called from the main program, directly or through other routines
+        Set<String> reachable = new HashSet<>();
+        Deque<List<ICommand>> pending = new ArrayDeque<>();
+        pending.push(p.commands);
+        while (!pending.isEmpty()) {
+            Set<String> called = new HashSet<>();
+            collectCalls(pending.pop(), called);
+            for (String name : called) {
+                if (bodies.containsKey(name) && reachable.add(name)) pending.push(bodies.get(name));
+            }
+        }
+
+        p.globalDeclarations.removeIf(declaration ->
+                declaration instanceof FunctionDeclaration && !reachable.contains(((FunctionDeclaration) declaration).name)
+                || declaration instanceof ProcedureDeclaration && !reachable.contains(((ProcedureDeclaration) declaration).name));
+    }
+
+    /**
+     * The commands without the branches and loops that never run.
+     */
+    private static List<ICommand> prune(List<ICommand> commands) {
+        List<ICommand> result = new LinkedList<>();
+        for (ICommand command : commands) {
+            if (command instanceof IfCommand) {
+                IfCommand ifCommand = (IfCommand) command;
+                ifCommand.commands = prune(ifCommand.commands);
+                ifCommand.elseCommands = prune(ifCommand.elseCommands);
+                if (ifCommand.condition instanceof BoolLiteralExpression) {
+                    result.addAll(((BoolLiteralExpression) ifCommand.condition).value ? ifCommand.commands : ifCommand.elseCommands);
+                    continue;
+                }
+            } else if (command instanceof WhileCommand) {
+                WhileCommand whileCommand = (WhileCommand) command;
+                whileCommand.commands = prune(whileCommand.commands);
+                if (whileCommand.condition instanceof BoolLiteralExpression && !((BoolLiteralExpression) whileCommand.condition).value) {
+                    continue;
+                }
+            }
+            result.add(command);
+        }
+        return result;
+    }
+
+    private static void collectCalls(List<ICommand> commands, Set<String> called) {
+        for (ICommand command : commands) {
+            if (command instanceof CallCommand) {
+                called.add(((CallCommand) command).name);
+                collectCalls(((CallCommand) command).arguments, called);
+            } else if (command instanceof AssignmentCommand) {
+                collectCalls(((AssignmentCommand) command).l, called);
+                collectCalls(((AssignmentCommand) command).r, called);
+            } else if (command instanceof IfCommand) {
+                collectCalls(((IfCommand) command).condition, called);
+                collectCalls(((IfCommand) command).commands, called);
+                collectCalls(((IfCommand) command).elseCommands, called);
+            } else if (command instanceof WhileCommand) {
+                collectCalls(((WhileCommand) command).condition, called);
+                collectCalls(((WhileCommand) command).commands, called);
+            } else if (command instanceof DebugOutCommand) {
+                collectCalls(((DebugOutCommand) command).expression, called);
+            }
+        }
+    }
+
+    private static void collectCalls(Iterable<IExpression> expressions, Set<String> called) {
+        for (IExpression expression : expressions) {
+            collectCalls(expression, called);
+        }
+    }
+
+    private static void collectCalls(IExpression expression, Set<String> called) {
+        if (expression instanceof FunctionCallExpression) {
+            called.add(((FunctionCallExpression) expression).name);
+            collectCalls(((FunctionCallExpression) expression).arguments, called);
+        } else if (expression instanceof RecordCallExpression) {
+            collectCalls(((RecordCallExpression) expression).arguments, called);
+        } else if (expression instanceof MonadicExpression) {
+            collectCalls(((MonadicExpression) expression).expression, called);
+        } else if (expression instanceof MultiplicationDyadicExpression) {
+            collectCalls(((MultiplicationDyadicExpression) expression).l, called);
+            collectCalls(((MultiplicationDyadicExpression) expression).r, called);
+        } else if (expression instanceof AdditionDyadicExpression) {
+            collectCalls(((AdditionDyadicExpression) expression).l, called);
+            collectCalls(((AdditionDyadicExpression) expression).r, called);
+        } else if (expression instanceof RelativeDyadicExpression) {
+            collectCalls(((RelativeDyadicExpression) expression).l, called);
+            collectCalls(((RelativeDyadicExpression) expression).r, called);
+        } else if (expression instanceof BoolDyadicExpression) {
+            collectCalls(((BoolDyadicExpression) expression).l, called);
+            collectCalls(((BoolDyadicExpression) expression).r, called);
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package ch.fhnw.cpib.parser;
 
 import ch.fhnw.cpib.exceptions.GrammarError;
+import ch.fhnw.cpib.exceptions.LexicalError;
 
 public interface IParser {
 
-    ConcSyn.IProgram parse() throws GrammarError;
+    ConcSyn.IProgram parse() throws GrammarError, LexicalError;
 }
@@ -1,37 +1,63 @@
 package ch.fhnw.cpib.parser;
 
 import ch.fhnw.cpib.exceptions.GrammarError;
+import ch.fhnw.cpib.exceptions.LexicalError;
 import ch.fhnw.cpib.lexer.ITokenList;
+import ch.fhnw.cpib.lexer.ITokenStream;
 import ch.fhnw.cpib.lexer.tokens.*;
+import ch.fhnw.lederer.virtualmachineFS2015.SourcePosition;
 
-import java.util.Iterator;
 import java.util.List;
 
 public class Parser implements IParser {
 
-    private final Iterator<Token> iterator;
+    private final ITokenStream tokens;
     private Token token;
+    private int previousEnd = 0; // offset after the token consumed last
 
     public Parser(ITokenList tokens) {
-        iterator = tokens.iterator();
-        token = iterator.next();
+        this(tokens.stream());
     }
 
-    private Token consume(Terminal expectedTerminal) throws GrammarError {
+    /**
+     * Pulls the tokens only as they are consumed, e.g. directly from a {@link ch.fhnw.cpib.lexer.Scanner}.
+     */
+    public Parser(ITokenStream tokens) {
+        this.tokens = tokens;
+    }
+
+    private Token consume(Terminal expectedTerminal) throws GrammarError, LexicalError {
         if (token.terminal == expectedTerminal) {
             Token consumedToken = token;
 
             if (token.terminal != Terminal.SENTINEL) {
-                token = iterator.next();
+                previousEnd = tokens.end();
+                token = tokens.next();
             }
             return consumedToken;
         } else {
-            throw new GrammarError("terminal expected: " + expectedTerminal + ", terminal found: " + token.terminal);
+            throw error("terminal expected: " + expectedTerminal + ", terminal found: " + token.terminal);
         }
     }
 
+    /**
+     * The error at the current token.
+     */
+    private GrammarError error(String message) {
+        return new GrammarError(message + " at line " + tokens.lines().line(tokens.position())
+                + ", column " + tokens.lines().column(tokens.position()));
+    }
+
+    /**
+     * The position of the tokens consumed since the offset {@code start}.
+     */
+    private SourcePosition span(int start) {
+        return tokens.lines().span(start, previousEnd);
+    }
+
     @Override
-    public ConcSyn.IProgram parse() throws GrammarError {
+    public ConcSyn.IProgram parse() throws GrammarError, LexicalError {
+        token = tokens.next();
         // parsing the start symbol ...
         ConcSyn.IProgram program = program();
         // ... and then consuming the SENTINEL
@@ -39,7 +65,7 @@ public class Parser implements IParser {
         return program;
     }
 
-    public ConcSyn.IProgram program() throws GrammarError {
+    public ConcSyn.IProgram program() throws GrammarError, LexicalError {
         if (token.terminal == Terminal.PROGRAM) {
             // PROGRAM IDENT <progParamList> <optGlobalCpsDecl> DO <cpsCmd> ENDPROGRAM
             ConcSyn.Program program = new ConcSyn.Program();
@@ -51,10 +77,10 @@ public class Parser implements IParser {
             program.cpsCmd = cpsCmd();
             consume(Terminal.ENDPROGRAM);
             return program;
-        } else throw new GrammarError("program");
+        } else throw error("program");
     }
 
-    private ConcSyn.IOptGlobalCpsDecl optGlobalCpsDecl() throws GrammarError {
+    private ConcSyn.IOptGlobalCpsDecl optGlobalCpsDecl() throws GrammarError, LexicalError {
         /*
           terminal GLOBAL
             GLOBAL <cpsDecl>
@@ -69,10 +95,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.DO) {
             // epsilon
             return new ConcSyn.OptGlobalCpsDeclEpsilon();
-        } else throw new GrammarError("optGlobalCpsDecl");
+        } else throw error("optGlobalCpsDecl");
     }
 
-    private ConcSyn.ICpsDecl cpsDecl() throws GrammarError {
+    private ConcSyn.ICpsDecl cpsDecl() throws GrammarError, LexicalError {
         /*
           terminal RECORD
             <decl> <repSemicolonDecl>
@@ -90,10 +116,10 @@ public class Parser implements IParser {
             cpsDecl.decl = decl();
             cpsDecl.cpsDecl = repSemicolonDecl();
             return cpsDecl;
-        } else throw new GrammarError("cpsDecl");
+        } else throw error("cpsDecl");
     }
 
-    private ConcSyn.ICpsDecl repSemicolonDecl() throws GrammarError {
+    private ConcSyn.ICpsDecl repSemicolonDecl() throws GrammarError, LexicalError {
         /*
           terminal SEMICOLON
             SEMICOLON <decl> <repSemicolonDecl>
@@ -106,10 +132,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.DO) {
             // epsilon
             return new ConcSyn.CpsDeclEpsilon();
-        } else throw new GrammarError("repSemicolonDecl");
+        } else throw error("repSemicolonDecl");
     }
 
-    private ConcSyn.IDecl decl() throws GrammarError {
+    private ConcSyn.IDecl decl() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <stoDecl>
@@ -130,19 +156,19 @@ public class Parser implements IParser {
             return procDecl();
         } else if (token.terminal == Terminal.RECORD) {
             return recordShapeDecl();
-        } else throw new GrammarError("decl");
+        } else throw error("decl");
     }
 
-    private ConcSyn.ICpsTypedIdent cpsTypedIdent() throws GrammarError {
+    private ConcSyn.ICpsTypedIdent cpsTypedIdent() throws GrammarError, LexicalError {
         if (token.terminal == Terminal.IDENT) {
             ConcSyn.CpsTypedIdent cpsTypedIdent = new ConcSyn.CpsTypedIdent();
             cpsTypedIdent.typedIdent = typedIdent();
             cpsTypedIdent.cpsTypedIdent = repCommaTypedIdent();
             return cpsTypedIdent;
-        } else throw new GrammarError("cpsTypedIdent");
+        } else throw error("cpsTypedIdent");
     }
 
-    private ConcSyn.IRecordShapeDecl recordShapeDecl() throws GrammarError {
+    private ConcSyn.IRecordShapeDecl recordShapeDecl() throws GrammarError, LexicalError {
         /*
           terminal RECORD
             RECORD IDENT LPAREN <typedIdent> <repCommaTypedIdent> RPAREN
@@ -155,10 +181,10 @@ public class Parser implements IParser {
             recordShapeDecl.cpsTypedIdent = cpsTypedIdent();
             consume(Terminal.RPAREN);
             return recordShapeDecl;
-        } else throw new GrammarError("recordShapeDecl");
+        } else throw error("recordShapeDecl");
     }
 
-    private ConcSyn.ICpsTypedIdent repCommaTypedIdent() throws GrammarError {
+    private ConcSyn.ICpsTypedIdent repCommaTypedIdent() throws GrammarError, LexicalError {
         /*
           terminal COMMA
             COMMA <typedIdent> <repCommaTypedIdent>
@@ -173,10 +199,10 @@ public class Parser implements IParser {
             return cpsTypedIdent;
         } else if (token.terminal == Terminal.RPAREN) {
             return new ConcSyn.CpsTypedIdentEpsilon();
-        } else throw new GrammarError("recordShapeDecl");
+        } else throw error("recordShapeDecl");
     }
 
-    private ConcSyn.ITypedIdent typedIdent() throws GrammarError {
+    private ConcSyn.ITypedIdent typedIdent() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             IDENT COLON <typeOrRecord>
@@ -187,10 +213,10 @@ public class Parser implements IParser {
             consume(Terminal.COLON);
             typedIdent.type = typeOrRecord();
             return typedIdent;
-        } else throw new GrammarError("typedIdent");
+        } else throw error("typedIdent");
     }
 
-    private ConcSyn.IType typeOrRecord() throws GrammarError {
+    private ConcSyn.IType typeOrRecord() throws GrammarError, LexicalError {
         /*
         <typeOrRecord>
           terminal TYPE
@@ -206,10 +232,10 @@ public class Parser implements IParser {
             ConcSyn.RecordType type = new ConcSyn.RecordType();
             type.name = (Identifier) consume(Terminal.IDENT);
             return type;
-        } else throw new GrammarError("typeOrRecord");
+        } else throw error("typeOrRecord");
     }
 
-    private ConcSyn.IProcDecl procDecl() throws GrammarError {
+    private ConcSyn.IProcDecl procDecl() throws GrammarError, LexicalError {
         /*
           terminal PROC
             PROC IDENT <paramList> <optGlobalGlobImps> <optLocalCpsStoDecl> DO <cpsCmd> ENDPROC
@@ -225,10 +251,10 @@ public class Parser implements IParser {
             procDecl.cpsCmd = cpsCmd();
             consume(Terminal.ENDPROC);
             return procDecl;
-        } else throw new GrammarError("procDecl");
+        } else throw error("procDecl");
     }
 
-    private ConcSyn.IParamList paramList() throws GrammarError {
+    private ConcSyn.IParamList paramList() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             LPAREN <optParamRepCommaParam> RPAREN
@@ -239,10 +265,10 @@ public class Parser implements IParser {
             paramList.optParamRepCommaParam = optParamRepCommaParam();
             consume(Terminal.RPAREN);
             return paramList;
-        } else throw new GrammarError("paramList");
+        } else throw error("paramList");
     }
 
-    private ConcSyn.IOptParamRepCommaParam optParamRepCommaParam() throws GrammarError {
+    private ConcSyn.IOptParamRepCommaParam optParamRepCommaParam() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <param> <repCommaParam>
@@ -263,10 +289,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.RPAREN) {
             // epsilon
             return new ConcSyn.OptParamRepCommaParamEpsilon();
-        } else throw new GrammarError("optParamRepCommaParam");
+        } else throw error("optParamRepCommaParam");
     }
 
-    private ConcSyn.IOptParamRepCommaParam repCommaParam() throws GrammarError {
+    private ConcSyn.IOptParamRepCommaParam repCommaParam() throws GrammarError, LexicalError {
         /*
           terminal COMMA
             COMMA <param> <repCommaParam>
@@ -282,10 +308,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.RPAREN) {
             // epsilon
             return new ConcSyn.OptParamRepCommaParamEpsilon();
-        } else throw new GrammarError("repCommaParam");
+        } else throw error("repCommaParam");
     }
 
-    private ConcSyn.IParam param() throws GrammarError {
+    private ConcSyn.IParam param() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <optFlowmode> <optMechmode> <optChangemode> <typedIdent>
@@ -305,10 +331,10 @@ public class Parser implements IParser {
             return param;
         } else if (token.terminal == Terminal.RPAREN) {
             return new ConcSyn.ParamEpsilon();
-        } else throw new GrammarError("param");
+        } else throw error("param");
     }
 
-    private ConcSyn.IOptChangemode optChangemode() throws GrammarError {
+    private ConcSyn.IOptChangemode optChangemode() throws GrammarError, LexicalError {
         /*
           terminal CHANGEMODE
             CHANGEMODE
@@ -321,10 +347,10 @@ public class Parser implements IParser {
             return changemode;
         } else if (token.terminal == Terminal.IDENT) {
             return new ConcSyn.OptChangemodeEpsilon();
-        } else throw new GrammarError("optChangemode");
+        } else throw error("optChangemode");
     }
 
-    private ConcSyn.IOptMechmode optMechmode() throws GrammarError {
+    private ConcSyn.IOptMechmode optMechmode() throws GrammarError, LexicalError {
         /*
           terminal MECHMODE
             MECHMODE
@@ -339,10 +365,10 @@ public class Parser implements IParser {
             return mechmode;
         } else if (List.of(Terminal.IDENT, Terminal.CHANGEMODE).contains(token.terminal)) {
             return new ConcSyn.OptMechmodeEpsilon();
-        } else throw new GrammarError("optMechmode");
+        } else throw error("optMechmode");
     }
 
-    private ConcSyn.IOptFlowmode optFlowmode() throws GrammarError {
+    private ConcSyn.IOptFlowmode optFlowmode() throws GrammarError, LexicalError {
         /*
           terminal FLOWMODE
             FLOWMODE
@@ -360,10 +386,10 @@ public class Parser implements IParser {
         } else if (List.of(Terminal.MECHMODE, Terminal.IDENT, Terminal.CHANGEMODE).contains(token.terminal)) {
             // epsilon
             return new ConcSyn.OptFlowmodeEpsilon();
-        } else throw new GrammarError("optFlowmode");
+        } else throw error("optFlowmode");
     }
 
-    private ConcSyn.FunDecl funDecl() throws GrammarError {
+    private ConcSyn.FunDecl funDecl() throws GrammarError, LexicalError {
         /*
           terminal FUN
             FUN IDENT <paramList> RETURNS <stoDecl> <optGlobalGlobImps> <optLocalCpsStoDecl> DO <cpsCmd> ENDFUN
@@ -382,10 +408,10 @@ public class Parser implements IParser {
             consume(Terminal.ENDFUN);
             return funDecl;
 
-        } else throw new GrammarError("funDecl");
+        } else throw error("funDecl");
     }
 
-    private ConcSyn.ICpsCmd cpsCmd() throws GrammarError {
+    private ConcSyn.ICpsCmd cpsCmd() throws GrammarError, LexicalError {
         /*
           terminal DEBUGOUT
             <cmd> <repSemicolonCmd>
@@ -419,10 +445,10 @@ public class Parser implements IParser {
             cpsCmd.cmd = cmd();
             cpsCmd.cpsCmd = repSemicolonCmd();
             return cpsCmd;
-        } else throw new GrammarError("cpsCmd");
+        } else throw error("cpsCmd");
     }
 
-    private ConcSyn.ICpsCmd repSemicolonCmd() throws GrammarError {
+    private ConcSyn.ICpsCmd repSemicolonCmd() throws GrammarError, LexicalError {
         /*
           terminal SEMICOLON
             SEMICOLON <cmd> <repSemicolonCmd>
@@ -449,10 +475,10 @@ public class Parser implements IParser {
                 Terminal.ENDFUN,
                 Terminal.ENDPROGRAM).contains(token.terminal)) {
             return new ConcSyn.CpsCmdEpsilon();
-        } else throw new GrammarError("repSemicolonCmd");
+        } else throw error("repSemicolonCmd");
     }
 
-    private ConcSyn.ICmd cmd() throws GrammarError {
+    private ConcSyn.ICmd cmd() throws GrammarError, LexicalError {
         /*
           terminal SKIP
             SKIP
@@ -477,6 +503,7 @@ public class Parser implements IParser {
           terminal DEBUGOUT
             DEBUGOUT <expr>
          */
+        int start = tokens.position();
         if (token.terminal == Terminal.SKIP) {
             consume(Terminal.SKIP);
             return new ConcSyn.SkipCmd();
@@ -485,6 +512,7 @@ public class Parser implements IParser {
             assignmentCmd.expr1 = expr();
             consume(Terminal.BECOMES);
             assignmentCmd.expr2 = expr();
+            assignmentCmd.position = span(start);
             return assignmentCmd;
         } else if (token.terminal == Terminal.IF) {
             ConcSyn.IfCmd ifCmd = new ConcSyn.IfCmd();
@@ -494,6 +522,7 @@ public class Parser implements IParser {
             ifCmd.cpsCmd = cpsCmd();
             ifCmd.optElseCpsCmd = optElseCpsCmd();
             consume(Terminal.ENDIF);
+            ifCmd.position = span(start);
             return ifCmd;
         } else if (token.terminal == Terminal.WHILE) {
             ConcSyn.WhileCmd whileCmd = new ConcSyn.WhileCmd();
@@ -502,6 +531,7 @@ public class Parser implements IParser {
             consume(Terminal.DO);
             whileCmd.cpsCmd = cpsCmd();
             consume(Terminal.ENDWHILE);
+            whileCmd.position = span(start);
             return whileCmd;
         } else if (token.terminal == Terminal.CALL) {
             ConcSyn.CallCmd callCmd = new ConcSyn.CallCmd();
@@ -509,21 +539,24 @@ public class Parser implements IParser {
             callCmd.identifier = (Identifier) consume(Terminal.IDENT);
             callCmd.exprList = exprList();
             callCmd.optGlobInits = optGlobInits();
+            callCmd.position = span(start);
             return callCmd;
         } else if (token.terminal == Terminal.DEBUGIN) {
             ConcSyn.DebugInCmd debugInCmd = new ConcSyn.DebugInCmd();
             consume(Terminal.DEBUGIN);
             debugInCmd.expr = expr();
+            debugInCmd.position = span(start);
             return debugInCmd;
         } else if (token.terminal == Terminal.DEBUGOUT) {
             ConcSyn.DebugOutCmd debugOutCmd = new ConcSyn.DebugOutCmd();
             consume(Terminal.DEBUGOUT);
             debugOutCmd.expr = expr();
+            debugOutCmd.position = span(start);
             return debugOutCmd;
-        } else throw new GrammarError("cmd");
+        } else throw error("cmd");
     }
 
-    private ConcSyn.IExprListFactor exprListFactor() throws GrammarError {
+    private ConcSyn.IExprListFactor exprListFactor() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             LPAREN <optExprRepCommaExpr> RPAREN
@@ -532,10 +565,10 @@ public class Parser implements IParser {
             ConcSyn.ExprListFactor factor = new ConcSyn.ExprListFactor();
             factor.exprList = exprList();
             return factor;
-        } else throw new GrammarError("exprList");
+        } else throw error("exprList");
     }
 
-    private ConcSyn.IExprList exprList() throws GrammarError {
+    private ConcSyn.IExprList exprList() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             LPAREN <optExprRepCommaExpr> RPAREN
@@ -546,10 +579,10 @@ public class Parser implements IParser {
             exprList.optExprRepCommaExpr = optExprRepCommaExpr();
             consume(Terminal.RPAREN);
             return exprList;
-        } else throw new GrammarError("exprList");
+        } else throw error("exprList");
     }
 
-    private ConcSyn.IOptExprRepCommaExpr optExprRepCommaExpr() throws GrammarError {
+    private ConcSyn.IOptExprRepCommaExpr optExprRepCommaExpr() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             <expr> <repCommaExpr>
@@ -571,10 +604,10 @@ public class Parser implements IParser {
             return optExprRepCommaExpr;
         } else if (token.terminal == Terminal.RPAREN) {
             return new ConcSyn.OptExprRepCommaExprEpsilon();
-        } else throw new GrammarError("optExprRepCommaExpr");
+        } else throw error("optExprRepCommaExpr");
     }
 
-    private ConcSyn.IOptExprRepCommaExpr repCommaExpr() throws GrammarError {
+    private ConcSyn.IOptExprRepCommaExpr repCommaExpr() throws GrammarError, LexicalError {
         /*
           terminal COMMA
             COMMA <expr> <repCommaExpr>
@@ -586,10 +619,10 @@ public class Parser implements IParser {
             return optExprRepCommaExpr();
         } else if (token.terminal == Terminal.RPAREN) {
             return new ConcSyn.OptExprRepCommaExprEpsilon();
-        } else throw new GrammarError("optExprRepCommaExpr");
+        } else throw error("optExprRepCommaExpr");
     }
 
-    private ConcSyn.IOptGlobInits optGlobInits() throws GrammarError {
+    private ConcSyn.IOptGlobInits optGlobInits() throws GrammarError, LexicalError {
         /*
           terminal INIT
             INIT IDENT <repCommaIdent>
@@ -616,10 +649,10 @@ public class Parser implements IParser {
             return optGlobInits;
         } else if (List.of(Terminal.ENDWHILE, Terminal.ENDIF, Terminal.ELSE, Terminal.ENDPROC, Terminal.ENDFUN, Terminal.ENDPROGRAM, Terminal.SEMICOLON).contains(token.terminal)) {
             return new ConcSyn.OptGlobInitsEpsilon();
-        } else throw new GrammarError("optGlobInits");
+        } else throw error("optGlobInits");
     }
 
-    private ConcSyn.IRepCommaIdents repCommaIdents() throws GrammarError {
+    private ConcSyn.IRepCommaIdents repCommaIdents() throws GrammarError, LexicalError {
         /*
           terminal COMMA
             COMMA IDENT <repCommaIdent>
@@ -640,10 +673,10 @@ public class Parser implements IParser {
         } else if(List.of(Terminal.ENDWHILE,Terminal.ENDIF,Terminal.ELSE,Terminal.ENDPROC,Terminal.ENDFUN,Terminal.ENDPROGRAM,Terminal.SEMICOLON).contains(token.terminal)) {
             // epsilon
             return new ConcSyn.RepCommaIdentsEpsilon();
-        } else throw new GrammarError("repCommaIdent");
+        } else throw error("repCommaIdent");
     }
 
-    private ConcSyn.IOptElseCpsCmd optElseCpsCmd() throws GrammarError {
+    private ConcSyn.IOptElseCpsCmd optElseCpsCmd() throws GrammarError, LexicalError {
         /*
           terminal ELSE
             ELSE <cpsCmd>
@@ -658,10 +691,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.ENDIF) {
             // epsilon
             return new ConcSyn.OptElseCpsCmdEpsilon();
-        } else throw new GrammarError("optElseCpsCmd");
+        } else throw error("optElseCpsCmd");
     }
 
-    private ConcSyn.IOptLocalCpsStoDecl optLocalCpsStoDecl() throws GrammarError {
+    private ConcSyn.IOptLocalCpsStoDecl optLocalCpsStoDecl() throws GrammarError, LexicalError {
         /*
           terminal LOCAL
             LOCAL <cpsStoDecl>
@@ -676,10 +709,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.DO) {
             // epsilon
             return new ConcSyn.OptLocalCpsStoDeclEpsilon();
-        } else throw new GrammarError("optLocalCpsStoDecl");
+        } else throw error("optLocalCpsStoDecl");
     }
 
-    private ConcSyn.ICpsStoDecl cpsStoDecl() throws GrammarError {
+    private ConcSyn.ICpsStoDecl cpsStoDecl() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <stoDecl> <repSemicolonStoDecl>
@@ -691,10 +724,10 @@ public class Parser implements IParser {
             cpsStoDecl.stoDecl = stoDecl();
             cpsStoDecl.cpsStoDecl = repSemicolonStoDecls();
             return cpsStoDecl;
-        } else throw new GrammarError("cpsStoDecl");
+        } else throw error("cpsStoDecl");
     }
 
-    private ConcSyn.ICpsStoDecl repSemicolonStoDecls() throws GrammarError {
+    private ConcSyn.ICpsStoDecl repSemicolonStoDecls() throws GrammarError, LexicalError {
         /*
           terminal SEMICOLON
             SEMICOLON <stoDecl>
@@ -707,10 +740,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.DO) {
             // epsilon
             return new ConcSyn.CpsStoDeclEpsilon();
-        } else throw new GrammarError("repSemicolonStoDecl");
+        } else throw error("repSemicolonStoDecl");
     }
 
-    private ConcSyn.IOptGlobalGlobImps optGlobalGlobImps() throws GrammarError {
+    private ConcSyn.IOptGlobalGlobImps optGlobalGlobImps() throws GrammarError, LexicalError {
         /*
           terminal GLOBAL
             GLOBAL <globImps>
@@ -727,10 +760,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.DO || token.terminal == Terminal.LOCAL) {
             // epsilon
             return new ConcSyn.OptGlobalGlobImpsEpsilon();
-        } else throw new GrammarError("optGlobalGlobImps");
+        } else throw error("optGlobalGlobImps");
     }
 
-    private ConcSyn.IGlobImps globImps() throws GrammarError {
+    private ConcSyn.IGlobImps globImps() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <globImp> <repCommaGlobImp>
@@ -744,10 +777,10 @@ public class Parser implements IParser {
             globImps.globImp = globImp();
             globImps.globImps = repCommaGlobImps();
             return globImps;
-        } else throw new GrammarError("globImps");
+        } else throw error("globImps");
     }
 
-    private ConcSyn.IGlobImps repCommaGlobImps() throws GrammarError {
+    private ConcSyn.IGlobImps repCommaGlobImps() throws GrammarError, LexicalError {
         /*
           terminal COMMA
             COMMA <globImps>
@@ -762,10 +795,10 @@ public class Parser implements IParser {
         } else if (token.terminal == Terminal.DO || token.terminal == Terminal.LOCAL) {
             // epsilon
             return new ConcSyn.GlobImpsEpsilon();
-        } else throw new GrammarError("repCommaGlobImp");
+        } else throw error("repCommaGlobImp");
     }
 
-    private ConcSyn.IGlobImp globImp() throws GrammarError {
+    private ConcSyn.IGlobImp globImp() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <optFlowmode> <optChangemode> IDENT
@@ -780,10 +813,10 @@ public class Parser implements IParser {
             globImp.optChangemode = optChangemode();
             globImp.identifier = (Identifier) consume(Terminal.IDENT);
             return globImp;
-        } else throw new GrammarError("globImp");
+        } else throw error("globImp");
     }
 
-    private ConcSyn.StoDecl stoDecl() throws GrammarError {
+    private ConcSyn.StoDecl stoDecl() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <optChangemode> <typedIdent>
@@ -795,10 +828,10 @@ public class Parser implements IParser {
             stoDecl.optChangemode = optChangemode();
             stoDecl.typedIdent = typedIdent();
             return stoDecl;
-        } else throw new GrammarError("stoDecl");
+        } else throw error("stoDecl");
     }
 
-    private ConcSyn.IProgParamList progParamList() throws GrammarError {
+    private ConcSyn.IProgParamList progParamList() throws GrammarError, LexicalError {
         if (token.terminal == Terminal.LPAREN) {
             ConcSyn.ProgParamList progParamList = new ConcSyn.ProgParamList();
             // LPAREN <optProgParamRepCommaProgParam> RPAREN
@@ -806,10 +839,10 @@ public class Parser implements IParser {
             progParamList.optProgParamRepCommaProgParam = optProgParamRepCommaProgParam();
             consume(Terminal.RPAREN);
             return progParamList;
-        } else throw new GrammarError("progParamList");
+        } else throw error("progParamList");
     }
 
-    private ConcSyn.IOptProgParamRepCommaProgParam optProgParamRepCommaProgParam() throws GrammarError {
+    private ConcSyn.IOptProgParamRepCommaProgParam optProgParamRepCommaProgParam() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <progParam> <repCommaProgParam>
@@ -827,10 +860,10 @@ public class Parser implements IParser {
             return optProgParamRepCommaProgParam;
         } else if (token.terminal == Terminal.RPAREN) {
             return new ConcSyn.OptProgParamRepCommaProgParamEpsilon();
-        } else throw new GrammarError("optProgParamRepCommaProgParam");
+        } else throw error("optProgParamRepCommaProgParam");
     }
 
-    private ConcSyn.IOptProgParamRepCommaProgParam repCommaProgParam() throws GrammarError {
+    private ConcSyn.IOptProgParamRepCommaProgParam repCommaProgParam() throws GrammarError, LexicalError {
         /*
           terminal COMMA
             COMMA <progParam> <repCommaProgParam>
@@ -845,10 +878,10 @@ public class Parser implements IParser {
             return optProgParamRepCommaProgParam;
         } else if (token.terminal == Terminal.RPAREN) {
             return new ConcSyn.OptProgParamRepCommaProgParamEpsilon();
-        } else throw new GrammarError("repCommaProgParam");
+        } else throw error("repCommaProgParam");
     }
 
-    private ConcSyn.IProgParam progParam() throws GrammarError {
+    private ConcSyn.IProgParam progParam() throws GrammarError, LexicalError {
         /*
           terminal IDENT
             <optFlowmode> <optChangemode> <typedIdent>
@@ -863,10 +896,10 @@ public class Parser implements IParser {
             progParam.optChangemode = optChangemode();
             progParam.typedIdent = typedIdent();
             return progParam;
-        } else throw new GrammarError("progParam");
+        } else throw error("progParam");
     }
 
-    private ConcSyn.IExpr expr() throws GrammarError {
+    private ConcSyn.IExpr expr() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             <term1> <repBoolOprTerm1>
@@ -884,10 +917,10 @@ public class Parser implements IParser {
             expression.term1 = term1();
             expression.repBoolOprTerm1 = repBoolOprTerm1();
             return expression;
-        } else throw new GrammarError("expr");
+        } else throw error("expr");
     }
 
-    private ConcSyn.ITerm1 term1() throws GrammarError {
+    private ConcSyn.ITerm1 term1() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             <term2> <optRelOprTerm2>
@@ -905,10 +938,10 @@ public class Parser implements IParser {
             term1.term2 = term2();
             term1.optRelOprTerm2 = optRelOprTerm2();
             return term1;
-        } else throw new GrammarError("term1");
+        } else throw error("term1");
     }
 
-    private ConcSyn.IOptRelOprTerm2 optRelOprTerm2() throws GrammarError {
+    private ConcSyn.IOptRelOprTerm2 optRelOprTerm2() throws GrammarError, LexicalError {
         /*
           terminal RELOPR
             RELOPR <term2>
@@ -959,10 +992,10 @@ public class Parser implements IParser {
                 Terminal.BECOMES,
                 Terminal.BOOLOPR).contains(token.terminal)) {
             return new ConcSyn.OptRelOprTerm2Epsilon();
-        } else throw new GrammarError("optRelOprTerm2");
+        } else throw error("optRelOprTerm2");
     }
 
-    private ConcSyn.ITerm2 term2() throws GrammarError {
+    private ConcSyn.ITerm2 term2() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             <term3> <repAddOprTerm3>
@@ -980,10 +1013,10 @@ public class Parser implements IParser {
             term2.term3 = term3();
             term2.repAddOprTerm3 = repAddOprTerm3();
             return term2;
-        } else throw new GrammarError("term2");
+        } else throw error("term2");
     }
 
-    private ConcSyn.IRepAddOprTerm3 repAddOprTerm3() throws GrammarError {
+    private ConcSyn.IRepAddOprTerm3 repAddOprTerm3() throws GrammarError, LexicalError {
         /*
           terminal ADDOPR
             ADDOPR <term3> <repAddOprTerm3>
@@ -1038,10 +1071,10 @@ public class Parser implements IParser {
                 Terminal.BOOLOPR,
                 Terminal.RELOPR).contains(token.terminal)) {
             return new ConcSyn.RepAddOprTerm3Epsilon();
-        } else throw new GrammarError("repAddOprTerm3");
+        } else throw error("repAddOprTerm3");
     }
 
-    private ConcSyn.ITerm3 term3() throws GrammarError {
+    private ConcSyn.ITerm3 term3() throws GrammarError, LexicalError {
         /*
           terminal LPAREN
             <factor> <repMultOprFactor>
@@ -1059,10 +1092,10 @@ public class Parser implements IParser {
             term3.factor = factor();
             term3.repMultOprFactor = repMultOprFactor();
             return term3;
-        } else throw new GrammarError("term3");
+        } else throw error("term3");
     }
 
-    private ConcSyn.IRepMultOprFactor repMultOprFactor() throws GrammarError {
+    private ConcSyn.IRepMultOprFactor repMultOprFactor() throws GrammarError, LexicalError {
         /*
           terminal MULTOPR
             MULTOPR <factor> <repMultOprFactor>
@@ -1120,10 +1153,10 @@ public class Parser implements IParser {
                 Terminal.ADDOPR).contains(token.terminal)) {
             // epsilon
             return new ConcSyn.RepMultOprFactorEpsilon();
-        } else throw new GrammarError("repMultOprFactor");
+        } else throw error("repMultOprFactor");
     }
 
-    private ConcSyn.IFactor factor() throws GrammarError {
+    private ConcSyn.IFactor factor() throws GrammarError, LexicalError {
         /*
           terminal LITERAL
             LITERAL
@@ -1136,30 +1169,35 @@ public class Parser implements IParser {
           terminal LPAREN
             LPAREN <expr> RPAREN
          */
+        int start = tokens.position();
         if (token.terminal == Terminal.LITERAL) {
             ConcSyn.LiteralFactor literalFactor = new ConcSyn.LiteralFactor();
             literalFactor.literal = (Literal) consume(Terminal.LITERAL);
+            literalFactor.position = span(start);
             return literalFactor;
         } else if (token.terminal == Terminal.IDENT) {
             ConcSyn.IdentFactor identFactor = new ConcSyn.IdentFactor();
             identFactor.identifier = (Identifier) consume(Terminal.IDENT);
             identFactor.optInitOrExpressionListOrRecordAccess = optInitOrExprListOrRecordAccess();
+            identFactor.position = span(start);
             return identFactor;
         } else if (token.terminal == Terminal.ADDOPR || token.terminal == Terminal.NOTOPR) {
             ConcSyn.MonadicFactor monadicFactor = new ConcSyn.MonadicFactor();
             monadicFactor.monadicOpr = monadicOpr();
             monadicFactor.factor = factor();
+            monadicFactor.position = span(start);
             return monadicFactor;
         } else if (token.terminal == Terminal.LPAREN) {
             ConcSyn.ExpressionFactor expressionFactor = new ConcSyn.ExpressionFactor();
             consume(Terminal.LPAREN);
             expressionFactor.expression = expr();
             consume(Terminal.RPAREN);
+            expressionFactor.position = span(start);
             return expressionFactor;
-        } else throw new GrammarError("factor");
+        } else throw error("factor");
     }
 
-    private ConcSyn.IOptInitOrExpressionListOrRecordAccess optInitOrExprListOrRecordAccess() throws GrammarError {
+    private ConcSyn.IOptInitOrExpressionListOrRecordAccess optInitOrExprListOrRecordAccess() throws GrammarError, LexicalError {
         /*
           terminal INIT
             INIT
@@ -1225,10 +1263,10 @@ public class Parser implements IParser {
                 Terminal.ADDOPR).contains(token.terminal)) {
             // epsilon
             return new ConcSyn.OptInitOrExpressionListOrRecordAccessEpsilon();
-        } else throw new GrammarError("optInitOrExprListOrRecordAccess");
+        } else throw error("optInitOrExprListOrRecordAccess");
     }
 
-    private ConcSyn.IRecordAccess recordAccess() throws GrammarError {
+    private ConcSyn.IRecordAccess recordAccess() throws GrammarError, LexicalError {
         /*
           terminal ACCESSOPR
             ACCESSOPR IDENT <optRecordAccess>
@@ -1239,10 +1277,10 @@ public class Parser implements IParser {
             recordAccess.identifier = (Identifier) consume(Terminal.IDENT);
             recordAccess.optRecordAccess = optRecordAccess();
             return recordAccess;
-        } else throw new GrammarError("recordAccess");
+        } else throw error("recordAccess");
     }
 
-    private ConcSyn.IRecordAccess optRecordAccess() throws GrammarError {
+    private ConcSyn.IRecordAccess optRecordAccess() throws GrammarError, LexicalError {
         /*
           terminal ACCESSOPR
             ACCESSOPR IDENT <optRecordAccess>
@@ -1299,10 +1337,10 @@ public class Parser implements IParser {
                 Terminal.MULTOPR).contains(token.terminal)) {
             // epsilon
             return new ConcSyn.RecordAccessEpsilon();
-        } else throw new GrammarError("optRecordAccess");
+        } else throw error("optRecordAccess");
     }
 
-    private ConcSyn.IMonadicOpr monadicOpr() throws GrammarError {
+    private ConcSyn.IMonadicOpr monadicOpr() throws GrammarError, LexicalError {
         /*
           terminal NOTOPR
             NOTOPR
@@ -1316,10 +1354,10 @@ public class Parser implements IParser {
             AddOpr addOpr = (AddOpr) this.token;
             consume(Terminal.ADDOPR);
             return new ConcSyn.PosMonadicOpr(addOpr);
-        } else throw new GrammarError("monadicOpr");
+        } else throw error("monadicOpr");
     }
 
-    private ConcSyn.IRepBoolOprTerm1 repBoolOprTerm1() throws GrammarError {
+    private ConcSyn.IRepBoolOprTerm1 repBoolOprTerm1() throws GrammarError, LexicalError {
         /*
           terminal BOOLOPR
             BOOLOPR <term1> <repBoolOprTerm1>
@@ -1367,6 +1405,6 @@ public class Parser implements IParser {
                 Terminal.SEMICOLON,
                 Terminal.BECOMES).contains(token.terminal)) {
             return new ConcSyn.RepBoolOprTerm1Epsilon();
-        } else throw new GrammarError("repBoolOprTerm1");
+        } else throw error("repBoolOprTerm1");
     }
 }
@@ -0,0 +1,162 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static ch.fhnw.lederer.virtualmachineFS2015.ClassFile.*;
+
+// Translates a whole program ahead of time into one JVM class that runs without a VM.
+// The main program and every routine become a static method r<entry>(sp, fp, ep) returning the
+// stack pointer after the Return; a Call pushes the frame like the VM and invokes the method of the
+// routine, so routines call each other on the JVM stack. The store, input and output are in AotRuntime.
+// The class implements Runnable and has a main method, the store size is fixed when compiling.
+public final class AotCompiler extends JvmTranslator {
+
+    private static final String RUNTIME= "ch/fhnw/lederer/virtualmachineFS2015/AotRuntime";
+    private static final String ERROR= RUNTIME + "$ExecutionError";
+    private static final String ROUTINE= "(III)I";
+
+    // parameters of a routine method, followed by the locals of JvmTranslator
+    private static final int SP_PARAM= 0;
+    private static final int FP_PARAM= 1;
+    private static final int EP_PARAM= 2;
+
+    private final String className;
+
+    private AotCompiler(Bytecode bytecode, int entry, String className) {
+        super(bytecode, entry, RUNTIME, ERROR);
+        this.className= className;
+    }
+
+    // pre: className is a binary name with slashes, e.g. Add17 or demo/Add17
+    // post: throws IllegalStateException if a routine is too large for a JVM method
+    public static byte[] compile(Bytecode bytecode, String className, int storeSize) {
+        TreeSet<Integer> entries= new TreeSet<>();
+        entries.add(0);
+        int[] code= bytecode.getCode();
+        for (int pc= 0; pc < bytecode.getSize(); pc++) {
+            if (code[2 * pc] == Bytecode.CALL) entries.add(code[2 * pc + 1]);
+        }
+
+        ClassFile classFile= new ClassFile(className, "java/lang/Object", "java/lang/Runnable");
+
+        ClassFile.Code init= classFile.method(ACC_PUBLIC, "<init>", "()V", 1, 1);
+        init.aload(0);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.op(RETURN);
+
+        ClassFile.Code run= classFile.method(ACC_PUBLIC, "run", "()V", 3, 1);
+        run.iconst(0);
+        run.iconst(0);
+        run.iconst(0);
+        run.invoke(INVOKESTATIC, className, routine(0), ROUTINE);
+        run.op(POP);
+        run.op(RETURN);
+
+        ClassFile.Code main= classFile.method(ACC_PUBLIC | ACC_STATIC, "main", "([Ljava/lang/String;)V", 3, 1);
+        main.type(NEW, className);
+        main.op(DUP);
+        main.invoke(INVOKESPECIAL, className, "<init>", "()V");
+        main.iconst(storeSize);
+        main.invoke(INVOKESTATIC, RUNTIME, "main", "(Ljava/lang/Runnable;I)V");
+        main.op(RETURN);
+
+        for (int entry : entries) {
+            AotCompiler compiler= new AotCompiler(bytecode, entry, className);
+            if (!compiler.findRegion()) {
+                throw new IllegalStateException("Code of the routine at " + entry + " leaves the program");
+            }
+            compiler.translate(classFile);
+        }
+        return classFile.toBytes();
+    }
+
+    // the class files of AotRuntime, by name with slashes, to run the compiled programs
+    public static Map<String, byte[]> runtimeClasses() {
+        Map<String, byte[]> classes= new LinkedHashMap<>();
+        for (String name : new String[] { RUNTIME, ERROR }) {
+            String resource= name.substring(name.lastIndexOf('/') + 1) + ".class";
+            try (InputStream in= AotCompiler.class.getResourceAsStream(resource)) {
+                if (in == null) {
+                    throw new IllegalStateException("Missing class file " + resource);
+                }
+                classes.put(name, in.readAllBytes());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return classes;
+    }
+
+    private void translate(ClassFile classFile) {
+        out= classFile.method(ACC_STATIC, routine(entry), ROUTINE, MAX_STACK, MAX_LOCALS,
+            ITEM_INTEGER, ITEM_INTEGER, ITEM_INTEGER, "[I", ITEM_INTEGER, ITEM_INTEGER, ITEM_INTEGER, ITEM_INTEGER);
+        createLabels();
+
+        out.field(GETSTATIC, RUNTIME, "store", "[I");
+        out.astore(STORE);
+        out.field(GETSTATIC, RUNTIME, "hp", "I");
+        out.istore(HP);
+        out.iload(SP_PARAM);
+        out.istore(SP);
+        out.iload(FP_PARAM);
+        out.istore(FP);
+        out.iload(EP_PARAM);
+        out.istore(EP);
+        out.jump(GOTO, labels[entry]);
+
+        translateRegion();
+    }
+
+    private static String routine(int entry) {
+        return "r" + entry;
+    }
+
+    @Override
+    void stop() {
+        out.iload(SP);
+        out.op(IRETURN);
+    }
+
+    @Override
+    void call(int pc, int target) {
+        // if (sp + 2 > hp) throw; store[sp]= fp; store[sp + 1]= ep; store[sp + 2]= pc
+        check(SP, -2, TieredVirtualMachine.SP_OVER_HP);
+        frameElement(0, () -> out.iload(FP));
+        frameElement(1, () -> out.iload(EP));
+        frameElement(2, () -> out.iconst(pc));
+        // sp= r<target>(sp + 3, sp, ep), fp and ep are restored by the Return
+        out.iload(SP);
+        out.iconst(3);
+        out.op(IADD);
+        out.iload(SP);
+        out.iload(EP);
+        out.invoke(INVOKESTATIC, className, routine(target), ROUTINE);
+        out.istore(SP);
+    }
+
+    @Override
+    void ret(int size) {
+        // the caller keeps its fp and ep, they are those of the frame
+        out.iload(FP);
+        out.iconst(size);
+        out.op(ISUB);
+        out.op(IRETURN);
+    }
+
+    // store[sp + offset]= value
+    private void frameElement(int offset, Runnable value) {
+        out.aload(STORE);
+        out.iload(SP);
+        if (offset != 0) {
+            out.iconst(offset);
+            out.op(IADD);
+        }
+        value.run();
+        out.op(IASTORE);
+    }
+}
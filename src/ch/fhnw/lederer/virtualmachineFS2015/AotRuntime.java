@@ -0,0 +1,155 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// Runtime of the programs compiled by AotCompiler, copied into every jar next to the program class.
+// Holds the store and does the input and output, buffered: the output is only flushed before
+// reading input and at the end. Depends on nothing but java.base.
+public final class AotRuntime {
+
+    // the compiled routines call each other on the JVM stack
+    private static final long STACK_SIZE= 1L << 28;
+
+    // the store of the running program, hp stays at its end as nothing is allocated on the heap
+    public static int[] store;
+    public static int hp;
+
+    private static BufferedReader in;
+    private static PrintStream out;
+
+    private AotRuntime() {}
+
+    public static final class ExecutionError extends RuntimeException {
+        private static final long serialVersionUID= 1L;
+
+        ExecutionError(String errorMessage) {
+            super("Execution error: " + errorMessage);
+        }
+    }
+
+    // called by the main method of the program class
+    public static void main(Runnable program, int storeSize) throws InterruptedException {
+        if (!run(program, storeSize)) {
+            System.exit(1);
+        }
+    }
+
+    // runs the program with fresh store, input and output; false after an execution error
+    public static boolean run(Runnable program, int storeSize) throws InterruptedException {
+        store= new int[storeSize];
+        hp= storeSize - 1;
+        in= new BufferedReader(new InputStreamReader(System.in));
+        out= new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        boolean[] failed= new boolean[1];
+        Thread thread= new Thread(null, () -> {
+            try {
+                program.run();
+            } catch (ExecutionError e) {
+                out.flush();
+                System.err.println(e.getMessage());
+                failed[0]= true;
+            }
+        }, "iml", STACK_SIZE);
+        thread.start();
+        thread.join();
+        out.flush();
+        return !failed[0];
+    }
+
+    // helpers of the compiled code, public as the program class is in another package
+
+    public static ExecutionError error(String message) {
+        return new ExecutionError(message);
+    }
+
+    public static int eq(int a, int b) { return a == b ? 1 : 0; }
+    public static int ne(int a, int b) { return a != b ? 1 : 0; }
+    public static int gt(int a, int b) { return a > b ? 1 : 0; }
+    public static int lt(int a, int b) { return a < b ? 1 : 0; }
+    public static int ge(int a, int b) { return a >= b ? 1 : 0; }
+    public static int le(int a, int b) { return a <= b ? 1 : 0; }
+
+    // block instructions, return the new stack pointer; LoadBlock is checked against hp before
+
+    public static int loadBlock(int[] store, int sp, int size)
+    {
+        System.arraycopy(store, store[sp - 1], store, sp - 1, size);
+        return sp - 1 + size;
+    }
+
+    public static int copyBlock(int[] store, int sp, int size)
+    {
+        int address= store[sp - 1];
+        System.arraycopy(store, sp - 1 - size, store, address, size);
+        return sp - 1 - size;
+    }
+
+    public static int eqBlock(int[] store, int sp, int size)
+    {
+        sp= sp - 2 * size;
+        store[sp]= Arrays.equals(store, sp, sp + size, store, sp + size, sp + 2 * size) ? 1 : 0;
+        return sp + 1;
+    }
+
+    // input and output, return the new stack pointer
+
+    public static int inputBool(int[] store, int sp, String indicator)
+    {
+        out.print("? " + indicator + " : bool = ");
+        String s= readLine();
+        if (s.equals("false")) {
+            store[store[sp - 1]]= 0;
+        }
+        else
+        if (s.equals("true")) {
+            store[store[sp - 1]]= 1;
+        }
+        else {
+            throw new ExecutionError("Not a boolean.");
+        }
+        return sp - 1;
+    }
+
+    public static int inputInt(int[] store, int sp, String indicator)
+    {
+        out.print("? " + indicator + " : int = ");
+        String s= readLine();
+        try {
+            store[store[sp - 1]]= Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            throw new ExecutionError("Not an integer.");
+        }
+        return sp - 1;
+    }
+
+    public static int outputBool(int[] store, int sp, String indicator)
+    {
+        out.println("! " + indicator + " : bool = " + (store[sp - 1] != 0));
+        return sp - 1;
+    }
+
+    public static int outputInt(int[] store, int sp, String indicator)
+    {
+        out.println("! " + indicator + " : int = " + store[sp - 1]);
+        return sp - 1;
+    }
+
+    private static String readLine() {
+        out.flush();
+        String s;
+        try {
+            s= in.readLine();
+        } catch (IOException e) {
+            throw new ExecutionError("Input failed.");
+        }
+        if (s == null) {
+            throw new ExecutionError("Input failed.");
+        }
+        return s;
+    }
+}
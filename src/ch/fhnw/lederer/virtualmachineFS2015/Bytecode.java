@@ -0,0 +1,247 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import ch.fhnw.lederer.virtualmachineFS2015.IInstructions.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Compact form of a program for BytecodeVirtualMachine.
+// Every instruction occupies two ints: the opcode at 2 * loc and its operand at 2 * loc + 1
+// (0 for instructions without operand). Addresses therefore stay instruction indices,
+// just as in ICodeArray. The indicator strings of the input / output instructions are
+// kept in a separate table, the operand is the index into that table.
+// LoadIndirectOffset packs its relative address into the upper and its offset into the lower 16 bits.
+public final class Bytecode {
+
+    public static final int STOP= 0;
+    public static final int DUP= 1;
+    public static final int ALLOC_BLOCK= 2;
+    public static final int ALLOC_STACK= 3;
+    public static final int CALL= 4;
+    public static final int RETURN= 5;
+    public static final int LOAD_IM_INT= 6;
+    public static final int LOAD_ADDR_REL= 7;
+    public static final int DEREF= 8;
+    public static final int STORE= 9;
+    public static final int STORE_REV= 10;
+    public static final int NEG_INT= 11;
+    public static final int ADD_INT= 12;
+    public static final int SUB_INT= 13;
+    public static final int MULT_INT= 14;
+    public static final int DIV_TRUNC_INT= 15;
+    public static final int MOD_TRUNC_INT= 16;
+    public static final int EQ_INT= 17;
+    public static final int NE_INT= 18;
+    public static final int GT_INT= 19;
+    public static final int LT_INT= 20;
+    public static final int GE_INT= 21;
+    public static final int LE_INT= 22;
+    public static final int UNCOND_JUMP= 23;
+    public static final int COND_JUMP= 24;
+    public static final int INPUT_BOOL= 25;
+    public static final int INPUT_INT= 26;
+    public static final int OUTPUT_BOOL= 27;
+    public static final int OUTPUT_INT= 28;
+    public static final int LOAD_LOCAL= 29;
+    public static final int LOAD_INDIRECT_OFFSET= 30;
+    public static final int JUMP_IF_TRUE= 31;
+    public static final int LOAD_BLOCK= 32;
+    public static final int COPY_BLOCK= 33;
+    public static final int EQ_BLOCK= 34;
+
+    private final int[] code;
+    private final String[] indicators;
+
+    public Bytecode(int[] code, String[] indicators) {
+        this.code= code;
+        this.indicators= indicators;
+    }
+
+    // number of instructions
+    public int getSize() {
+        return code.length / 2;
+    }
+
+    public int[] getCode() {
+        return code;
+    }
+
+    public String[] getIndicators() {
+        return indicators;
+    }
+
+    // pre
+    // - (forall i | 0 <= i < code.getSize() : code.get(i) != null)
+    public static Bytecode encode(ICodeArray code) {
+        int[] c= new int[2 * code.getSize()];
+        Map<String, Integer> indicators= new LinkedHashMap<>();
+        for (int i= 0; i < code.getSize(); i++) {
+            IInstr instr= code.get(i);
+            int opcode;
+            int operand= 0;
+            if (instr instanceof Stop) {
+                opcode= STOP;
+            } else if (instr instanceof Dup) {
+                opcode= DUP;
+            } else if (instr instanceof AllocBlock) {
+                opcode= ALLOC_BLOCK;
+                operand= ((AllocBlock) instr).size;
+            } else if (instr instanceof AllocStack) {
+                opcode= ALLOC_STACK;
+                operand= ((AllocStack) instr).maxSize;
+            } else if (instr instanceof Call) {
+                opcode= CALL;
+                operand= ((Call) instr).routAddress;
+            } else if (instr instanceof Return) {
+                opcode= RETURN;
+                operand= ((Return) instr).size;
+            } else if (instr instanceof LoadImInt) {
+                opcode= LOAD_IM_INT;
+                operand= ((LoadImInt) instr).value;
+            } else if (instr instanceof LoadAddrRel) {
+                opcode= LOAD_ADDR_REL;
+                operand= ((LoadAddrRel) instr).relAddress;
+            } else if (instr instanceof Deref) {
+                opcode= DEREF;
+            } else if (instr instanceof Store) {
+                opcode= STORE;
+            } else if (instr instanceof StoreRev) {
+                opcode= STORE_REV;
+            } else if (instr instanceof LoadBlock) {
+                opcode= LOAD_BLOCK;
+                operand= ((LoadBlock) instr).size;
+            } else if (instr instanceof CopyBlock) {
+                opcode= COPY_BLOCK;
+                operand= ((CopyBlock) instr).size;
+            } else if (instr instanceof EqBlock) {
+                opcode= EQ_BLOCK;
+                operand= ((EqBlock) instr).size;
+            } else if (instr instanceof NegInt) {
+                opcode= NEG_INT;
+            } else if (instr instanceof AddInt) {
+                opcode= ADD_INT;
+            } else if (instr instanceof SubInt) {
+                opcode= SUB_INT;
+            } else if (instr instanceof MultInt) {
+                opcode= MULT_INT;
+            } else if (instr instanceof DivTruncInt) {
+                opcode= DIV_TRUNC_INT;
+            } else if (instr instanceof ModTruncInt) {
+                opcode= MOD_TRUNC_INT;
+            } else if (instr instanceof EqInt) {
+                opcode= EQ_INT;
+            } else if (instr instanceof NeInt) {
+                opcode= NE_INT;
+            } else if (instr instanceof GtInt) {
+                opcode= GT_INT;
+            } else if (instr instanceof LtInt) {
+                opcode= LT_INT;
+            } else if (instr instanceof GeInt) {
+                opcode= GE_INT;
+            } else if (instr instanceof LeInt) {
+                opcode= LE_INT;
+            } else if (instr instanceof UncondJump) {
+                opcode= UNCOND_JUMP;
+                operand= ((UncondJump) instr).jumpAddr;
+            } else if (instr instanceof CondJump) {
+                opcode= COND_JUMP;
+                operand= ((CondJump) instr).jumpAddr;
+            } else if (instr instanceof InputBool) {
+                opcode= INPUT_BOOL;
+                operand= indicatorIndex(indicators, ((InputBool) instr).indicator);
+            } else if (instr instanceof InputInt) {
+                opcode= INPUT_INT;
+                operand= indicatorIndex(indicators, ((InputInt) instr).indicator);
+            } else if (instr instanceof OutputBool) {
+                opcode= OUTPUT_BOOL;
+                operand= indicatorIndex(indicators, ((OutputBool) instr).indicator);
+            } else if (instr instanceof OutputInt) {
+                opcode= OUTPUT_INT;
+                operand= indicatorIndex(indicators, ((OutputInt) instr).indicator);
+            } else if (instr instanceof LoadLocal) {
+                opcode= LOAD_LOCAL;
+                operand= ((LoadLocal) instr).relAddress;
+            } else if (instr instanceof LoadIndirectOffset) {
+                opcode= LOAD_INDIRECT_OFFSET;
+                operand= packLoadIndirectOffset((LoadIndirectOffset) instr);
+            } else if (instr instanceof JumpIfTrue) {
+                opcode= JUMP_IF_TRUE;
+                operand= ((JumpIfTrue) instr).jumpAddr;
+            } else {
+                throw new IVirtualMachine.InternalError("Unknown instruction: " + instr);
+            }
+            c[2 * i]= opcode;
+            c[2 * i + 1]= operand;
+        }
+        return new Bytecode(c, indicators.keySet().toArray(new String[0]));
+    }
+
+    // inverse of encode, e.g. for a program loaded from a VmcFile
+    public ICodeArray decode() {
+        ICodeArray codeArray= new CodeArray(getSize());
+        for (int i= 0; i < getSize(); i++) {
+            int operand= code[2 * i + 1];
+            IInstr instr;
+            switch (code[2 * i]) {
+                case STOP: instr= new Stop(); break;
+                case DUP: instr= new Dup(); break;
+                case ALLOC_BLOCK: instr= new AllocBlock(operand); break;
+                case ALLOC_STACK: instr= new AllocStack(operand); break;
+                case CALL: instr= new Call(operand); break;
+                case RETURN: instr= new Return(operand); break;
+                case LOAD_IM_INT: instr= new LoadImInt(operand); break;
+                case LOAD_ADDR_REL: instr= new LoadAddrRel(operand); break;
+                case DEREF: instr= new Deref(); break;
+                case STORE: instr= new Store(); break;
+                case STORE_REV: instr= new StoreRev(); break;
+                case LOAD_BLOCK: instr= new LoadBlock(operand); break;
+                case COPY_BLOCK: instr= new CopyBlock(operand); break;
+                case EQ_BLOCK: instr= new EqBlock(operand); break;
+                case NEG_INT: instr= new NegInt(); break;
+                case ADD_INT: instr= new AddInt(); break;
+                case SUB_INT: instr= new SubInt(); break;
+                case MULT_INT: instr= new MultInt(); break;
+                case DIV_TRUNC_INT: instr= new DivTruncInt(); break;
+                case MOD_TRUNC_INT: instr= new ModTruncInt(); break;
+                case EQ_INT: instr= new EqInt(); break;
+                case NE_INT: instr= new NeInt(); break;
+                case GT_INT: instr= new GtInt(); break;
+                case LT_INT: instr= new LtInt(); break;
+                case GE_INT: instr= new GeInt(); break;
+                case LE_INT: instr= new LeInt(); break;
+                case UNCOND_JUMP: instr= new UncondJump(operand); break;
+                case COND_JUMP: instr= new CondJump(operand); break;
+                case INPUT_BOOL: instr= new InputBool(indicators[operand]); break;
+                case INPUT_INT: instr= new InputInt(indicators[operand]); break;
+                case OUTPUT_BOOL: instr= new OutputBool(indicators[operand]); break;
+                case OUTPUT_INT: instr= new OutputInt(indicators[operand]); break;
+                case LOAD_LOCAL: instr= new LoadLocal(operand); break;
+                case LOAD_INDIRECT_OFFSET: instr= new LoadIndirectOffset(operand >> 16, operand & 0xffff); break;
+                case JUMP_IF_TRUE: instr= new JumpIfTrue(operand); break;
+                default: throw new IVirtualMachine.InternalError("Unknown opcode: " + code[2 * i]);
+            }
+            try {
+                codeArray.put(i, instr);
+            } catch (ICodeArray.CodeTooSmallError e) {
+                throw new IVirtualMachine.InternalError("Code array too small"); // sized for all instructions
+            }
+        }
+        return codeArray;
+    }
+
+    // the operands of LoadIndirectOffset fit into one int
+    static boolean fitsLoadIndirectOffset(int relAddress, int offset) {
+        return relAddress >= Short.MIN_VALUE && relAddress <= Short.MAX_VALUE && offset >= 0 && offset <= 0xffff;
+    }
+
+    private static int packLoadIndirectOffset(LoadIndirectOffset instr) {
+        if (!fitsLoadIndirectOffset(instr.relAddress, instr.offset)) {
+            throw new IVirtualMachine.InternalError("Operands out of range: " + instr);
+        }
+        return instr.relAddress << 16 | instr.offset;
+    }
+
+    private static int indicatorIndex(Map<String, Integer> indicators, String indicator) {
+        return indicators.computeIfAbsent(indicator, k -> indicators.size());
+    }
+}
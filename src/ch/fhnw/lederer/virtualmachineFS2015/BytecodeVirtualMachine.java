@@ -0,0 +1,250 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.util.Arrays;
+
+// Interpreter over the compact Bytecode form of a program.
+// Instead of one megamorphic execute() call per instruction, all instructions
+// are dispatched by a single switch; pc, sp, ep and fp are kept in local variables.
+// Semantics are identical to VirtualMachine and IntVirtualMachine.
+public class BytecodeVirtualMachine implements IVirtualMachine {
+
+    private static final String SP_OVER_HP=
+        "Stack pointer over heap pointer.";
+
+    private static final String EP_OVER_HP=
+        "Extreme pointer over heap pointer.";
+
+    // stores the program
+    private final int[] code;
+    private final String[] indicators;
+
+    // stores the data
+    // - stack: index 0 upto sp-1
+    // - heap: index store.length - 1 downto hp+1
+    private final int[] store;
+
+    public BytecodeVirtualMachine(ICodeArray code, int storeSize)
+            throws ExecutionError
+    {
+        this(Bytecode.encode(code), storeSize);
+    }
+
+    public BytecodeVirtualMachine(Bytecode code, int storeSize)
+            throws ExecutionError
+    {
+        this.code= code.getCode();
+        this.indicators= code.getIndicators();
+        store= new int[storeSize];
+        execute();
+    }
+
+    private void execute() throws ExecutionError
+    {
+        final int[] code= this.code;
+        final int[] store= this.store;
+        int pc= 0;
+        int sp= 0;
+        int ep= 0;
+        int hp= store.length - 1;
+        int fp= 0;
+        while (pc > -1)
+        {
+            int operand= code[2 * pc + 1];
+            switch (code[2 * pc])
+            {
+                case Bytecode.STOP:
+                    pc= -1;
+                    break;
+                case Bytecode.DUP:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= store[sp - 1];
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.ALLOC_BLOCK:
+                    sp= sp + operand;
+                    if (sp > hp + 1) { throw new ExecutionError(SP_OVER_HP); }
+                    pc= pc + 1;
+                    break;
+                case Bytecode.ALLOC_STACK:
+                    ep= sp + operand;
+                    if (ep > hp + 1) { throw new ExecutionError(EP_OVER_HP); }
+                    pc= pc + 1;
+                    break;
+                case Bytecode.CALL:
+                    if (sp + 2 > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= fp;
+                    store[sp + 1]= ep;
+                    store[sp + 2]= pc;
+                    fp= sp;
+                    sp= sp + 3;
+                    pc= operand;
+                    break;
+                case Bytecode.RETURN:
+                    sp= fp - operand;
+                    pc= store[fp + 2] + 1;
+                    ep= store[fp + 1];
+                    fp= store[fp];
+                    if (ep > hp + 1) { throw new ExecutionError(EP_OVER_HP); }
+                    break;
+                case Bytecode.LOAD_IM_INT:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= operand;
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_ADDR_REL:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= fp + operand;
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.DEREF:
+                    store[sp - 1]= store[store[sp - 1]];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.STORE:
+                    store[store[sp - 2]]= store[sp - 1];
+                    sp= sp - 2;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.STORE_REV:
+                    store[store[sp - 1]]= store[sp - 2];
+                    sp= sp - 2;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_BLOCK:
+                    if (sp - 1 + operand > hp + 1) { throw new ExecutionError(SP_OVER_HP); }
+                    System.arraycopy(store, store[sp - 1], store, sp - 1, operand);
+                    sp= sp - 1 + operand;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.COPY_BLOCK: {
+                    int address= store[sp - 1];
+                    sp= sp - 1 - operand;
+                    System.arraycopy(store, sp, store, address, operand);
+                    pc= pc + 1;
+                    break;
+                }
+                case Bytecode.EQ_BLOCK:
+                    sp= sp - 2 * operand;
+                    store[sp]= Arrays.equals(store, sp, sp + operand, store, sp + operand, sp + 2 * operand) ? 1 : 0;
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.NEG_INT:
+                    store[sp - 1]= -store[sp - 1];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.ADD_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] + store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.SUB_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] - store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.MULT_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] * store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.DIV_TRUNC_INT:
+                    sp= sp - 1;
+                    if (store[sp] == 0) { throw new ExecutionError("Integer division by zero."); }
+                    store[sp - 1]= store[sp - 1] / store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.MOD_TRUNC_INT:
+                    sp= sp - 1;
+                    if (store[sp] == 0) { throw new ExecutionError("Integer remainder by zero."); }
+                    store[sp - 1]= store[sp - 1] % store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.EQ_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] == store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.NE_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] != store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.GT_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] > store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LT_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] < store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.GE_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] >= store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LE_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] <= store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.UNCOND_JUMP:
+                    pc= operand;
+                    break;
+                case Bytecode.COND_JUMP:
+                    sp= sp - 1;
+                    pc= (store[sp] != 0) ? pc + 1 : operand;
+                    break;
+                case Bytecode.INPUT_BOOL: {
+                    System.out.print("? " + indicators[operand] + " : bool = ");
+                    boolean input= InputUtility.readBool();
+                    store[store[sp - 1]]= input ? 1 : 0;
+                    sp= sp - 1;
+                    pc= pc + 1;
+                    break;
+                }
+                case Bytecode.INPUT_INT: {
+                    System.out.print("? " + indicators[operand] + " : int = ");
+                    int input= InputUtility.readInt();
+                    store[store[sp - 1]]= input;
+                    sp= sp - 1;
+                    pc= pc + 1;
+                    break;
+                }
+                case Bytecode.OUTPUT_BOOL:
+                    sp= sp - 1;
+                    System.out.println("! " + indicators[operand] + " : bool = " + (store[sp] != 0));
+                    pc= pc + 1;
+                    break;
+                case Bytecode.OUTPUT_INT:
+                    sp= sp - 1;
+                    System.out.println("! " + indicators[operand] + " : int = " + store[sp]);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_LOCAL:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= store[fp + operand];
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_INDIRECT_OFFSET:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= store[store[fp + (operand >> 16)] + (operand & 0xffff)];
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.JUMP_IF_TRUE:
+                    sp= sp - 1;
+                    pc= (store[sp] != 0) ? operand : pc + 1;
+                    break;
+                default:
+                    throw new InternalError("Unknown opcode " + code[2 * pc] + " at " + pc);
+            }
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Minimal writer for JVM class files (version 52), just what the translation of VM code needs:
+// a constant pool, methods with a Code attribute and a StackMapTable in which every frame has the same
+// locals and an empty operand stack. Labels are resolved when the class is written.
+final class ClassFile {
+
+    static final int ACC_PUBLIC= 0x0001;
+    static final int ACC_STATIC= 0x0008;
+    static final int ACC_FINAL= 0x0010;
+    static final int ACC_SUPER= 0x0020;
+
+    // opcodes
+    static final int ICONST_M1= 0x02;
+    static final int BIPUSH= 0x10;
+    static final int SIPUSH= 0x11;
+    static final int LDC= 0x12;
+    static final int LDC_W= 0x13;
+    static final int ILOAD= 0x15;
+    static final int ALOAD= 0x19;
+    static final int IALOAD= 0x2e;
+    static final int ISTORE= 0x36;
+    static final int ASTORE= 0x3a;
+    static final int IASTORE= 0x4f;
+    static final int POP= 0x57;
+    static final int DUP= 0x59;
+    static final int IADD= 0x60;
+    static final int ISUB= 0x64;
+    static final int IMUL= 0x68;
+    static final int IDIV= 0x6c;
+    static final int IREM= 0x70;
+    static final int INEG= 0x74;
+    static final int IINC= 0x84;
+    static final int IFEQ= 0x99;
+    static final int IFNE= 0x9a;
+    static final int IF_ICMPLE= 0xa4;
+    static final int GOTO= 0xa7;
+    static final int LOOKUPSWITCH= 0xab;
+    static final int IRETURN= 0xac;
+    static final int RETURN= 0xb1;
+    static final int GETSTATIC= 0xb2;
+    static final int GETFIELD= 0xb4;
+    static final int PUTFIELD= 0xb5;
+    static final int INVOKEVIRTUAL= 0xb6;
+    static final int INVOKESPECIAL= 0xb7;
+    static final int INVOKESTATIC= 0xb8;
+    static final int NEW= 0xbb;
+    static final int ATHROW= 0xbf;
+    static final int WIDE= 0xc4;
+
+    // verification types of the StackMapTable
+    static final int ITEM_INTEGER= 1;
+    static final int ITEM_OBJECT= 7;
+
+    private final String name;
+    private final String superName;
+    private final String[] interfaces;
+
+    private final ByteArrayOutputStream pool= new ByteArrayOutputStream();
+    private final DataOutputStream poolOut= new DataOutputStream(pool);
+    private final Map<String, Integer> poolIndices= new HashMap<>();
+    private int poolCount= 1;
+
+    private final List<Code> methods= new ArrayList<>();
+
+    ClassFile(String name, String superName, String... interfaces) {
+        this.name= name;
+        this.superName= superName;
+        this.interfaces= interfaces;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    // constant pool
+
+    int utf8(String value) {
+        return constant("U" + value, out -> { out.writeByte(1); out.writeUTF(value); });
+    }
+
+    int integer(int value) {
+        return constant("I" + value, out -> { out.writeByte(3); out.writeInt(value); });
+    }
+
+    int classRef(String className) {
+        int nameIndex= utf8(className);
+        return constant("C" + className, out -> { out.writeByte(7); out.writeShort(nameIndex); });
+    }
+
+    int string(String value) {
+        int valueIndex= utf8(value);
+        return constant("S" + value, out -> { out.writeByte(8); out.writeShort(valueIndex); });
+    }
+
+    int fieldRef(String owner, String fieldName, String descriptor) {
+        return memberRef(9, owner, fieldName, descriptor);
+    }
+
+    int methodRef(String owner, String methodName, String descriptor) {
+        return memberRef(10, owner, methodName, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String memberName, String descriptor) {
+        int ownerIndex= classRef(owner);
+        int nameIndex= utf8(memberName);
+        int descriptorIndex= utf8(descriptor);
+        int nameAndType= constant("N" + memberName + " " + descriptor,
+            out -> { out.writeByte(12); out.writeShort(nameIndex); out.writeShort(descriptorIndex); });
+        return constant(tag + owner + "." + memberName + " " + descriptor,
+            out -> { out.writeByte(tag); out.writeShort(ownerIndex); out.writeShort(nameAndType); });
+    }
+
+    private interface IConstantWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, IConstantWriter writer) {
+        Integer index= poolIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        if (poolCount == 0xffff) {
+            throw new IllegalStateException("Constant pool of " + name + " is full");
+        }
+        try {
+            writer.write(poolOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndices.put(key, poolCount);
+        return poolCount++;
+    }
+
+    // methods
+
+    // frameLocals: the verification types of the locals in every frame of the StackMapTable,
+    // each an ITEM_INTEGER or a class name for an ITEM_OBJECT
+    Code method(int access, String methodName, String descriptor, int maxStack, int maxLocals, Object... frameLocals) {
+        Code code= new Code(access, methodName, descriptor, maxStack, maxLocals, frameLocals);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toBytes() {
+        // all constants are created before the constant pool is written
+        int thisIndex= classRef(name);
+        int superIndex= classRef(superName);
+        int[] interfaceIndices= new int[interfaces.length];
+        for (int i= 0; i < interfaces.length; i++) {
+            interfaceIndices[i]= classRef(interfaces[i]);
+        }
+        List<byte[]> methodBytes= new ArrayList<>();
+        for (Code method : methods) {
+            methodBytes.add(method.toBytes());
+        }
+
+        try {
+            ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+            DataOutputStream out= new DataOutputStream(bytes);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(52);
+            out.writeShort(poolCount);
+            out.write(pool.toByteArray());
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndices.length);
+            for (int index : interfaceIndices) {
+                out.writeShort(index);
+            }
+            out.writeShort(0); // fields
+            out.writeShort(methodBytes.size());
+            for (byte[] method : methodBytes) {
+                out.write(method);
+            }
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // the body of a method under construction
+    final class Code {
+        private final int access;
+        private final String methodName;
+        private final String descriptor;
+        private final int maxStack;
+        private final int maxLocals;
+        private final Object[] frameLocals;
+
+        private byte[] code= new byte[256];
+        private int length= 0;
+
+        private int[] labels= new int[64]; // offset of each label, -1 while not marked
+        private int labelCount= 0;
+        private final List<int[]> fixups= new ArrayList<>(); // {offset of the instruction, offset of the branch offset, label, width}
+        private final TreeSet<Integer> frames= new TreeSet<>();
+
+        private Code(int access, String methodName, String descriptor, int maxStack, int maxLocals, Object[] frameLocals) {
+            this.access= access;
+            this.methodName= methodName;
+            this.descriptor= descriptor;
+            this.maxStack= maxStack;
+            this.maxLocals= maxLocals;
+            this.frameLocals= frameLocals;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void iload(int local) { local(ILOAD, local); }
+        void istore(int local) { local(ISTORE, local); }
+        void aload(int local) { local(ALOAD, local); }
+        void astore(int local) { local(ASTORE, local); }
+
+        private void local(int opcode, int local) {
+            if (local <= 3) {
+                // iload_0 ... astore_3
+                int base= opcode == ILOAD ? 0x1a : opcode == ALOAD ? 0x2a : opcode == ISTORE ? 0x3b : 0x4b;
+                u1(base + local);
+            } else if (local <= 0xff) {
+                u1(opcode);
+                u1(local);
+            } else {
+                u1(WIDE);
+                u1(opcode);
+                u2(local);
+            }
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(ICONST_M1 + 1 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(BIPUSH);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(SIPUSH);
+                u2(value);
+            } else {
+                ldc(integer(value));
+            }
+        }
+
+        void ldcString(String value) {
+            ldc(string(value));
+        }
+
+        private void ldc(int index) {
+            if (index <= 0xff) {
+                u1(LDC);
+                u1(index);
+            } else {
+                u1(LDC_W);
+                u2(index);
+            }
+        }
+
+        void iinc(int local, int delta) {
+            if (local <= 0xff && delta >= Byte.MIN_VALUE && delta <= Byte.MAX_VALUE) {
+                u1(IINC);
+                u1(local);
+                u1(delta);
+            } else if (delta >= Short.MIN_VALUE && delta <= Short.MAX_VALUE) {
+                u1(WIDE);
+                u1(IINC);
+                u2(local);
+                u2(delta);
+            } else {
+                iload(local);
+                iconst(delta);
+                op(IADD);
+                istore(local);
+            }
+        }
+
+        void field(int opcode, String owner, String fieldName, String fieldDescriptor) {
+            u1(opcode);
+            u2(fieldRef(owner, fieldName, fieldDescriptor));
+        }
+
+        void invoke(int opcode, String owner, String invokedName, String invokedDescriptor) {
+            u1(opcode);
+            u2(methodRef(owner, invokedName, invokedDescriptor));
+        }
+
+        void type(int opcode, String className) {
+            u1(opcode);
+            u2(classRef(className));
+        }
+
+        int newLabel() {
+            if (labelCount == labels.length) {
+                labels= java.util.Arrays.copyOf(labels, 2 * labelCount);
+            }
+            labels[labelCount]= -1;
+            return labelCount++;
+        }
+
+        // marks the current offset as the label, which gets a frame
+        void mark(int label) {
+            labels[label]= length;
+            frames.add(length);
+        }
+
+        void jump(int opcode, int label) {
+            fixups.add(new int[] { length, length + 1, label, 2 });
+            u1(opcode);
+            u2(0);
+        }
+
+        void lookupSwitch(int[] keys, int[] keyLabels, int defaultLabel) {
+            int start= length;
+            u1(LOOKUPSWITCH);
+            while (length % 4 != 0) {
+                u1(0);
+            }
+            fixups.add(new int[] { start, length, defaultLabel, 4 });
+            u4(0);
+            Integer[] order= new Integer[keys.length];
+            for (int i= 0; i < keys.length; i++) {
+                order[i]= i;
+            }
+            java.util.Arrays.sort(order, (a, b) -> Integer.compare(keys[a], keys[b]));
+            u4(keys.length);
+            for (int i : order) {
+                u4(keys[i]);
+                fixups.add(new int[] { start, length, keyLabels[i], 4 });
+                u4(0);
+            }
+        }
+
+        int length() {
+            return length;
+        }
+
+        private void u1(int value) {
+            if (length == code.length) {
+                code= java.util.Arrays.copyOf(code, 2 * length);
+            }
+            code[length++]= (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void u4(int value) {
+            u2(value >> 16);
+            u2(value);
+        }
+
+        private void patch(int offset, int value, int width) {
+            for (int i= width - 1; i >= 0; i--) {
+                code[offset + i]= (byte) value;
+                value= value >> 8;
+            }
+        }
+
+        private byte[] toBytes() {
+            if (length > 0xffff) {
+                throw new IllegalStateException("Method " + methodName + " too large: " + length + " bytes");
+            }
+            for (int[] fixup : fixups) {
+                int target= labels[fixup[2]];
+                if (target < 0) {
+                    throw new IllegalStateException("Label " + fixup[2] + " not marked in " + methodName);
+                }
+                int offset= target - fixup[0];
+                if (fixup[3] == 2 && (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)) {
+                    throw new IllegalStateException("Branch too far in " + methodName);
+                }
+                patch(fixup[1], offset, fixup[3]);
+            }
+
+            try {
+                ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+                DataOutputStream out= new DataOutputStream(bytes);
+                byte[] stackMap= stackMapTable();
+
+                out.writeShort(access);
+                out.writeShort(utf8(methodName));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + length + (stackMap != null ? 6 + stackMap.length : 0));
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0); // exception table
+                if (stackMap != null) {
+                    out.writeShort(1);
+                    out.writeShort(utf8("StackMapTable"));
+                    out.writeInt(stackMap.length);
+                    out.write(stackMap);
+                } else {
+                    out.writeShort(0);
+                }
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // a full frame with the frame locals and an empty stack at every marked offset
+        private byte[] stackMapTable() throws IOException {
+            if (frames.isEmpty()) {
+                return null;
+            }
+            ByteArrayOutputStream bytes= new ByteArrayOutputStream();
+            DataOutputStream out= new DataOutputStream(bytes);
+            out.writeShort(frames.size());
+            int previous= -1;
+            for (int offset : frames) {
+                out.writeByte(255);
+                out.writeShort(offset - previous - 1);
+                out.writeShort(frameLocals.length);
+                for (Object local : frameLocals) {
+                    if (local instanceof String) {
+                        out.writeByte(ITEM_OBJECT);
+                        out.writeShort(classRef((String) local));
+                    } else {
+                        out.writeByte((Integer) local);
+                    }
+                }
+                out.writeShort(0);
+                previous= offset;
+            }
+            return bytes.toByteArray();
+        }
+    }
+}
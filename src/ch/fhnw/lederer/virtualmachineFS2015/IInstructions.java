@@ -121,6 +121,41 @@ public interface IInstructions {
         }
     }
 
+    // block instructions, moving and comparing a record in one instruction
+
+    // load (inside stack -> top of stack) operation of size consecutive values,
+    // the address on top of the stack is replaced by the values starting there
+    class LoadBlock implements IInstr {
+        protected int size;
+        public LoadBlock(int size) { this.size= size; }
+        public String toString() { return "LoadBlock(" + size + ")"; }
+        public IExecInstr toExecInstr(VirtualMachine vm) {
+            return vm.new LoadBlockExec(size);
+        }
+    }
+
+    // store (top of stack -> inside stack) operation of size consecutive values,
+    // the values below the address on top of the stack are copied to that address (block StoreRev)
+    class CopyBlock implements IInstr {
+        protected int size;
+        public CopyBlock(int size) { this.size= size; }
+        public String toString() { return "CopyBlock(" + size + ")"; }
+        public IExecInstr toExecInstr(VirtualMachine vm) {
+            return vm.new CopyBlockExec(size);
+        }
+    }
+
+    // the two blocks of size values on top of the stack are replaced by
+    // whether they are equal value by value
+    class EqBlock implements IInstr {
+        protected int size;
+        public EqBlock(int size) { this.size= size; }
+        public String toString() { return "EqBlock(" + size + ")"; }
+        public IExecInstr toExecInstr(VirtualMachine vm) {
+            return vm.new EqBlockExec(size);
+        }
+    }
+
     // monadic instructions
 
     class NegInt implements IInstr {
@@ -229,6 +264,44 @@ public interface IInstructions {
         }
     }
 
+    // superinstructions, created by PeepholeOptimizer from common sequences
+
+    // LoadAddrRel(relAddress); Deref
+    class LoadLocal implements IInstr {
+        protected int relAddress;
+        public LoadLocal(int relAddress) { this.relAddress= relAddress; }
+        public String toString() { return "LoadLocal(" + relAddress + ")"; }
+        public IExecInstr toExecInstr(VirtualMachine vm) {
+            return vm.new LoadLocalExec(relAddress);
+        }
+    }
+
+    // LoadAddrRel(relAddress); Deref; LoadImInt(offset); AddInt; Deref
+    // loads a field of a record passed by reference,
+    // relAddress and offset fit into 16 bits each (see Bytecode)
+    class LoadIndirectOffset implements IInstr {
+        protected int relAddress;
+        protected int offset;
+        public LoadIndirectOffset(int relAddress, int offset) {
+            this.relAddress= relAddress;
+            this.offset= offset;
+        }
+        public String toString() { return "LoadIndirectOffset(" + relAddress + ", " + offset + ")"; }
+        public IExecInstr toExecInstr(VirtualMachine vm) {
+            return vm.new LoadIndirectOffsetExec(relAddress, offset);
+        }
+    }
+
+    // LoadImInt(1); <bool>; SubInt; CondJump(jumpAddr)
+    class JumpIfTrue implements IInstr {
+        protected int jumpAddr;
+        public JumpIfTrue(int jumpAddr) { this.jumpAddr= jumpAddr; }
+        public String toString() { return "JumpIfTrue(" + jumpAddr + ")"; }
+        public IExecInstr toExecInstr(VirtualMachine vm) {
+            return vm.new JumpIfTrueExec(jumpAddr);
+        }
+    }
+
     // input (input -> stack) and output (stack -> output) instructions
 
     class InputBool implements IInstr {
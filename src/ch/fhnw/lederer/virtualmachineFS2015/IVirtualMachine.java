@@ -17,9 +17,22 @@ public interface IVirtualMachine { // into separate file
     //  - example: division by zero
     class ExecutionError extends Exception
     {
+        // location of the failing instruction, -1 if unknown
+        private int location= -1;
+
         ExecutionError(String errorMessage)
         {
             super("Execution error: " + errorMessage);
         }
+
+        void setLocation(int location)
+        {
+            this.location= location;
+        }
+
+        public int getLocation()
+        {
+            return location;
+        }
     }
 }
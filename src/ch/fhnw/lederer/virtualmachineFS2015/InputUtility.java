@@ -5,15 +5,21 @@ package ch.fhnw.lederer.virtualmachineFS2015;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 
 import ch.fhnw.lederer.virtualmachineFS2015.IVirtualMachine.ExecutionError;
 
-class InputUtility {
+public class InputUtility {
 
     private static BufferedReader reader=
             new BufferedReader(new InputStreamReader(System.in));
 
+    // redirects the input of all VMs, e.g. for running programs non-interactively
+    public static void setInput(InputStream input) {
+        reader= new BufferedReader(new InputStreamReader(input));
+    }
+
     public static boolean readBool() throws ExecutionError {
         String s;
         try {
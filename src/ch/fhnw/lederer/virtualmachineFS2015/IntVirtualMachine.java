@@ -0,0 +1,506 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import ch.fhnw.lederer.virtualmachineFS2015.IInstructions.*;
+
+import java.util.Arrays;
+
+// Variant of VirtualMachine which keeps its store in a flat int[] instead of
+// boxed Data.IBaseData objects. Booleans are coded as integers (0 / 1) just as in Data,
+// so executing an instruction never allocates.
+public class IntVirtualMachine implements IVirtualMachine {
+
+    private static final String SP_OVER_HP=
+        "Stack pointer over heap pointer.";
+
+    private static final String EP_OVER_HP=
+        "Extreme pointer over heap pointer.";
+
+    // stores the program
+    private IExecInstr[] code;
+
+    // stores the data
+    // - stack: index 0 upto sp-1
+    // - heap: index store.length - 1 downto hp+1
+    private int[] store;
+
+    // program counter
+    private int pc;
+
+    // stack pointer
+    // - points to the first currently free location on the stack
+    // - stack grows from 0 upwards
+    private int sp;
+
+    // extreme pointer
+    // - points to the first always free location on the stack
+    private int ep;
+
+    // heap pointer
+    // - points to the first free location on the heap
+    // - heap grows from store.length - 1 downwards
+    private int hp;
+
+    // frame pointer
+    // - provides a reference to each routine incarnation
+    private int fp;
+
+    public IntVirtualMachine(ICodeArray code, int storeSize)
+            throws ExecutionError
+    {
+        loadProgram(code);
+        store= new int[storeSize];
+        execute();
+    }
+
+    // pre
+    // - (forall i | 0 <= i < code.getSize() : code.get(i) != null)
+    private void loadProgram(ICodeArray code) {
+        this.code= new IExecInstr[code.getSize()];
+        for (int i= 0; i < code.getSize(); i++) {
+            this.code[i]= toExecInstr(code.get(i));
+        }
+    }
+
+    // the instructions only know how to create the exec form of VirtualMachine,
+    // therefore the translation happens here
+    private IExecInstr toExecInstr(IInstr instr) {
+        if (instr instanceof Stop) return new StopExec();
+        if (instr instanceof Dup) return new DupExec();
+        if (instr instanceof AllocBlock) return new AllocBlockExec(((AllocBlock) instr).size);
+        if (instr instanceof AllocStack) return new AllocStackExec(((AllocStack) instr).maxSize);
+        if (instr instanceof Call) return new CallExec(((Call) instr).routAddress);
+        if (instr instanceof Return) return new ReturnExec(((Return) instr).size);
+        if (instr instanceof LoadImInt) return new LoadImIntExec(((LoadImInt) instr).value);
+        if (instr instanceof LoadAddrRel) return new LoadAddrRelExec(((LoadAddrRel) instr).relAddress);
+        if (instr instanceof Deref) return new DerefExec();
+        if (instr instanceof Store) return new StoreExec();
+        if (instr instanceof StoreRev) return new StoreRevExec();
+        if (instr instanceof LoadBlock) return new LoadBlockExec(((LoadBlock) instr).size);
+        if (instr instanceof CopyBlock) return new CopyBlockExec(((CopyBlock) instr).size);
+        if (instr instanceof EqBlock) return new EqBlockExec(((EqBlock) instr).size);
+        if (instr instanceof NegInt) return new NegIntExec();
+        if (instr instanceof AddInt) return new AddIntExec();
+        if (instr instanceof SubInt) return new SubIntExec();
+        if (instr instanceof MultInt) return new MultIntExec();
+        if (instr instanceof DivTruncInt) return new DivTruncIntExec();
+        if (instr instanceof ModTruncInt) return new ModTruncIntExec();
+        if (instr instanceof EqInt) return new EqIntExec();
+        if (instr instanceof NeInt) return new NeIntExec();
+        if (instr instanceof GtInt) return new GtIntExec();
+        if (instr instanceof LtInt) return new LtIntExec();
+        if (instr instanceof GeInt) return new GeIntExec();
+        if (instr instanceof LeInt) return new LeIntExec();
+        if (instr instanceof UncondJump) return new UncondJumpExec(((UncondJump) instr).jumpAddr);
+        if (instr instanceof CondJump) return new CondJumpExec(((CondJump) instr).jumpAddr);
+        if (instr instanceof LoadLocal) return new LoadLocalExec(((LoadLocal) instr).relAddress);
+        if (instr instanceof LoadIndirectOffset) return new LoadIndirectOffsetExec(((LoadIndirectOffset) instr).relAddress, ((LoadIndirectOffset) instr).offset);
+        if (instr instanceof JumpIfTrue) return new JumpIfTrueExec(((JumpIfTrue) instr).jumpAddr);
+        if (instr instanceof InputBool) return new InputBoolExec(((InputBool) instr).indicator);
+        if (instr instanceof InputInt) return new InputIntExec(((InputInt) instr).indicator);
+        if (instr instanceof OutputBool) return new OutputBoolExec(((OutputBool) instr).indicator);
+        if (instr instanceof OutputInt) return new OutputIntExec(((OutputInt) instr).indicator);
+        throw new InternalError("Unknown instruction: " + instr);
+    }
+
+    private void execute() throws ExecutionError
+    {
+        pc= 0;
+        sp= 0;
+        ep= 0;
+        hp= store.length - 1;
+        fp= 0;
+        while (pc > -1)
+        {
+            code[pc].execute();
+        }
+    }
+
+    // stop instruction
+    public class StopExec extends Stop implements IExecInstr {
+        public void execute()
+        {
+            pc= -1;
+        }
+    }
+
+    // stack instruction
+    public class DupExec extends Dup implements IExecInstr {
+        public void execute() throws ExecutionError
+        {
+            if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+            store[sp]= store[sp - 1];
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    // routine operations
+
+    public class AllocBlockExec extends AllocBlock implements IExecInstr {
+        public AllocBlockExec(int size) { super(size); }
+
+        public void execute() throws ExecutionError
+        {
+            sp= sp + size;
+            if (sp > hp + 1) { throw new ExecutionError(SP_OVER_HP); }
+            pc= pc + 1;
+        }
+    }
+
+    public class AllocStackExec extends AllocStack implements IExecInstr {
+        public AllocStackExec(int maxSize) { super(maxSize); }
+
+        public void execute() throws ExecutionError
+        {
+            ep= sp + maxSize;
+            if (ep > hp + 1) { throw new ExecutionError(EP_OVER_HP); }
+            pc= pc + 1;
+        }
+    }
+
+    public class CallExec extends Call implements IExecInstr {
+        public CallExec(int routAddress) { super(routAddress); }
+
+        public void execute() throws ExecutionError
+        {
+            if (sp + 2 > hp) { throw new ExecutionError(SP_OVER_HP); }
+            store[sp]= fp;
+            store[sp + 1]= ep;
+            store[sp + 2]= pc;
+            fp= sp;
+            sp= sp + 3;
+            pc= routAddress;
+        }
+    }
+
+    public class ReturnExec extends Return implements IExecInstr {
+        public ReturnExec(int size) { super(size); }
+
+        public void execute() throws ExecutionError
+        {
+            sp= fp - size;
+            pc= store[fp + 2] + 1;
+            ep= store[fp + 1];
+            fp= store[fp];
+            if (ep > hp + 1) { throw new ExecutionError(EP_OVER_HP); }
+        }
+    }
+
+    // load immediate value (value -> stack)
+    public class LoadImIntExec extends LoadImInt implements IExecInstr {
+        public LoadImIntExec(int value) { super(value); }
+
+        public void execute() throws ExecutionError
+        {
+            if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+            store[sp]= value;
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    // load address relative to frame pointer (address -> stack)
+    public class LoadAddrRelExec extends LoadAddrRel implements IExecInstr {
+        public LoadAddrRelExec(int relAddress) { super(relAddress); }
+
+        public void execute() throws ExecutionError
+        {
+            if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+            store[sp]= fp + relAddress;
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    // load instruction with address on stack
+    // load (inside stack -> top of stack) operation
+    public class DerefExec extends Deref implements IExecInstr {
+        public void execute()
+        {
+            store[sp - 1]= store[store[sp - 1]];
+            pc= pc + 1;
+        }
+    }
+
+    // store instruction with address on stack
+    // store (top of stack -> inside stack) operation
+    public class StoreExec extends Store implements IExecInstr {
+        public void execute()
+        {
+            store[store[sp - 2]]= store[sp - 1];
+            sp= sp - 2;
+            pc= pc + 1;
+        }
+    }
+
+    // store instruction with address on stack
+    // store (top of stack -> inside stack) operation
+    public class StoreRevExec extends StoreRev implements IExecInstr {
+        public void execute()
+        {
+            store[store[sp - 1]]= store[sp - 2];
+            sp= sp - 2;
+            pc= pc + 1;
+        }
+    }
+
+    // block instructions
+
+    public class LoadBlockExec extends LoadBlock implements IExecInstr {
+        public LoadBlockExec(int size) { super(size); }
+
+        public void execute() throws ExecutionError
+        {
+            if (sp - 1 + size > hp + 1) { throw new ExecutionError(SP_OVER_HP); }
+            System.arraycopy(store, store[sp - 1], store, sp - 1, size);
+            sp= sp - 1 + size;
+            pc= pc + 1;
+        }
+    }
+
+    public class CopyBlockExec extends CopyBlock implements IExecInstr {
+        public CopyBlockExec(int size) { super(size); }
+
+        public void execute()
+        {
+            int address= store[sp - 1];
+            sp= sp - 1 - size;
+            System.arraycopy(store, sp, store, address, size);
+            pc= pc + 1;
+        }
+    }
+
+    public class EqBlockExec extends EqBlock implements IExecInstr {
+        public EqBlockExec(int size) { super(size); }
+
+        public void execute()
+        {
+            sp= sp - 2 * size;
+            store[sp]= Arrays.equals(store, sp, sp + size, store, sp + size, sp + 2 * size) ? 1 : 0;
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    // monadic instructions
+
+    public class NegIntExec extends NegInt implements IExecInstr {
+        public void execute()
+        {
+            store[sp - 1]= -store[sp - 1];
+            pc= pc + 1;
+        }
+    }
+
+    // dyadic instructions
+
+    public class AddIntExec extends AddInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] + store[sp];
+            pc= pc + 1;
+        }
+    }
+
+    public class SubIntExec extends SubInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] - store[sp];
+            pc= pc + 1;
+        }
+    }
+
+    public class MultIntExec extends MultInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] * store[sp];
+            pc= pc + 1;
+        }
+    }
+
+    public class DivTruncIntExec extends DivTruncInt implements IExecInstr {
+        public void execute() throws ExecutionError
+        {
+            sp= sp - 1;
+            if (store[sp] == 0) { throw new ExecutionError("Integer division by zero."); }
+            store[sp - 1]= store[sp - 1] / store[sp];
+            pc= pc + 1;
+        }
+    }
+
+    public class ModTruncIntExec extends ModTruncInt implements IExecInstr {
+        public void execute() throws ExecutionError
+        {
+            sp= sp - 1;
+            if (store[sp] == 0) { throw new ExecutionError("Integer remainder by zero."); }
+            store[sp - 1]= store[sp - 1] % store[sp];
+            pc= pc + 1;
+        }
+    }
+
+    public class EqIntExec extends EqInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] == store[sp] ? 1 : 0;
+            pc= pc + 1;
+        }
+    }
+
+    public class NeIntExec extends NeInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] != store[sp] ? 1 : 0;
+            pc= pc + 1;
+        }
+    }
+
+    public class GtIntExec extends GtInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] > store[sp] ? 1 : 0;
+            pc= pc + 1;
+        }
+    }
+
+    public class LtIntExec extends LtInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] < store[sp] ? 1 : 0;
+            pc= pc + 1;
+        }
+    }
+
+    public class GeIntExec extends GeInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] >= store[sp] ? 1 : 0;
+            pc= pc + 1;
+        }
+    }
+
+    public class LeIntExec extends LeInt implements IExecInstr {
+        public void execute()
+        {
+            sp= sp - 1;
+            store[sp - 1]= store[sp - 1] <= store[sp] ? 1 : 0;
+            pc= pc + 1;
+        }
+    }
+
+    // jump instructions
+
+    public class UncondJumpExec extends UncondJump implements IExecInstr {
+        public UncondJumpExec(int jumpAddr) { super(jumpAddr); }
+
+        public void execute()
+        {
+            pc= jumpAddr;
+        }
+    }
+
+    public class CondJumpExec extends CondJump implements IExecInstr {
+        public CondJumpExec(int jumpAddr) { super(jumpAddr); }
+
+        public void execute()
+        {
+            sp= sp - 1;
+            pc= (store[sp] != 0) ? pc + 1 : jumpAddr;
+        }
+    }
+
+    // superinstructions
+
+    public class LoadLocalExec extends LoadLocal implements IExecInstr {
+        public LoadLocalExec(int relAddress) { super(relAddress); }
+
+        public void execute() throws ExecutionError
+        {
+            if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+            store[sp]= store[fp + relAddress];
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    public class LoadIndirectOffsetExec extends LoadIndirectOffset implements IExecInstr {
+        public LoadIndirectOffsetExec(int relAddress, int offset) { super(relAddress, offset); }
+
+        public void execute() throws ExecutionError
+        {
+            if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+            store[sp]= store[store[fp + relAddress] + offset];
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    public class JumpIfTrueExec extends JumpIfTrue implements IExecInstr {
+        public JumpIfTrueExec(int jumpAddr) { super(jumpAddr); }
+
+        public void execute()
+        {
+            sp= sp - 1;
+            pc= (store[sp] != 0) ? jumpAddr : pc + 1;
+        }
+    }
+
+    // input (input -> stack) and output (stack -> output) instructions
+
+    public class InputBoolExec extends InputBool implements IExecInstr {
+        public InputBoolExec(String indicator) { super(indicator); }
+
+        public void execute() throws ExecutionError
+        {
+            System.out.print("? " + indicator + " : bool = ");
+            boolean input= InputUtility.readBool();
+            store[store[sp - 1]]= input ? 1 : 0;
+            sp= sp - 1;
+            pc= pc + 1;
+        }
+    }
+
+    public class InputIntExec extends InputInt implements IExecInstr {
+        public InputIntExec(String indicator) { super(indicator); }
+
+        public void execute() throws ExecutionError
+        {
+            System.out.print("? " + indicator + " : int = ");
+            int input= InputUtility.readInt();
+            store[store[sp - 1]]= input;
+            sp= sp - 1;
+            pc= pc + 1;
+        }
+    }
+
+    public class OutputBoolExec extends OutputBool implements IExecInstr {
+        public OutputBoolExec(String indicator) { super(indicator); }
+
+        public void execute()
+        {
+            sp= sp - 1;
+            boolean output= store[sp] != 0;
+            System.out.println("! " + indicator + " : bool = " + output);
+            pc= pc + 1;
+        }
+    }
+
+    public class OutputIntExec extends OutputInt implements IExecInstr {
+        public OutputIntExec(String indicator) { super(indicator); }
+
+        public void execute()
+        {
+            sp= sp - 1;
+            int output= store[sp];
+            System.out.println("! " + indicator + " : int = " + output);
+            pc= pc + 1;
+        }
+    }
+}
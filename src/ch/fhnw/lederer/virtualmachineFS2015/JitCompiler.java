@@ -0,0 +1,156 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import static ch.fhnw.lederer.virtualmachineFS2015.ClassFile.*;
+
+// Translates a region of Bytecode into the JVM class file of a TieredVirtualMachine.ICompiledCode.
+// The registers are loaded from the VM when the code is entered and written back before calls
+// and when the region is left; calls go through TieredVirtualMachine.call. The code can be entered
+// at the entry and at the target of every UncondJump, which are the loop heads (on-stack replacement).
+final class JitCompiler extends JvmTranslator {
+
+    private static final String VM= "ch/fhnw/lederer/virtualmachineFS2015/TieredVirtualMachine";
+    private static final String COMPILED= VM + "$ICompiledCode";
+    private static final String ERROR= "ch/fhnw/lederer/virtualmachineFS2015/IVirtualMachine$ExecutionError";
+
+    // locals of run, followed by those of JvmTranslator
+    private static final int THIS= 0;
+    private static final int VM_LOCAL= 1;
+    private static final int ENTRY= 2;
+
+    private JitCompiler(Bytecode bytecode, int entry) {
+        super(bytecode, entry, VM, ERROR);
+    }
+
+    // the class file, or null if the region contains something that cannot be compiled
+    static byte[] compile(Bytecode bytecode, int entry, String className) {
+        return new JitCompiler(bytecode, entry).translate(className);
+    }
+
+    // the locations at which a compiled region can be entered
+    static List<Integer> entries(Bytecode bytecode, int entry) {
+        JitCompiler compiler= new JitCompiler(bytecode, entry);
+        return compiler.findRegion() ? compiler.entries() : List.of();
+    }
+
+    private List<Integer> entries() {
+        TreeSet<Integer> entries= new TreeSet<>();
+        entries.add(entry);
+        for (int pc : region) {
+            if (code[2 * pc] == Bytecode.UNCOND_JUMP) {
+                entries.add(code[2 * pc + 1]);
+            }
+        }
+        return new ArrayList<>(entries);
+    }
+
+    private byte[] translate(String className) {
+        if (!findRegion()) {
+            return null;
+        }
+        ClassFile classFile= new ClassFile(className, "java/lang/Object", COMPILED);
+
+        ClassFile.Code init= classFile.method(ACC_PUBLIC, "<init>", "()V", 1, 1);
+        init.aload(THIS);
+        init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+        init.op(RETURN);
+
+        out= classFile.method(ACC_PUBLIC, "run", "(L" + VM + ";I)V", MAX_STACK, MAX_LOCALS,
+            "java/lang/Object", VM, ITEM_INTEGER, "[I", ITEM_INTEGER, ITEM_INTEGER, ITEM_INTEGER, ITEM_INTEGER);
+        createLabels();
+
+        // prologue: load the registers, go to the entry
+        out.aload(VM_LOCAL);
+        out.field(GETFIELD, VM, "store", "[I");
+        out.astore(STORE);
+        loadRegisters();
+        out.aload(VM_LOCAL);
+        out.field(GETFIELD, VM, "hp", "I");
+        out.istore(HP);
+        List<Integer> entries= entries();
+        int[] keys= new int[entries.size()];
+        int[] keyLabels= new int[entries.size()];
+        for (int i= 0; i < keys.length; i++) {
+            keys[i]= entries.get(i);
+            keyLabels[i]= labels[keys[i]];
+        }
+        int unknownEntry= out.newLabel();
+        out.iload(ENTRY);
+        out.lookupSwitch(keys, keyLabels, unknownEntry);
+        out.mark(unknownEntry);
+        out.iload(ENTRY);
+        out.invoke(INVOKESTATIC, VM, "unknownEntry", "(I)Ljava/lang/RuntimeException;");
+        out.op(ATHROW);
+
+        translateRegion();
+
+        try {
+            return classFile.toBytes();
+        } catch (IllegalStateException e) {
+            return null; // too large for a JVM method, stays interpreted
+        }
+    }
+
+    @Override
+    void stop() {
+        storeRegisters();
+        storePc(() -> out.iconst(-1));
+        out.op(RETURN);
+    }
+
+    @Override
+    void call(int pc, int target) {
+        storeRegisters();
+        storePc(() -> out.iconst(pc));
+        out.aload(VM_LOCAL);
+        out.iconst(target);
+        out.invoke(INVOKEVIRTUAL, VM, "call", "(I)V");
+        loadRegisters();
+    }
+
+    @Override
+    void ret(int size) {
+        // sp= fp - size; pc= store[fp + 2] + 1; ep= store[fp + 1]; fp= store[fp]
+        out.iload(FP);
+        out.iconst(size);
+        out.op(ISUB);
+        out.istore(SP);
+        storePc(() -> { element(FP, 2); out.iconst(1); out.op(IADD); });
+        element(FP, 1);
+        out.istore(EP);
+        element(FP, 0);
+        out.istore(FP);
+        storeRegisters();
+        check(EP, 1, TieredVirtualMachine.EP_OVER_HP);
+        out.op(RETURN);
+    }
+
+    private void loadRegisters() {
+        for (int local= SP; local <= EP; local++) {
+            out.aload(VM_LOCAL);
+            out.field(GETFIELD, VM, register(local), "I");
+            out.istore(local);
+        }
+    }
+
+    private void storeRegisters() {
+        for (int local= SP; local <= EP; local++) {
+            out.aload(VM_LOCAL);
+            out.iload(local);
+            out.field(PUTFIELD, VM, register(local), "I");
+        }
+    }
+
+    private void storePc(Runnable value) {
+        out.aload(VM_LOCAL);
+        value.run();
+        out.field(PUTFIELD, VM, "pc", "I");
+    }
+
+    private static String register(int local) {
+        return local == SP ? "sp" : local == FP ? "fp" : "ep";
+    }
+}
@@ -0,0 +1,320 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import static ch.fhnw.lederer.virtualmachineFS2015.ClassFile.*;
+
+// Translation of a region of Bytecode into the body of a JVM method, shared by JitCompiler and AotCompiler.
+// A region is everything reachable from its entry (a routine or the main program) without following calls,
+// it ends with Return or Stop. Every VM instruction becomes a short sequence of JVM bytecode working on
+// the store, with sp, fp, ep and hp in locals. Stop, Call and Return depend on how the code is run,
+// the subclasses translate them. Comparisons, block instructions, input, output and errors call static
+// helpers of the runtime class, which must have the signatures of those in TieredVirtualMachine.
+abstract class JvmTranslator {
+
+    // locals of the method, 0 to 2 are up to the subclass
+    static final int STORE= 3;
+    static final int SP= 4;
+    static final int FP= 5;
+    static final int EP= 6;
+    static final int HP= 7;
+    static final int MAX_LOCALS= 8;
+    static final int MAX_STACK= 8;
+
+    final int[] code;
+    final String[] indicators;
+    final int entry;
+    final TreeSet<Integer> region= new TreeSet<>();
+    ClassFile.Code out;
+    int[] labels; // per location of the code, -1 outside the region
+
+    private final String runtime;
+    private final String errorType;
+
+    JvmTranslator(Bytecode bytecode, int entry, String runtime, String errorType) {
+        this.code= bytecode.getCode();
+        this.indicators= bytecode.getIndicators();
+        this.entry= entry;
+        this.runtime= runtime;
+        this.errorType= errorType;
+    }
+
+    // false if the code leaves the program
+    boolean findRegion() {
+        int size= code.length / 2;
+        List<Integer> work= new ArrayList<>();
+        work.add(entry);
+        while (!work.isEmpty()) {
+            int pc= work.remove(work.size() - 1);
+            if (pc < 0 || pc >= size) {
+                return false;
+            }
+            if (!region.add(pc)) {
+                continue;
+            }
+            int operand= code[2 * pc + 1];
+            switch (code[2 * pc]) {
+                case Bytecode.STOP:
+                case Bytecode.RETURN:
+                    break;
+                case Bytecode.UNCOND_JUMP:
+                    work.add(operand);
+                    break;
+                case Bytecode.COND_JUMP:
+                case Bytecode.JUMP_IF_TRUE:
+                    work.add(operand);
+                    work.add(pc + 1);
+                    break;
+                default:
+                    work.add(pc + 1);
+            }
+        }
+        return true;
+    }
+
+    // pre: the region is found, out is the method
+    // creates a label for every location of the region
+    void createLabels() {
+        labels= new int[code.length / 2];
+        Arrays.fill(labels, -1);
+        for (int pc : region) {
+            labels[pc]= out.newLabel();
+        }
+    }
+
+    // pre: the labels are created, the registers are in their locals
+    void translateRegion() {
+        for (int pc : region) {
+            out.mark(labels[pc]);
+            instruction(pc);
+        }
+    }
+
+    abstract void stop();
+
+    // the registers are in their locals, pc is the location of the Call
+    abstract void call(int pc, int target);
+
+    abstract void ret(int size);
+
+    private void instruction(int pc) {
+        int operand= code[2 * pc + 1];
+        switch (code[2 * pc]) {
+            case Bytecode.STOP:
+                stop();
+                break;
+            case Bytecode.DUP:
+                checkStack();
+                out.aload(STORE);
+                out.iload(SP);
+                top(1);
+                out.op(IASTORE);
+                out.iinc(SP, 1);
+                break;
+            case Bytecode.ALLOC_BLOCK:
+                out.iinc(SP, operand);
+                check(SP, 1, TieredVirtualMachine.SP_OVER_HP);
+                break;
+            case Bytecode.ALLOC_STACK:
+                out.iload(SP);
+                out.iconst(operand);
+                out.op(IADD);
+                out.istore(EP);
+                check(EP, 1, TieredVirtualMachine.EP_OVER_HP);
+                break;
+            case Bytecode.CALL:
+                call(pc, operand);
+                break;
+            case Bytecode.RETURN:
+                ret(operand);
+                break;
+            case Bytecode.LOAD_IM_INT:
+                push(() -> out.iconst(operand));
+                break;
+            case Bytecode.LOAD_ADDR_REL:
+                push(() -> { out.iload(FP); out.iconst(operand); out.op(IADD); });
+                break;
+            case Bytecode.DEREF:
+                // store[sp - 1]= store[store[sp - 1]]
+                out.aload(STORE);
+                index(1);
+                out.aload(STORE);
+                top(1);
+                out.op(IALOAD);
+                out.op(IASTORE);
+                break;
+            case Bytecode.STORE:
+            case Bytecode.STORE_REV: {
+                boolean reverse= code[2 * pc] == Bytecode.STORE_REV;
+                out.aload(STORE);
+                top(reverse ? 1 : 2);
+                top(reverse ? 2 : 1);
+                out.op(IASTORE);
+                out.iinc(SP, -2);
+                break;
+            }
+            case Bytecode.LOAD_BLOCK:
+                check(SP, 2 - operand, TieredVirtualMachine.SP_OVER_HP); // sp - 1 + size > hp + 1
+                block("loadBlock", operand);
+                break;
+            case Bytecode.COPY_BLOCK: block("copyBlock", operand); break;
+            case Bytecode.EQ_BLOCK: block("eqBlock", operand); break;
+            case Bytecode.NEG_INT:
+                out.aload(STORE);
+                index(1);
+                top(1);
+                out.op(INEG);
+                out.op(IASTORE);
+                break;
+            case Bytecode.ADD_INT: dyadic(IADD, null); break;
+            case Bytecode.SUB_INT: dyadic(ISUB, null); break;
+            case Bytecode.MULT_INT: dyadic(IMUL, null); break;
+            case Bytecode.DIV_TRUNC_INT: divide(IDIV, "Integer division by zero."); break;
+            case Bytecode.MOD_TRUNC_INT: divide(IREM, "Integer remainder by zero."); break;
+            case Bytecode.EQ_INT: dyadic(0, "eq"); break;
+            case Bytecode.NE_INT: dyadic(0, "ne"); break;
+            case Bytecode.GT_INT: dyadic(0, "gt"); break;
+            case Bytecode.LT_INT: dyadic(0, "lt"); break;
+            case Bytecode.GE_INT: dyadic(0, "ge"); break;
+            case Bytecode.LE_INT: dyadic(0, "le"); break;
+            case Bytecode.UNCOND_JUMP:
+                out.jump(GOTO, labels[operand]);
+                break;
+            case Bytecode.COND_JUMP:
+            case Bytecode.JUMP_IF_TRUE:
+                out.iinc(SP, -1);
+                out.aload(STORE);
+                out.iload(SP);
+                out.op(IALOAD);
+                out.jump(code[2 * pc] == Bytecode.COND_JUMP ? IFEQ : IFNE, labels[operand]);
+                break;
+            case Bytecode.INPUT_BOOL: io("inputBool", operand); break;
+            case Bytecode.INPUT_INT: io("inputInt", operand); break;
+            case Bytecode.OUTPUT_BOOL: io("outputBool", operand); break;
+            case Bytecode.OUTPUT_INT: io("outputInt", operand); break;
+            case Bytecode.LOAD_LOCAL:
+                push(() -> element(FP, operand));
+                break;
+            case Bytecode.LOAD_INDIRECT_OFFSET:
+                // store[store[fp + relAddress] + offset]
+                push(() -> {
+                    out.aload(STORE);
+                    element(FP, operand >> 16);
+                    out.iconst(operand & 0xffff);
+                    out.op(IADD);
+                    out.op(IALOAD);
+                });
+                break;
+            default:
+                throw new IVirtualMachine.InternalError("Unknown opcode " + code[2 * pc] + " at " + pc);
+        }
+    }
+
+    // store[sp]= value; sp= sp + 1
+    private void push(Runnable value) {
+        checkStack();
+        out.aload(STORE);
+        out.iload(SP);
+        value.run();
+        out.op(IASTORE);
+        out.iinc(SP, 1);
+    }
+
+    // sp= sp - 1; store[sp - 1]= store[sp - 1] op store[sp]
+    private void dyadic(int opcode, String helper) {
+        out.iinc(SP, -1);
+        out.aload(STORE);
+        index(1);
+        top(1);
+        top(0);
+        if (helper != null) {
+            out.invoke(INVOKESTATIC, runtime, helper, "(II)I");
+        } else {
+            out.op(opcode);
+        }
+        out.op(IASTORE);
+    }
+
+    private void divide(int opcode, String message) {
+        // if (store[sp - 1] == 0) throw
+        int ok= out.newLabel();
+        top(1);
+        out.jump(IFNE, ok);
+        error(message);
+        out.mark(ok);
+        dyadic(opcode, null);
+    }
+
+    // sp= helper(store, sp, size)
+    private void block(String helper, int size) {
+        out.aload(STORE);
+        out.iload(SP);
+        out.iconst(size);
+        out.invoke(INVOKESTATIC, runtime, helper, "([III)I");
+        out.istore(SP);
+    }
+
+    // sp= helper(store, sp, indicator)
+    private void io(String helper, int indicator) {
+        out.aload(STORE);
+        out.iload(SP);
+        out.ldcString(indicators[indicator]);
+        out.invoke(INVOKESTATIC, runtime, helper, "([IILjava/lang/String;)I");
+        out.istore(SP);
+    }
+
+    // if (sp > hp) throw, before a push
+    void checkStack() {
+        check(SP, 0, TieredVirtualMachine.SP_OVER_HP);
+    }
+
+    // if (local > hp + slack) throw
+    void check(int local, int slack, String message) {
+        int ok= out.newLabel();
+        out.iload(local);
+        out.iload(HP);
+        if (slack != 0) {
+            out.iconst(slack);
+            out.op(IADD);
+        }
+        out.jump(IF_ICMPLE, ok);
+        error(message);
+        out.mark(ok);
+    }
+
+    void error(String message) {
+        out.ldcString(message);
+        out.invoke(INVOKESTATIC, runtime, "error", "(Ljava/lang/String;)L" + errorType + ";");
+        out.op(ATHROW);
+    }
+
+    // sp - depth
+    void index(int depth) {
+        out.iload(SP);
+        if (depth != 0) {
+            out.iconst(depth);
+            out.op(ISUB);
+        }
+    }
+
+    // store[sp - depth]
+    void top(int depth) {
+        out.aload(STORE);
+        index(depth);
+        out.op(IALOAD);
+    }
+
+    // store[local + offset]
+    void element(int local, int offset) {
+        out.aload(STORE);
+        out.iload(local);
+        if (offset != 0) {
+            out.iconst(offset);
+            out.op(IADD);
+        }
+        out.op(IALOAD);
+    }
+}
@@ -0,0 +1,271 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import ch.fhnw.lederer.virtualmachineFS2015.IInstructions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites the code produced by the code generator, between code generation and ICodeArray.resize():
+// - AllocBlock(a); AllocBlock(b)                        -> AllocBlock(a + b)
+// - LoadImInt(a); LoadImInt(b); AddInt                  -> LoadImInt(a + b)
+// - LoadAddrRel(r); LoadImInt(k); AddInt                -> LoadAddrRel(r + k)
+// - LoadAddrRel(r); Deref                               -> LoadLocal(r)
+// - LoadLocal(r); LoadImInt(k); AddInt; Deref           -> LoadIndirectOffset(r, k)
+// - LoadLocal(r); Deref                                 -> LoadIndirectOffset(r, 0)
+// - LoadImInt(1); <expression>; SubInt; CondJump(a)     -> <expression>; JumpIfTrue(a)
+// and lets jumps to UncondJump or to LoadImInt(c); CondJump(a) go directly to where these lead.
+// A sequence is only replaced if no jump, call or return leads into its middle.
+// The passes are repeated until nothing changes, after each pass the jump and call addresses are relocated.
+// The source positions of the locations, if given, are moved along: a replacement gets the position
+// of the last instruction it replaces that has one.
+public final class PeepholeOptimizer {
+
+    // longest expression between LoadImInt(1) and SubInt that is considered
+    private static final int MAX_EXPRESSION_LENGTH= 64;
+
+    // longest chain of jumps that is followed
+    private static final int MAX_JUMP_CHAIN= 16;
+
+    private PeepholeOptimizer() {}
+
+    // pre
+    // - the code is complete, the addresses of all calls are set
+    // post
+    // - the instructions from location 0 up to the first null are replaced,
+    //   the rest of the code array is null
+    public static void optimize(ICodeArray code) throws ICodeArray.CodeTooSmallError {
+        optimize(code, new SourcePosition[0]);
+    }
+
+    // as optimize(code), returns the positions of the optimized code
+    // pre
+    // - positions[i] is the source position of location i, or null; missing locations have none
+    public static SourcePosition[] optimize(ICodeArray code, SourcePosition[] positions) throws ICodeArray.CodeTooSmallError {
+        List<IInstr> instrs= new ArrayList<>();
+        List<SourcePosition> sources= new ArrayList<>();
+        while (instrs.size() < code.getSize() && code.get(instrs.size()) != null) {
+            sources.add(instrs.size() < positions.length ? positions[instrs.size()] : null);
+            instrs.add(code.get(instrs.size()));
+        }
+        int size= instrs.size();
+
+        boolean changed= true;
+        while (changed) {
+            List<IInstr> optimized= fuse(instrs, sources);
+            changed= optimized != instrs;
+            instrs= optimized;
+            List<IInstr> threaded= threadJumps(instrs);
+            changed= changed || threaded != instrs;
+            instrs= threaded;
+        }
+
+        for (int i= 0; i < size; i++) {
+            code.put(i, i < instrs.size() ? instrs.get(i) : null);
+        }
+        return sources.toArray(new SourcePosition[0]);
+    }
+
+    // one pass over the code, returns the same list if nothing was replaced;
+    // the positions (one per instruction) are updated to those of the result
+    private static List<IInstr> fuse(List<IInstr> instrs, List<SourcePosition> positions) {
+        boolean[] target= jumpTargets(instrs);
+        List<IInstr> result= new ArrayList<>(instrs.size());
+        List<SourcePosition> resultPositions= new ArrayList<>(instrs.size());
+        // new location of every old location (and of the end), removed instructions map to their successor
+        int[] relocation= new int[instrs.size() + 1];
+        boolean changed= false;
+
+        int i= 0;
+        while (i < instrs.size()) {
+            IInstr instr= instrs.get(i);
+            IInstr replacement= null;
+            int length= 0; // number of instructions replaced
+            int keep= 0; // number of instructions after i kept in between (JumpIfTrue)
+
+            if (instr instanceof AllocBlock && is(instrs, i + 1, AllocBlock.class) && free(target, i, 2)) {
+                replacement= new AllocBlock(((AllocBlock) instr).size + ((AllocBlock) instrs.get(i + 1)).size);
+                length= 2;
+            } else if (instr instanceof LoadImInt && is(instrs, i + 1, LoadImInt.class) && is(instrs, i + 2, AddInt.class) && free(target, i, 3)) {
+                replacement= new LoadImInt(((LoadImInt) instr).value + ((LoadImInt) instrs.get(i + 1)).value);
+                length= 3;
+            } else if (instr instanceof LoadAddrRel && is(instrs, i + 1, LoadImInt.class) && is(instrs, i + 2, AddInt.class) && free(target, i, 3)) {
+                replacement= new LoadAddrRel(((LoadAddrRel) instr).relAddress + ((LoadImInt) instrs.get(i + 1)).value);
+                length= 3;
+            } else if (instr instanceof LoadAddrRel && is(instrs, i + 1, Deref.class) && free(target, i, 2)) {
+                replacement= new LoadLocal(((LoadAddrRel) instr).relAddress);
+                length= 2;
+            } else if (instr instanceof LoadLocal && is(instrs, i + 1, LoadImInt.class) && is(instrs, i + 2, AddInt.class)
+                    && is(instrs, i + 3, Deref.class) && free(target, i, 4)
+                    && Bytecode.fitsLoadIndirectOffset(((LoadLocal) instr).relAddress, ((LoadImInt) instrs.get(i + 1)).value)) {
+                replacement= new LoadIndirectOffset(((LoadLocal) instr).relAddress, ((LoadImInt) instrs.get(i + 1)).value);
+                length= 4;
+            } else if (instr instanceof LoadLocal && is(instrs, i + 1, Deref.class) && free(target, i, 2)
+                    && Bytecode.fitsLoadIndirectOffset(((LoadLocal) instr).relAddress, 0)) {
+                replacement= new LoadIndirectOffset(((LoadLocal) instr).relAddress, 0);
+                length= 2;
+            } else if (instr instanceof LoadImInt && ((LoadImInt) instr).value == 1) {
+                int end= endOfExpression(instrs, target, i + 1);
+                if (end > 0 && is(instrs, end + 1, CondJump.class) && !target[end] && !target[end + 1]) {
+                    keep= end - (i + 1);
+                    replacement= new JumpIfTrue(((CondJump) instrs.get(end + 1)).jumpAddr);
+                    length= keep + 3;
+                }
+            }
+
+            if (replacement == null) {
+                relocation[i]= result.size();
+                result.add(instr);
+                resultPositions.add(positions.get(i));
+                i++;
+            } else {
+                changed= true;
+                relocation[i]= result.size(); // LoadImInt(1) of JumpIfTrue is dropped
+                for (int k= i + 1; k <= i + keep; k++) {
+                    relocation[k]= result.size();
+                    result.add(instrs.get(k));
+                    resultPositions.add(positions.get(k));
+                }
+                SourcePosition position= positions.get(i);
+                for (int k= i + keep + 1; k < i + length; k++) {
+                    relocation[k]= result.size();
+                    if (positions.get(k) != null) position= positions.get(k);
+                }
+                result.add(replacement);
+                resultPositions.add(position);
+                i= i + length;
+            }
+        }
+        relocation[instrs.size()]= result.size();
+
+        if (!changed) {
+            return instrs;
+        }
+        positions.clear();
+        positions.addAll(resultPositions);
+        for (int k= 0; k < result.size(); k++) {
+            result.set(k, relocate(result.get(k), relocation));
+        }
+        return result;
+    }
+
+    // location after the expression starting at start that leaves exactly one value on the stack,
+    // without jumps into it; -1 if there is no such expression
+    private static int endOfExpression(List<IInstr> instrs, boolean[] target, int start) {
+        int depth= 0;
+        for (int i= start; i < instrs.size() && i < start + MAX_EXPRESSION_LENGTH; i++) {
+            IInstr instr= instrs.get(i);
+            if (target[i]) return -1;
+            int pops;
+            int pushes;
+            if (instr instanceof LoadImInt || instr instanceof LoadAddrRel || instr instanceof LoadLocal
+                    || instr instanceof LoadIndirectOffset) {
+                pops= 0;
+                pushes= 1;
+            } else if (instr instanceof Deref || instr instanceof NegInt) {
+                pops= 1;
+                pushes= 1;
+            } else if (instr instanceof Dup) {
+                pops= 1;
+                pushes= 2;
+            } else if (instr instanceof LoadBlock) {
+                pops= 1;
+                pushes= ((LoadBlock) instr).size;
+            } else if (instr instanceof EqBlock) {
+                pops= 2 * ((EqBlock) instr).size;
+                pushes= 1;
+            } else if (instr instanceof AddInt || instr instanceof SubInt || instr instanceof MultInt
+                    || instr instanceof DivTruncInt || instr instanceof ModTruncInt
+                    || instr instanceof EqInt || instr instanceof NeInt || instr instanceof GtInt
+                    || instr instanceof LtInt || instr instanceof GeInt || instr instanceof LeInt) {
+                pops= 2;
+                pushes= 1;
+            } else {
+                return -1;
+            }
+            if (pops > depth) return -1;
+            depth= depth - pops + pushes;
+            if (depth == 1 && is(instrs, i + 1, SubInt.class)) return i + 1;
+        }
+        return -1;
+    }
+
+    // one pass that lets every jump go to the end of a chain of jumps, returns the same list if nothing changed
+    private static List<IInstr> threadJumps(List<IInstr> instrs) {
+        List<IInstr> result= null;
+        for (int i= 0; i < instrs.size(); i++) {
+            IInstr instr= instrs.get(i);
+            IInstr threaded= null;
+            if (instr instanceof UncondJump) {
+                int addr= finalTarget(instrs, ((UncondJump) instr).jumpAddr);
+                if (addr != ((UncondJump) instr).jumpAddr) threaded= new UncondJump(addr);
+            } else if (instr instanceof CondJump) {
+                int addr= finalTarget(instrs, ((CondJump) instr).jumpAddr);
+                if (addr != ((CondJump) instr).jumpAddr) threaded= new CondJump(addr);
+            } else if (instr instanceof JumpIfTrue) {
+                int addr= finalTarget(instrs, ((JumpIfTrue) instr).jumpAddr);
+                if (addr != ((JumpIfTrue) instr).jumpAddr) threaded= new JumpIfTrue(addr);
+            }
+            if (threaded != null) {
+                if (result == null) result= new ArrayList<>(instrs);
+                result.set(i, threaded);
+            }
+        }
+        return result != null ? result : instrs;
+    }
+
+    // where a jump to start ends up, following UncondJump and LoadImInt(c); CondJump(a);
+    // start itself if the chain is too long or a loop
+    private static int finalTarget(List<IInstr> instrs, int start) {
+        int addr= start;
+        for (int hops= 0; hops < MAX_JUMP_CHAIN; hops++) {
+            IInstr instr= addr < instrs.size() ? instrs.get(addr) : null;
+            int next;
+            if (instr instanceof UncondJump) {
+                next= ((UncondJump) instr).jumpAddr;
+            } else if (instr instanceof LoadImInt && is(instrs, addr + 1, CondJump.class)) {
+                next= ((LoadImInt) instr).value != 0 ? addr + 2 : ((CondJump) instrs.get(addr + 1)).jumpAddr;
+            } else {
+                return addr;
+            }
+            if (next == addr) return start;
+            addr= next;
+        }
+        return start;
+    }
+
+    // locations entered other than from their predecessor: jump and call targets, return addresses
+    private static boolean[] jumpTargets(List<IInstr> instrs) {
+        boolean[] target= new boolean[instrs.size() + 1];
+        for (int i= 0; i < instrs.size(); i++) {
+            IInstr instr= instrs.get(i);
+            if (instr instanceof UncondJump) target[((UncondJump) instr).jumpAddr]= true;
+            if (instr instanceof CondJump) target[((CondJump) instr).jumpAddr]= true;
+            if (instr instanceof JumpIfTrue) target[((JumpIfTrue) instr).jumpAddr]= true;
+            if (instr instanceof Call) {
+                target[((Call) instr).routAddress]= true;
+                target[i + 1]= true;
+            }
+        }
+        return target;
+    }
+
+    // none of the count instructions from location, except the first, is entered from elsewhere
+    private static boolean free(boolean[] target, int location, int count) {
+        for (int i= location + 1; i < location + count; i++) {
+            if (target[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean is(List<IInstr> instrs, int location, Class<? extends IInstr> kind) {
+        return location < instrs.size() && kind.isInstance(instrs.get(location));
+    }
+
+    private static IInstr relocate(IInstr instr, int[] relocation) {
+        if (instr instanceof UncondJump) return new UncondJump(relocation[((UncondJump) instr).jumpAddr]);
+        if (instr instanceof CondJump) return new CondJump(relocation[((CondJump) instr).jumpAddr]);
+        if (instr instanceof JumpIfTrue) return new JumpIfTrue(relocation[((JumpIfTrue) instr).jumpAddr]);
+        if (instr instanceof Call) return new Call(relocation[((Call) instr).routAddress]);
+        return instr;
+    }
+}
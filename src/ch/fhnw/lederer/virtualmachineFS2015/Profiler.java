@@ -0,0 +1,252 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Execution profile of a run on the VirtualMachine, passed to its constructor:
+// - how often each location was executed, and so each kind of instruction
+// - per routine (by its entry location): the calls, the time including the routines it called
+//   and the time spent in the routine itself, both in nanoseconds
+// The main program counts as the routine at location 0.
+// Given the source positions of the locations (e.g. from the source map of the compiler), the report
+// and the written profile also name the source of each location, and the report adds the hot source lines.
+// Only the profiling loop of the VirtualMachine touches the profile, the plain loop stays as it is.
+public final class Profiler {
+
+    // per location
+    private String[] instrs;
+    long[] counts;
+
+    // per routine entry
+    private long[] calls;
+    private long[] inclusiveNanos;
+    private long[] selfNanos;
+    // incarnations of the routine on the call stack, only the outermost one adds to inclusiveNanos
+    private int[] active;
+
+    // call stack of the routine incarnations
+    private int[] entries= new int[64];
+    private long[] starts= new long[64];
+    private long[] calleeNanos= new long[64];
+    private int depth= 0;
+
+    // pre
+    // - (forall i | 0 <= i < code.getSize() : code.get(i) != null)
+    void start(ICodeArray code) {
+        int size= code.getSize();
+        instrs= new String[size];
+        for (int i= 0; i < size; i++) {
+            instrs[i]= code.get(i).getClass().getSimpleName();
+        }
+        counts= new long[size];
+        calls= new long[size];
+        inclusiveNanos= new long[size];
+        selfNanos= new long[size];
+        active= new int[size];
+        depth= 0;
+        enter(0, System.nanoTime());
+    }
+
+    void enter(int entry, long now) {
+        if (depth == entries.length) {
+            entries= Arrays.copyOf(entries, 2 * depth);
+            starts= Arrays.copyOf(starts, 2 * depth);
+            calleeNanos= Arrays.copyOf(calleeNanos, 2 * depth);
+        }
+        entries[depth]= entry;
+        starts[depth]= now;
+        calleeNanos[depth]= 0;
+        depth++;
+        calls[entry]++;
+        active[entry]++;
+    }
+
+    void leave(long now) {
+        depth--;
+        int entry= entries[depth];
+        long elapsed= now - starts[depth];
+        selfNanos[entry] += elapsed - calleeNanos[depth];
+        if (--active[entry] == 0) {
+            inclusiveNanos[entry] += elapsed;
+        }
+        if (depth > 0) {
+            calleeNanos[depth - 1] += elapsed;
+        }
+    }
+
+    // closes the main program, and the routines still running if the run failed
+    void stop(long now) {
+        while (depth > 0) {
+            leave(now);
+        }
+    }
+
+    public int getSize() {
+        return counts.length;
+    }
+
+    public long getCount(int pc) {
+        return counts[pc];
+    }
+
+    public long getTotalCount() {
+        long total= 0;
+        for (long count : counts) total += count;
+        return total;
+    }
+
+    // executions per kind of instruction, the most frequent first
+    public Map<String, Long> getCountsPerInstruction() {
+        Map<String, Long> perInstr= new LinkedHashMap<>();
+        for (int pc= 0; pc < counts.length; pc++) {
+            if (counts[pc] > 0) perInstr.merge(instrs[pc], counts[pc], Long::sum);
+        }
+        List<Map.Entry<String, Long>> sorted= new ArrayList<>(perInstr.entrySet());
+        sorted.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<String, Long> result= new LinkedHashMap<>();
+        for (Map.Entry<String, Long> e : sorted) result.put(e.getKey(), e.getValue());
+        return result;
+    }
+
+    // the locations that were executed, the most frequent first
+    public int[] getHotLocations() {
+        return sortedBy(counts, counts);
+    }
+
+    // the entries of the routines that were called, the most expensive (including callees) first
+    public int[] getHotRoutines() {
+        return sortedBy(inclusiveNanos, calls);
+    }
+
+    public long getCalls(int entry) {
+        return calls[entry];
+    }
+
+    public long getInclusiveNanos(int entry) {
+        return inclusiveNanos[entry];
+    }
+
+    public long getSelfNanos(int entry) {
+        return selfNanos[entry];
+    }
+
+    // executions per source line, over all locations with a position
+    public Map<Integer, Long> getCountsPerLine(SourcePosition[] positions) {
+        Map<Integer, Long> perLine= new TreeMap<>();
+        for (int pc= 0; pc < counts.length; pc++) {
+            SourcePosition position= positionOf(positions, pc);
+            if (counts[pc] > 0 && position != null) perLine.merge(position.line, counts[pc], Long::sum);
+        }
+        return perLine;
+    }
+
+    // hot spot tables, each cut after the given number of rows
+    public void report(PrintStream out, int rows) {
+        report(out, rows, null);
+    }
+
+    // as report(out, rows), positions[pc] is the source position of location pc, or null
+    public void report(PrintStream out, int rows, SourcePosition[] positions) {
+        long total= getTotalCount();
+        double totalNanos= Math.max(1, inclusiveNanos[0]);
+
+        out.printf("%d instructions executed%n%n", total);
+        out.printf("%-20s %14s %7s%n", "instruction", "count", "%");
+        int row= 0;
+        for (Map.Entry<String, Long> e : getCountsPerInstruction().entrySet()) {
+            if (row++ == rows) break;
+            out.printf("%-20s %14d %6.2f%%%n", e.getKey(), e.getValue(), 100.0 * e.getValue() / total);
+        }
+
+        out.printf("%n%-8s %-20s %14s %7s %s%n", "pc", "instruction", "count", "%", positions != null ? "source" : "");
+        int[] locations= getHotLocations();
+        for (int i= 0; i < locations.length && i < rows; i++) {
+            int pc= locations[i];
+            out.printf("%-8d %-20s %14d %6.2f%% %s%n", pc, instrs[pc], counts[pc], 100.0 * counts[pc] / total,
+                    source(positions, pc));
+        }
+
+        if (positions != null) {
+            out.printf("%n%-8s %14s %7s%n", "line", "count", "%");
+            List<Map.Entry<Integer, Long>> lines= new ArrayList<>(getCountsPerLine(positions).entrySet());
+            lines.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+            for (int i= 0; i < lines.size() && i < rows; i++) {
+                Map.Entry<Integer, Long> e= lines.get(i);
+                out.printf("%-8d %14d %6.2f%%%n", e.getKey(), e.getValue(), 100.0 * e.getValue() / total);
+            }
+        }
+
+        out.printf("%n%-8s %10s %14s %7s %14s %7s %s%n", "routine", "calls", "inclusive us", "%", "self us", "%",
+                positions != null ? "source" : "");
+        int[] routines= getHotRoutines();
+        for (int i= 0; i < routines.length && i < rows; i++) {
+            int entry= routines[i];
+            out.printf("%-8d %10d %14.1f %6.2f%% %14.1f %6.2f%% %s%n", entry, calls[entry],
+                    inclusiveNanos[entry] / 1e3, 100 * inclusiveNanos[entry] / totalNanos,
+                    selfNanos[entry] / 1e3, 100 * selfNanos[entry] / totalNanos, source(positions, entry));
+        }
+    }
+
+    // one line per location, per kind of instruction and per routine, as comma separated values:
+    // kind,key,instruction,count,calls,inclusive_ns,self_ns
+    public void write(Path file) throws IOException {
+        write(file, null);
+    }
+
+    // as write(file), with the source position of each location and routine in an additional column,
+    // and one line per source line
+    public void write(Path file, SourcePosition[] positions) throws IOException {
+        String none= positions != null ? "," : "";
+        try (PrintWriter out= new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("kind,key,instruction,count,calls,inclusive_ns,self_ns" + (positions != null ? ",source" : ""));
+            for (int pc= 0; pc < counts.length; pc++) {
+                out.println("pc," + pc + "," + instrs[pc] + "," + counts[pc] + ",,," + sourceColumn(positions, pc));
+            }
+            for (Map.Entry<String, Long> e : getCountsPerInstruction().entrySet()) {
+                out.println("instruction," + e.getKey() + "," + e.getKey() + "," + e.getValue() + ",,," + none);
+            }
+            for (int entry : getHotRoutines()) {
+                out.println("routine," + entry + "," + instrs[entry] + "," + counts[entry] + "," + calls[entry]
+                        + "," + inclusiveNanos[entry] + "," + selfNanos[entry] + sourceColumn(positions, entry));
+            }
+            if (positions != null) {
+                for (Map.Entry<Integer, Long> e : getCountsPerLine(positions).entrySet()) {
+                    out.println("line," + e.getKey() + ",," + e.getValue() + ",,,,");
+                }
+            }
+        }
+    }
+
+    private static SourcePosition positionOf(SourcePosition[] positions, int pc) {
+        return positions != null && pc < positions.length ? positions[pc] : null;
+    }
+
+    private static String source(SourcePosition[] positions, int pc) {
+        SourcePosition position= positionOf(positions, pc);
+        return position != null ? position.toString() : "";
+    }
+
+    private static String sourceColumn(SourcePosition[] positions, int pc) {
+        return positions != null ? "," + source(positions, pc) : "";
+    }
+
+    // the indices where present is not 0, by descending value
+    private static int[] sortedBy(long[] values, long[] present) {
+        List<Integer> indices= new ArrayList<>();
+        for (int i= 0; i < values.length; i++) {
+            if (present[i] > 0) indices.add(i);
+        }
+        indices.sort((a, b) -> Long.compare(values[b], values[a]));
+        return indices.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,30 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+// Place in the IML source an instruction stems from, for informative run time errors.
+// Lines and columns start at 1, the end column is inclusive.
+public final class SourcePosition {
+
+    public final int line;
+    public final int column;
+    public final int endLine;
+    public final int endColumn;
+
+    public SourcePosition(int line, int column, int endLine, int endColumn) {
+        this.line= line;
+        this.column= column;
+        this.endLine= endLine;
+        this.endColumn= endColumn;
+    }
+
+    // from the start of first to the end of last, either may be null
+    public static SourcePosition join(SourcePosition first, SourcePosition last) {
+        if (first == null) return last;
+        if (last == null) return first;
+        return new SourcePosition(first.line, first.column, last.endLine, last.endColumn);
+    }
+
+    // as in the listings of the reference compiler: 8:32-34, or 8:32-9:4 across lines
+    public String toString() {
+        return line + ":" + column + "-" + (endLine != line ? endLine + ":" : "") + endColumn;
+    }
+}
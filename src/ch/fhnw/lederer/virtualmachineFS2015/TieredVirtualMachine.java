@@ -0,0 +1,527 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Tiered variant of BytecodeVirtualMachine.
+// Tier 0 interprets the Bytecode and counts how often each routine is called and each loop head
+// is reached by a backward UncondJump. Once a count reaches the threshold, the region of the routine
+// (or of the main program) is translated by JitCompiler into a hidden JVM class working on the same
+// int[] store. Calls to a compiled routine run its class; a hot loop switches to the compiled code
+// at the loop head (on-stack replacement). Regions that cannot be compiled stay interpreted.
+// The classes are kept in a cache shared by all VMs running the same program.
+// Semantics are identical to VirtualMachine, IntVirtualMachine and BytecodeVirtualMachine.
+public class TieredVirtualMachine implements IVirtualMachine {
+
+    static final String SP_OVER_HP=
+        "Stack pointer over heap pointer.";
+
+    static final String EP_OVER_HP=
+        "Extreme pointer over heap pointer.";
+
+    public static final int DEFAULT_THRESHOLD= 1_000;
+
+    // a compiled region, entered at its entry or at one of its loop heads
+    interface ICompiledCode {
+        void run(TieredVirtualMachine vm, int entry) throws ExecutionError;
+    }
+
+    // compiled regions shared by all VMs running the same program, least recently used are dropped
+    private static final int CACHE_SIZE= 256;
+    private static final Map<RegionKey, ICompiledCode> CACHE=
+        new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RegionKey, ICompiledCode> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+
+    // stores the program
+    private final Bytecode bytecode;
+    private final int[] code;
+    private final String[] indicators;
+
+    // stores the data, shared with the compiled code
+    // - stack: index 0 upto sp-1
+    // - heap: index store.length - 1 downto hp+1
+    final int[] store;
+
+    // registers, up to date whenever the interpreter calls out or compiled code runs
+    int pc;
+    int sp;
+    int ep;
+    int hp;
+    int fp;
+
+    // JIT state
+    private final int threshold;
+    private final int[] counters; // per call target and loop head
+    private final int[] regionEntries; // sorted: 0 and all call targets
+    private final ICompiledCode[] regions; // per region entry
+    private final ICompiledCode[] compiled; // per call target and loop head
+    private final boolean[] notCompilable; // per region entry, call target and loop head
+    private int compiledRegions= 0;
+
+    // compiled code calls back into the VM for every Call, so each nested routine uses JVM stack;
+    // beyond this nesting the routines are interpreted, leaving the deep recursion to the store
+    private static final int MAX_NESTING= 1_000;
+    private int nesting= 0;
+
+    public TieredVirtualMachine(ICodeArray code, int storeSize)
+            throws ExecutionError
+    {
+        this(Bytecode.encode(code), storeSize, DEFAULT_THRESHOLD);
+    }
+
+    // threshold: calls of a routine / iterations of a loop before it is compiled,
+    // Integer.MAX_VALUE to only interpret
+    public TieredVirtualMachine(Bytecode code, int storeSize, int threshold)
+            throws ExecutionError
+    {
+        this.bytecode= code;
+        this.code= code.getCode();
+        this.indicators= code.getIndicators();
+        this.threshold= threshold;
+        int size= code.getSize();
+        counters= new int[size];
+        regions= new ICompiledCode[size];
+        compiled= new ICompiledCode[size];
+        notCompilable= new boolean[size];
+        TreeSet<Integer> entries= new TreeSet<>();
+        entries.add(0);
+        for (int i= 0; i < size; i++) {
+            if (this.code[2 * i] == Bytecode.CALL) entries.add(this.code[2 * i + 1]);
+        }
+        regionEntries= entries.stream().mapToInt(Integer::intValue).toArray();
+        store= new int[storeSize];
+        execute();
+    }
+
+    // number of regions of this run executed as JVM classes
+    public int getCompiledRegions() {
+        return compiledRegions;
+    }
+
+    private void execute() throws ExecutionError
+    {
+        pc= 0;
+        sp= 0;
+        ep= 0;
+        hp= store.length - 1;
+        fp= 0;
+        interpret(-1);
+    }
+
+    // interprets until Stop, or until a Return restores the frame pointer returnFp
+    private void interpret(int returnFp) throws ExecutionError
+    {
+        final int[] code= this.code;
+        final int[] store= this.store;
+        final int hp= this.hp;
+        int pc= this.pc;
+        int sp= this.sp;
+        int ep= this.ep;
+        int fp= this.fp;
+        while (pc > -1)
+        {
+            int operand= code[2 * pc + 1];
+            switch (code[2 * pc])
+            {
+                case Bytecode.STOP:
+                    pc= -1;
+                    break;
+                case Bytecode.DUP:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= store[sp - 1];
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.ALLOC_BLOCK:
+                    sp= sp + operand;
+                    if (sp > hp + 1) { throw new ExecutionError(SP_OVER_HP); }
+                    pc= pc + 1;
+                    break;
+                case Bytecode.ALLOC_STACK:
+                    ep= sp + operand;
+                    if (ep > hp + 1) { throw new ExecutionError(EP_OVER_HP); }
+                    pc= pc + 1;
+                    break;
+                case Bytecode.CALL: {
+                    ICompiledCode target= hot(operand, operand);
+                    if (sp + 2 > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= fp;
+                    store[sp + 1]= ep;
+                    store[sp + 2]= pc;
+                    fp= sp;
+                    sp= sp + 3;
+                    pc= operand;
+                    if (target != null && nesting < MAX_NESTING) {
+                        // runs up to and including the Return of the routine
+                        this.pc= pc; this.sp= sp; this.ep= ep; this.fp= fp;
+                        run(target, operand);
+                        pc= this.pc; sp= this.sp; ep= this.ep; fp= this.fp;
+                    }
+                    break;
+                }
+                case Bytecode.RETURN:
+                    sp= fp - operand;
+                    pc= store[fp + 2] + 1;
+                    ep= store[fp + 1];
+                    fp= store[fp];
+                    if (ep > hp + 1) { throw new ExecutionError(EP_OVER_HP); }
+                    if (fp == returnFp) {
+                        this.pc= pc; this.sp= sp; this.ep= ep; this.fp= fp;
+                        return;
+                    }
+                    break;
+                case Bytecode.LOAD_IM_INT:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= operand;
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_ADDR_REL:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= fp + operand;
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.DEREF:
+                    store[sp - 1]= store[store[sp - 1]];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.STORE:
+                    store[store[sp - 2]]= store[sp - 1];
+                    sp= sp - 2;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.STORE_REV:
+                    store[store[sp - 1]]= store[sp - 2];
+                    sp= sp - 2;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_BLOCK:
+                    if (sp - 1 + operand > hp + 1) { throw new ExecutionError(SP_OVER_HP); }
+                    sp= loadBlock(store, sp, operand);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.COPY_BLOCK:
+                    sp= copyBlock(store, sp, operand);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.EQ_BLOCK:
+                    sp= eqBlock(store, sp, operand);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.NEG_INT:
+                    store[sp - 1]= -store[sp - 1];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.ADD_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] + store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.SUB_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] - store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.MULT_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] * store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.DIV_TRUNC_INT:
+                    sp= sp - 1;
+                    if (store[sp] == 0) { throw new ExecutionError("Integer division by zero."); }
+                    store[sp - 1]= store[sp - 1] / store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.MOD_TRUNC_INT:
+                    sp= sp - 1;
+                    if (store[sp] == 0) { throw new ExecutionError("Integer remainder by zero."); }
+                    store[sp - 1]= store[sp - 1] % store[sp];
+                    pc= pc + 1;
+                    break;
+                case Bytecode.EQ_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] == store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.NE_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] != store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.GT_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] > store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LT_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] < store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.GE_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] >= store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LE_INT:
+                    sp= sp - 1;
+                    store[sp - 1]= store[sp - 1] <= store[sp] ? 1 : 0;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.UNCOND_JUMP:
+                    if (operand < pc) {
+                        // loop head: continue in compiled code once hot
+                        ICompiledCode loop= hot(operand, regionEntry(operand));
+                        if (loop != null && nesting < MAX_NESTING) {
+                            this.pc= operand; this.sp= sp; this.ep= ep; this.fp= fp;
+                            run(loop, operand);
+                            pc= this.pc; sp= this.sp; ep= this.ep; fp= this.fp;
+                            if (pc > -1 && fp == returnFp) {
+                                return;
+                            }
+                            break;
+                        }
+                    }
+                    pc= operand;
+                    break;
+                case Bytecode.COND_JUMP:
+                    sp= sp - 1;
+                    pc= (store[sp] != 0) ? pc + 1 : operand;
+                    break;
+                case Bytecode.JUMP_IF_TRUE:
+                    sp= sp - 1;
+                    pc= (store[sp] != 0) ? operand : pc + 1;
+                    break;
+                case Bytecode.INPUT_BOOL:
+                    sp= inputBool(store, sp, indicators[operand]);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.INPUT_INT:
+                    sp= inputInt(store, sp, indicators[operand]);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.OUTPUT_BOOL:
+                    sp= outputBool(store, sp, indicators[operand]);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.OUTPUT_INT:
+                    sp= outputInt(store, sp, indicators[operand]);
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_LOCAL:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= store[fp + operand];
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                case Bytecode.LOAD_INDIRECT_OFFSET:
+                    if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+                    store[sp]= store[store[fp + (operand >> 16)] + (operand & 0xffff)];
+                    sp= sp + 1;
+                    pc= pc + 1;
+                    break;
+                default:
+                    throw new InternalError("Unknown opcode " + code[2 * pc] + " at " + pc);
+            }
+        }
+        this.pc= pc; this.sp= sp; this.ep= ep; this.fp= fp;
+    }
+
+    // counts the call target or loop head, returns the compiled region to enter there
+    // once it is hot, null while it is cold or if it cannot be entered there
+    private ICompiledCode hot(int location, int entry)
+    {
+        ICompiledCode region= compiled[location];
+        if (region == null && !notCompilable[location] && ++counters[location] >= threshold) {
+            region= compile(entry);
+            if (region != null && entry != location && !JitCompiler.entries(bytecode, entry).contains(location)) {
+                region= null;
+            }
+            if (region == null) {
+                notCompilable[location]= true;
+            } else {
+                compiled[location]= region;
+            }
+        }
+        return region;
+    }
+
+    // the entry of the region containing the location, routines are laid out one after the other
+    private int regionEntry(int location) {
+        int i= Arrays.binarySearch(regionEntries, location);
+        return i >= 0 ? regionEntries[i] : regionEntries[-i - 2];
+    }
+
+    // the region at entry, compiled at most once per program
+    private ICompiledCode compile(int entry) {
+        if (regions[entry] != null || notCompilable[entry]) {
+            return regions[entry];
+        }
+        RegionKey key= new RegionKey(code, indicators, entry);
+        ICompiledCode region;
+        synchronized (CACHE) {
+            region= CACHE.get(key);
+        }
+        if (region == null) {
+            region= define(entry);
+            if (region == null) {
+                notCompilable[entry]= true;
+                return null;
+            }
+            synchronized (CACHE) {
+                CACHE.put(key, region);
+            }
+        }
+        regions[entry]= region;
+        compiledRegions++;
+        return region;
+    }
+
+    private ICompiledCode define(int entry) {
+        String name= TieredVirtualMachine.class.getName().replace('.', '/') + "$Region" + entry;
+        byte[] classFile= JitCompiler.compile(bytecode, entry, name);
+        if (classFile == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup= MethodHandles.lookup().defineHiddenClass(classFile, true);
+            return (ICompiledCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new InternalError("Compiling the region at " + entry + " failed: " + e);
+        }
+    }
+
+    // a region of a program, the compiled code only depends on the program and the entry
+    private static final class RegionKey {
+        private final int[] code;
+        private final String[] indicators;
+        private final int entry;
+        private final int hash;
+
+        RegionKey(int[] code, String[] indicators, int entry) {
+            this.code= code;
+            this.indicators= indicators;
+            this.entry= entry;
+            this.hash= 31 * (31 * Arrays.hashCode(code) + Arrays.hashCode(indicators)) + entry;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof RegionKey)) return false;
+            RegionKey other= (RegionKey) o;
+            return entry == other.entry && hash == other.hash
+                && Arrays.equals(code, other.code) && Arrays.equals(indicators, other.indicators);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    // called by compiled code, with the registers up to date and pc at the Call:
+    // calls the routine at target and returns after its Return
+    void call(int target) throws ExecutionError
+    {
+        ICompiledCode routine= hot(target, target);
+        if (sp + 2 > hp) { throw new ExecutionError(SP_OVER_HP); }
+        int returnFp= fp;
+        store[sp]= fp;
+        store[sp + 1]= ep;
+        store[sp + 2]= pc;
+        fp= sp;
+        sp= sp + 3;
+        pc= target;
+        if (routine != null && nesting < MAX_NESTING) {
+            run(routine, target);
+        } else {
+            interpret(returnFp);
+        }
+    }
+
+    private void run(ICompiledCode region, int entry) throws ExecutionError
+    {
+        nesting++;
+        region.run(this, entry);
+        nesting--;
+    }
+
+    // helpers of the compiled code
+
+    static ExecutionError error(String message) {
+        return new ExecutionError(message);
+    }
+
+    static RuntimeException unknownEntry(int entry) {
+        return new InternalError("Compiled code entered at " + entry);
+    }
+
+    static int eq(int a, int b) { return a == b ? 1 : 0; }
+    static int ne(int a, int b) { return a != b ? 1 : 0; }
+    static int gt(int a, int b) { return a > b ? 1 : 0; }
+    static int lt(int a, int b) { return a < b ? 1 : 0; }
+    static int ge(int a, int b) { return a >= b ? 1 : 0; }
+    static int le(int a, int b) { return a <= b ? 1 : 0; }
+
+    // block instructions, return the new stack pointer; LoadBlock is checked against hp before
+
+    static int loadBlock(int[] store, int sp, int size)
+    {
+        System.arraycopy(store, store[sp - 1], store, sp - 1, size);
+        return sp - 1 + size;
+    }
+
+    static int copyBlock(int[] store, int sp, int size)
+    {
+        int address= store[sp - 1];
+        System.arraycopy(store, sp - 1 - size, store, address, size);
+        return sp - 1 - size;
+    }
+
+    static int eqBlock(int[] store, int sp, int size)
+    {
+        sp= sp - 2 * size;
+        store[sp]= Arrays.equals(store, sp, sp + size, store, sp + size, sp + 2 * size) ? 1 : 0;
+        return sp + 1;
+    }
+
+    // input and output, return the new stack pointer
+
+    static int inputBool(int[] store, int sp, String indicator) throws ExecutionError
+    {
+        System.out.print("? " + indicator + " : bool = ");
+        boolean input= InputUtility.readBool();
+        store[store[sp - 1]]= input ? 1 : 0;
+        return sp - 1;
+    }
+
+    static int inputInt(int[] store, int sp, String indicator) throws ExecutionError
+    {
+        System.out.print("? " + indicator + " : int = ");
+        int input= InputUtility.readInt();
+        store[store[sp - 1]]= input;
+        return sp - 1;
+    }
+
+    static int outputBool(int[] store, int sp, String indicator)
+    {
+        System.out.println("! " + indicator + " : bool = " + (store[sp - 1] != 0));
+        return sp - 1;
+    }
+
+    static int outputInt(int[] store, int sp, String indicator)
+    {
+        System.out.println("! " + indicator + " : int = " + store[sp - 1]);
+        return sp - 1;
+    }
+}
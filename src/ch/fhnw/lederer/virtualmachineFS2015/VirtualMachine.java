@@ -51,6 +51,20 @@ public class VirtualMachine implements IVirtualMachine {
         execute();
     }
 
+    // records the run in the profiler, see Profiler
+    public VirtualMachine(ICodeArray code, int storeSize, Profiler profiler)
+            throws ExecutionError
+    {
+        loadProgram(code);
+        store= new Data.IBaseData[storeSize];
+        profiler.start(code);
+        try {
+            executeProfiled(profiler);
+        } finally {
+            profiler.stop(System.nanoTime());
+        }
+    }
+
     // pre
     // - (forall i | 0 <= i < code.getSize() : code.get(i) != null)
     private void loadProgram(ICodeArray code) {
@@ -61,16 +75,50 @@ public class VirtualMachine implements IVirtualMachine {
     }
 
     private void execute() throws ExecutionError
+    {
+        reset();
+        try {
+            while (pc > -1)
+            {
+                code[pc].execute();
+            }
+        } catch (ExecutionError e) {
+            e.setLocation(pc); // the failing instruction does not advance pc
+            throw e;
+        }
+    }
+
+    // same as execute, but counts each instruction and brackets each routine incarnation
+    // by its call and return
+    private void executeProfiled(Profiler profiler) throws ExecutionError
+    {
+        reset();
+        long[] counts= profiler.counts;
+        try {
+            while (pc > -1)
+            {
+                IExecInstr instr= code[pc];
+                counts[pc]++;
+                instr.execute();
+                if (instr instanceof CallExec) {
+                    profiler.enter(pc, System.nanoTime());
+                } else if (instr instanceof ReturnExec) {
+                    profiler.leave(System.nanoTime());
+                }
+            }
+        } catch (ExecutionError e) {
+            e.setLocation(pc);
+            throw e;
+        }
+    }
+
+    private void reset()
     {
         pc= 0;
         sp= 0;
         ep= 0;
         hp= store.length - 1;
         fp= 0;
-        while (pc > -1)
-        {
-            code[pc].execute();
-        }
     }
 
     // stop instruction
@@ -211,6 +259,50 @@ public class VirtualMachine implements IVirtualMachine {
         }
     }
 
+    // block instructions
+
+    public class LoadBlockExec extends LoadBlock implements IExecInstr {
+        public LoadBlockExec(int size) { super(size); }
+
+        public void execute() throws ExecutionError
+        {
+            // remove following check if use ep
+            if (sp - 1 + size > hp + 1) { throw new ExecutionError(SP_OVER_HP); }
+            int address= Data.intGet(store[sp - 1]);
+            System.arraycopy(store, address, store, sp - 1, size);
+            sp= sp - 1 + size;
+            pc= pc + 1;
+        }
+    }
+
+    public class CopyBlockExec extends CopyBlock implements IExecInstr {
+        public CopyBlockExec(int size) { super(size); }
+
+        public void execute()
+        {
+            int address= Data.intGet(store[sp - 1]);
+            sp= sp - 1 - size;
+            System.arraycopy(store, sp, store, address, size);
+            pc= pc + 1;
+        }
+    }
+
+    public class EqBlockExec extends EqBlock implements IExecInstr {
+        public EqBlockExec(int size) { super(size); }
+
+        public void execute()
+        {
+            sp= sp - 2 * size;
+            boolean equal= true;
+            for (int i= 0; i < size && equal; i++) {
+                equal= Data.intGet(store[sp + i]) == Data.intGet(store[sp + size + i]);
+            }
+            store[sp]= Data.boolNew(equal);
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
     // monadic instructions
 
     public class NegIntExec extends NegInt implements IExecInstr {
@@ -343,6 +435,45 @@ public class VirtualMachine implements IVirtualMachine {
         }
     }
 
+    // superinstructions
+
+    public class LoadLocalExec extends LoadLocal implements IExecInstr {
+        public LoadLocalExec(int relAddress) { super(relAddress); }
+
+        public void execute() throws ExecutionError
+        {
+            // remove following check if use ep
+            if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+            store[sp]= store[fp + relAddress];
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    public class LoadIndirectOffsetExec extends LoadIndirectOffset implements IExecInstr {
+        public LoadIndirectOffsetExec(int relAddress, int offset) { super(relAddress, offset); }
+
+        public void execute() throws ExecutionError
+        {
+            // remove following check if use ep
+            if (sp > hp) { throw new ExecutionError(SP_OVER_HP); }
+            int address= Data.intGet(store[fp + relAddress]) + offset;
+            store[sp]= store[address];
+            sp= sp + 1;
+            pc= pc + 1;
+        }
+    }
+
+    public class JumpIfTrueExec extends JumpIfTrue implements IExecInstr {
+        public JumpIfTrueExec(int jumpAddr) { super(jumpAddr); }
+
+        public void execute()
+        {
+            sp= sp - 1;
+            pc= (Data.boolGet(store[sp])) ? jumpAddr : pc + 1;
+        }
+    }
+
     // input (input -> stack) and output (stack -> output) instructions
 
     public class InputBoolExec extends InputBool implements IExecInstr {
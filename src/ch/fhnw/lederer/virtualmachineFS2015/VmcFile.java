@@ -0,0 +1,187 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Compact binary form of a program, to run it without compiling it again.
+// Layout:
+// - magic: the bytes 'V' 'M' 'C' and the version 1
+// - constant pool: the number of indicators, then each as the number of its UTF-8 bytes and the bytes
+// - code: the number of instructions, then each as its opcode byte of Bytecode,
+//   followed by its operand if it has one
+// All numbers are varints (7 bits per byte, least significant first), operands zigzag encoded
+// so that small negative relative addresses stay short.
+// The loader maps the file and decodes it directly into a Bytecode, no IInstr is created.
+public final class VmcFile {
+
+    private static final byte[] MAGIC= { 'V', 'M', 'C', 1 };
+
+    // per opcode of Bytecode: whether the instruction has an operand
+    private static final boolean[] HAS_OPERAND= new boolean[Bytecode.EQ_BLOCK + 1];
+    static {
+        for (int opcode : new int[] {
+            Bytecode.ALLOC_BLOCK, Bytecode.ALLOC_STACK, Bytecode.CALL, Bytecode.RETURN,
+            Bytecode.LOAD_IM_INT, Bytecode.LOAD_ADDR_REL, Bytecode.UNCOND_JUMP, Bytecode.COND_JUMP,
+            Bytecode.INPUT_BOOL, Bytecode.INPUT_INT, Bytecode.OUTPUT_BOOL, Bytecode.OUTPUT_INT,
+            Bytecode.LOAD_LOCAL, Bytecode.LOAD_INDIRECT_OFFSET, Bytecode.JUMP_IF_TRUE,
+            Bytecode.LOAD_BLOCK, Bytecode.COPY_BLOCK, Bytecode.EQ_BLOCK }) {
+            HAS_OPERAND[opcode]= true;
+        }
+    }
+
+    private VmcFile() {}
+
+    public static class FormatError extends IOException {
+        private static final long serialVersionUID= 1L;
+
+        FormatError(String message) {
+            super(message);
+        }
+    }
+
+    // a file of the binary form starts with the magic, unlike the text listings
+    public static boolean isVmcFile(Path file) throws IOException {
+        byte[] start= new byte[MAGIC.length];
+        try (InputStream in= Files.newInputStream(file)) {
+            return in.readNBytes(start, 0, start.length) == start.length && Arrays.equals(start, MAGIC);
+        }
+    }
+
+    public static void write(ICodeArray code, Path file) throws IOException {
+        write(Bytecode.encode(code), file);
+    }
+
+    public static void write(Bytecode bytecode, Path file) throws IOException {
+        try (OutputStream out= Files.newOutputStream(file)) {
+            out.write(toBytes(bytecode));
+        }
+    }
+
+    public static byte[] toBytes(Bytecode bytecode) {
+        ByteArrayOutputStream out= new ByteArrayOutputStream();
+        out.writeBytes(MAGIC);
+        String[] indicators= bytecode.getIndicators();
+        writeVarint(out, indicators.length);
+        for (String indicator : indicators) {
+            byte[] bytes= indicator.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.writeBytes(bytes);
+        }
+        int[] code= bytecode.getCode();
+        writeVarint(out, bytecode.getSize());
+        for (int i= 0; i < code.length; i += 2) {
+            out.write(code[i]);
+            if (HAS_OPERAND[code[i]]) {
+                writeVarint(out, (code[i + 1] << 1) ^ (code[i + 1] >> 31));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // maps the file and decodes it
+    public static Bytecode read(Path file) throws IOException {
+        try (FileChannel channel= FileChannel.open(file, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public static Bytecode read(ByteBuffer bytes) throws FormatError {
+        try {
+            for (byte b : MAGIC) {
+                if (bytes.get() != b) {
+                    throw new FormatError("Not a binary .vmc file of version " + MAGIC[3]);
+                }
+            }
+            String[] indicators= new String[count(bytes)];
+            for (int i= 0; i < indicators.length; i++) {
+                byte[] utf8= new byte[count(bytes)];
+                bytes.get(utf8);
+                indicators[i]= new String(utf8, StandardCharsets.UTF_8);
+            }
+            int size= count(bytes);
+            int[] code= new int[2 * size];
+            for (int i= 0; i < code.length; i += 2) {
+                int opcode= bytes.get();
+                if (opcode < 0 || opcode >= HAS_OPERAND.length) {
+                    throw new FormatError("Unknown opcode " + opcode + " at " + i / 2);
+                }
+                code[i]= opcode;
+                if (HAS_OPERAND[opcode]) {
+                    int zigzag= readVarint(bytes);
+                    code[i + 1]= (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            check(code, indicators.length);
+            return new Bytecode(code, indicators);
+        } catch (BufferUnderflowException e) {
+            throw new FormatError("Truncated .vmc file");
+        }
+    }
+
+    // the addresses and indicator indices lie within the program, so a damaged file cannot crash the VM
+    // with an index out of bounds of the code
+    private static void check(int[] code, int indicatorCount) throws FormatError {
+        int size= code.length / 2;
+        for (int i= 0; i < code.length; i += 2) {
+            int operand= code[i + 1];
+            switch (code[i]) {
+                case Bytecode.CALL:
+                case Bytecode.UNCOND_JUMP:
+                case Bytecode.COND_JUMP:
+                case Bytecode.JUMP_IF_TRUE:
+                    if (operand < 0 || operand >= size) {
+                        throw new FormatError("Address " + operand + " out of the code at " + i / 2);
+                    }
+                    break;
+                case Bytecode.INPUT_BOOL:
+                case Bytecode.INPUT_INT:
+                case Bytecode.OUTPUT_BOOL:
+                case Bytecode.OUTPUT_INT:
+                    if (operand < 0 || operand >= indicatorCount) {
+                        throw new FormatError("Indicator " + operand + " out of the constant pool at " + i / 2);
+                    }
+                    break;
+                default:
+            }
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write(value & 0x7f | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer bytes) throws FormatError {
+        int value= 0;
+        for (int shift= 0; shift < 32; shift += 7) {
+            int b= bytes.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new FormatError("Varint longer than 5 bytes");
+    }
+
+    // a varint used as a count, which must fit into the rest of the file
+    private static int count(ByteBuffer bytes) throws FormatError {
+        int count= readVarint(bytes);
+        if (count < 0 || count > bytes.remaining()) {
+            throw new FormatError("Count " + count + " beyond the end of the file");
+        }
+        return count;
+    }
+}
@@ -0,0 +1,254 @@
+package ch.fhnw.lederer.virtualmachineFS2015;
+
+import ch.fhnw.lederer.virtualmachineFS2015.IInstructions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Loader for the VM code listings of the reference compiler (Haskell version), e.g. iml-programs/Factorial.vmc:
+//   Factorial;
+//    0 : AllocBlock 1;
+//    3 : Input int32 (26:3-16) "n";
+//   33 : Sub Int32 (8:32-34);
+// The typed instructions are mapped onto IInstructions, all integer types onto the int instructions of the VM.
+// The source positions are kept per location, next to the code.
+// The listing is parsed in a single pass over its characters, without regular expressions.
+public final class VmcListing {
+
+    public final String name;
+    public final ICodeArray code;
+    public final SourcePosition[] positions; // per location, null where the listing has none
+
+    private VmcListing(String name, ICodeArray code, SourcePosition[] positions) {
+        this.name= name;
+        this.code= code;
+        this.positions= positions;
+    }
+
+    public static VmcListing read(Path file) throws IOException {
+        return parse(Files.readString(file, StandardCharsets.UTF_8));
+    }
+
+    public static VmcListing parse(String text) throws VmcFile.FormatError {
+        return new Parser(text).listing();
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int pos= 0;
+        private int line= 1;
+
+        Parser(String text) {
+            this.text= text;
+        }
+
+        VmcListing listing() throws VmcFile.FormatError {
+            skipBlanks();
+            String name= word();
+            expect(';');
+            List<IInstr> instrs= new ArrayList<>();
+            List<SourcePosition> positions= new ArrayList<>();
+            skipBlanks();
+            while (pos < text.length()) {
+                int loc= number();
+                if (loc != instrs.size()) {
+                    throw error("Location " + loc + " instead of " + instrs.size());
+                }
+                expect(':');
+                SourcePosition[] position= new SourcePosition[1];
+                instrs.add(instruction(position));
+                positions.add(position[0]);
+                expect(';');
+                skipBlanks();
+            }
+
+            ICodeArray code= new CodeArray(instrs.size());
+            for (int i= 0; i < instrs.size(); i++) {
+                try {
+                    code.put(i, instrs.get(i));
+                } catch (ICodeArray.CodeTooSmallError e) {
+                    throw new IllegalStateException(e); // sized for all instructions
+                }
+            }
+            return new VmcListing(name, code, positions.toArray(new SourcePosition[0]));
+        }
+
+        private IInstr instruction(SourcePosition[] position) throws VmcFile.FormatError {
+            String opcode= word();
+            switch (opcode) {
+                case "Stop": return new Stop();
+                case "Dup": return new Dup();
+                case "AllocBlock": return new AllocBlock(number());
+                case "AllocStack": return new AllocStack(number());
+                case "Call": return new Call(number());
+                case "Return": return new Return(number());
+                case "LoadIm": {
+                    String type= word();
+                    if (type.equals("Bool")) {
+                        String value= word();
+                        if (!value.equals("True") && !value.equals("False")) {
+                            throw error("Not a boolean: " + value);
+                        }
+                        return new LoadImInt(value.equals("True") ? 1 : 0);
+                    }
+                    intType(type);
+                    return new LoadImInt(number());
+                }
+                case "LoadAddrRel": return new LoadAddrRel(number());
+                case "Deref": return new Deref();
+                case "Store": return new Store();
+                case "UncondJump": return new UncondJump(number());
+                case "CondJump": return new CondJump(number());
+                case "Input": {
+                    boolean bool= ioType(word());
+                    position[0]= optionalPosition();
+                    String indicator= string();
+                    return bool ? new InputBool(indicator) : new InputInt(indicator);
+                }
+                case "Output": {
+                    boolean bool= ioType(word());
+                    position[0]= optionalPosition();
+                    String indicator= string();
+                    return bool ? new OutputBool(indicator) : new OutputInt(indicator);
+                }
+                default:
+            }
+            // typed operations, with a source position where they can fail
+            IInstr instr;
+            switch (opcode) {
+                case "Neg": instr= new NegInt(); break;
+                case "Add": instr= new AddInt(); break;
+                case "Sub": instr= new SubInt(); break;
+                case "Mult": instr= new MultInt(); break;
+                case "DivTrunc": instr= new DivTruncInt(); break;
+                case "ModTrunc": instr= new ModTruncInt(); break;
+                case "Eq": instr= new EqInt(); break;
+                case "Ne": instr= new NeInt(); break;
+                case "Gt": instr= new GtInt(); break;
+                case "Lt": instr= new LtInt(); break;
+                case "Ge": instr= new GeInt(); break;
+                case "Le": instr= new LeInt(); break;
+                default: throw error("Instruction " + opcode + " is not supported by this VM");
+            }
+            intType(word());
+            position[0]= optionalPosition();
+            return instr;
+        }
+
+        private void intType(String type) throws VmcFile.FormatError {
+            if (!type.startsWith("Int")) {
+                throw error("Not an integer type: " + type);
+            }
+        }
+
+        // true for bool, false for the integer types
+        private boolean ioType(String type) throws VmcFile.FormatError {
+            if (type.equals("bool")) return true;
+            if (type.startsWith("int")) return false;
+            throw error("Not an input / output type: " + type);
+        }
+
+        // (line:column-endColumn) or (line:column-endLine:endColumn)
+        private SourcePosition optionalPosition() throws VmcFile.FormatError {
+            skipBlanks();
+            if (pos >= text.length() || text.charAt(pos) != '(') {
+                return null;
+            }
+            pos++;
+            int startLine= number();
+            expect(':');
+            int column= number();
+            expect('-');
+            int endLine= startLine;
+            int endColumn= number();
+            skipBlanks();
+            if (pos < text.length() && text.charAt(pos) == ':') {
+                pos++;
+                endLine= endColumn;
+                endColumn= number();
+            }
+            expect(')');
+            return new SourcePosition(startLine, column, endLine, endColumn);
+        }
+
+        // a decimal number, negative ones in parentheses like (-2)
+        private int number() throws VmcFile.FormatError {
+            skipBlanks();
+            boolean parenthesized= pos < text.length() && text.charAt(pos) == '(';
+            if (parenthesized) pos++;
+            boolean negative= pos < text.length() && text.charAt(pos) == '-';
+            if (negative) pos++;
+            int start= pos;
+            long value= 0;
+            while (pos < text.length() && text.charAt(pos) >= '0' && text.charAt(pos) <= '9') {
+                value= 10 * value + (text.charAt(pos) - '0');
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw error("Number out of range");
+                }
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Number expected");
+            }
+            if (negative) value= -value;
+            if (value > Integer.MAX_VALUE) {
+                throw error("Number out of range");
+            }
+            if (parenthesized) expect(')');
+            return (int) value;
+        }
+
+        private String word() throws VmcFile.FormatError {
+            skipBlanks();
+            int start= pos;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '_')) {
+                pos++;
+            }
+            if (pos == start) {
+                throw error("Name expected");
+            }
+            return text.substring(start, pos);
+        }
+
+        // a string in double quotes, with backslash escapes
+        private String string() throws VmcFile.FormatError {
+            expect('"');
+            StringBuilder s= new StringBuilder();
+            while (pos < text.length() && text.charAt(pos) != '"') {
+                char c= text.charAt(pos++);
+                if (c == '\n') {
+                    throw error("Unterminated string");
+                }
+                if (c == '\\' && pos < text.length()) {
+                    c= text.charAt(pos++);
+                }
+                s.append(c);
+            }
+            expect('"');
+            return s.toString();
+        }
+
+        private void expect(char c) throws VmcFile.FormatError {
+            skipBlanks();
+            if (pos >= text.length() || text.charAt(pos) != c) {
+                throw error("'" + c + "' expected");
+            }
+            pos++;
+        }
+
+        private void skipBlanks() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                if (text.charAt(pos) == '\n') line++;
+                pos++;
+            }
+        }
+
+        private VmcFile.FormatError error(String message) {
+            return new VmcFile.FormatError("Line " + line + ": " + message);
+        }
+    }
+}